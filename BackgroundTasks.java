@@ -0,0 +1,125 @@
+import javax.swing.SwingWorker;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+// Runs long operations (reports, exports, refreshes) off the Event Dispatch
+// Thread. Tasks are keyed: submitting a task while another with the same key is
+// still running cancels the older one, so repeated requests coalesce into the
+// latest. Progress updates are delivered to the status listener on the EDT.
+// submit() and cancel() must be called on the EDT.
+class BackgroundTasks {
+
+    interface Task<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    interface Progress {
+        void update(int percent, String message);
+
+        boolean isCancelled();
+    }
+
+    interface StatusListener {
+        void statusChanged(String key, int percent, String message, boolean running);
+    }
+
+    private final Map<String, Worker<?>> running = new HashMap<>();
+    private final StatusListener statusListener;
+
+    public BackgroundTasks(StatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    public <T> void submit(String key, Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        Worker<?> previous = running.get(key);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+        Worker<T> worker = new Worker<>(key, task, onSuccess, onError);
+        running.put(key, worker);
+        worker.execute();
+    }
+
+    public void cancel(String key) {
+        Worker<?> worker = running.get(key);
+        if (worker != null) {
+            worker.cancel(true);
+        }
+    }
+
+    public boolean isRunning(String key) {
+        return running.containsKey(key);
+    }
+
+    private static class Update {
+        final int percent;
+        final String message;
+
+        Update(int percent, String message) {
+            this.percent = percent;
+            this.message = message;
+        }
+    }
+
+    private class Worker<T> extends SwingWorker<T, Update> implements Progress {
+        private final String key;
+        private final Task<T> task;
+        private final Consumer<T> onSuccess;
+        private final Consumer<Exception> onError;
+
+        Worker(String key, Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onError) {
+            this.key = key;
+            this.task = task;
+            this.onSuccess = onSuccess;
+            this.onError = onError;
+        }
+
+        @Override
+        protected T doInBackground() throws Exception {
+            return task.run(this);
+        }
+
+        @Override
+        public void update(int percent, String message) {
+            // SwingWorker merges pending chunks, so bursts cost one EDT callback
+            publish(new Update(percent, message));
+        }
+
+        @Override
+        protected void process(List<Update> updates) {
+            if (!isCancelled() && statusListener != null) {
+                Update latest = updates.get(updates.size() - 1);
+                statusListener.statusChanged(key, latest.percent, latest.message, true);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (running.get(key) == this) {
+                running.remove(key);
+                if (statusListener != null) {
+                    statusListener.statusChanged(key, 100, null, false);
+                }
+            }
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                onSuccess.accept(get());
+            } catch (CancellationException | InterruptedException e) {
+                // Superseded or cancelled; nothing to report
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (onError != null && cause instanceof Exception) {
+                    onError.accept((Exception) cause);
+                } else {
+                    cause.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Line items of one checkout, sold together with InventoryService.sellBasket:
+// either every line is sold or none is. An item may appear on several lines.
+class Basket {
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> quantities = new ArrayList<>();
+
+    public Basket add(String name, int quantity) {
+        names.add(name);
+        quantities.add(quantity);
+        return this;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    public String getName(int line) {
+        return names.get(line);
+    }
+
+    public int getQuantity(int line) {
+        return quantities.get(line);
+    }
+}
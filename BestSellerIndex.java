@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Exact all-time best sellers, kept up to date as sales arrive. Units sold only
+// ever grow, so an item can only be in the top `capacity` once it reaches the
+// units the capacity-th best seller had when the ranking was last trimmed.
+// Items at or above that threshold are kept as candidates in a concurrent set:
+// a sale of any other item costs one comparison and a sale of a candidate costs
+// a lookup, so sales never take the lock. top() ranks the candidates by their
+// current units and trims them back to the capacity once they reach twice it.
+// Larger K, and refilling after a candidate is removed, scan the live item
+// collection.
+class BestSellerIndex implements StockItemListener {
+
+    // Units are copied into the entry so the order holds while it is sorted
+    private static class Entry implements Comparable<Entry> {
+        final StockItem item;
+        final long units;
+
+        Entry(StockItem item) {
+            this.item = item;
+            this.units = item.getTotalSold();
+        }
+
+        // Most units first, ties by name so the order is stable
+        @Override
+        public int compareTo(Entry other) {
+            int byUnits = Long.compare(other.units, units);
+            return byUnits != 0 ? byUnits : item.getName().compareTo(other.item.getName());
+        }
+    }
+
+    private final Collection<StockItem> items;
+    private final int capacity;
+    private final Set<StockItem> candidates = ConcurrentHashMap.newKeySet();
+    // Every item selling at least this many units is a candidate
+    private volatile long threshold = Long.MIN_VALUE;
+
+    // items is the inventory's live view of its stock
+    public BestSellerIndex(Collection<StockItem> items, int capacity) {
+        this.items = items;
+        this.capacity = capacity;
+    }
+
+    public synchronized void rebuild() {
+        threshold = Long.MIN_VALUE;
+        candidates.clear();
+        TreeSet<Entry> best = new TreeSet<>();
+        for (StockItem item : items) {
+            best.add(new Entry(item));
+            if (best.size() > capacity) {
+                best.pollLast();
+            }
+        }
+        for (Entry entry : best) {
+            candidates.add(entry.item);
+        }
+        if (best.size() == capacity && capacity > 0) {
+            raiseThreshold(best.last().units);
+        }
+    }
+
+    // The count best selling items, most units first
+    public synchronized List<StockItem> top(int count) {
+        if (count > capacity) {
+            TreeSet<Entry> best = new TreeSet<>();
+            for (StockItem item : items) {
+                best.add(new Entry(item));
+                if (best.size() > count) {
+                    best.pollLast();
+                }
+            }
+            return itemsOf(best, count);
+        }
+        List<Entry> ranking = new ArrayList<>(candidates.size());
+        for (StockItem item : candidates) {
+            ranking.add(new Entry(item));
+        }
+        Collections.sort(ranking);
+        if (capacity > 0 && ranking.size() > 2 * capacity) {
+            raiseThreshold(ranking.get(capacity - 1).units);
+            // An item sold while it is dropped sees either the new threshold or
+            // that it is still a candidate, and checking its units again here
+            // after the removal catches the other case
+            for (Entry entry : ranking.subList(capacity, ranking.size())) {
+                candidates.remove(entry.item);
+                if (entry.item.getTotalSold() >= threshold) {
+                    candidates.add(entry.item);
+                }
+            }
+        }
+        return itemsOf(ranking, count);
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+        offer(item);
+    }
+
+    @Override
+    public synchronized void itemRemoved(StockItem item) {
+        if (candidates.remove(item)) {
+            // The next best item is not known, so rank everything again
+            rebuild();
+        }
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        offer(item);
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+    }
+
+    private void offer(StockItem item) {
+        if (item.getTotalSold() >= threshold && !candidates.contains(item)) {
+            candidates.add(item);
+        }
+    }
+
+    private void raiseThreshold(long units) {
+        threshold = Math.max(threshold, units);
+    }
+
+    private static List<StockItem> itemsOf(Collection<Entry> ranking, int count) {
+        List<StockItem> top = new ArrayList<>(Math.max(0, Math.min(count, ranking.size())));
+        Iterator<Entry> entry = ranking.iterator();
+        while (top.size() < count && entry.hasNext()) {
+            top.add(entry.next().item);
+        }
+        return top;
+    }
+}
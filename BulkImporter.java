@@ -0,0 +1,943 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+
+// Bulk loader for stock catalogs and historical sales in CSV or JSON Lines.
+// The file is memory-mapped and split into chunks at line boundaries that are
+// parsed and validated in parallel; accepted rows are then applied in batches
+// through a Target, and rejected rows are written to <file>.rejected.csv.
+// CSV columns are matched by header name, JSON keys by the same names. Rows must
+// not contain embedded line breaks, since chunks are split at every newline.
+class BulkImporter {
+    private static final int CHUNK_SIZE = 8 << 20;
+    private static final int BATCH_SIZE = 10_000;
+    private static final long DAY = 86_400_000L;
+
+    // Logical columns
+    private static final int NAME = 0;
+    private static final int QUANTITY = 1;
+    private static final int PRICE = 2;
+    private static final int MINIMUM_STOCK = 3;
+    private static final int CATEGORY = 4;
+    private static final int TIME = 5;
+    private static final int COLUMNS = 6;
+
+    enum Kind {
+        STOCK, SALES
+    }
+
+    // Destination of the import. inBatch runs a group of get/add calls, on
+    // whichever thread the target needs them on.
+    interface Target {
+        void inBatch(Runnable batch) throws Exception;
+
+        StockItem get(String name);
+
+        void add(StockItem item);
+
+        // Merges sorted historical sales into the item's history
+        void importSales(StockItem item, long[] times, int[] quantities, long[] prices, int count);
+    }
+
+    static class Rejection {
+        final long line;
+        final String reason;
+        final String text;
+
+        Rejection(long line, String reason, String text) {
+            this.line = line;
+            this.reason = reason;
+            this.text = text;
+        }
+    }
+
+    static class Result {
+        private final Kind kind;
+        private final List<Rejection> rejections = new ArrayList<>();
+        private long rows;
+        private long accepted;
+        private long bytes;
+        private long parseNanos;
+        private long applyNanos;
+        private Path rejectFile;
+
+        Result(Kind kind) {
+            this.kind = kind;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public List<Rejection> getRejections() {
+            return rejections;
+        }
+
+        public String summary() {
+            double seconds = Math.max(parseNanos + applyNanos, 1) / 1e9;
+            StringBuilder summary = new StringBuilder();
+            summary.append(String.format("Imported %d of %d %s rows (%d rejected)%n",
+                    accepted, rows, kind == Kind.STOCK ? "stock" : "sales", rejections.size()));
+            summary.append(String.format("Parse %d ms, apply %d ms, %.0f rows/s, %.1f MB/s",
+                    parseNanos / 1_000_000, applyNanos / 1_000_000, rows / seconds, bytes / seconds / (1 << 20)));
+            if (rejectFile != null) {
+                summary.append(String.format("%nRejected rows written to %s", rejectFile));
+            }
+            return summary.toString();
+        }
+    }
+
+    // Parsed output of one chunk
+    private static class Chunk {
+        final long start;
+        final long end;
+        final List<Rejection> rejections = new ArrayList<>();
+        long firstLine;
+        long lines;
+        int rows;
+        int[] lineNumbers = new int[64];
+        StockItem[] items;
+        String[] names;
+        long[] times;
+        int[] quantities;
+        long[] prices;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void addItem(StockItem item, int line) {
+            if (items == null) {
+                items = new StockItem[64];
+            }
+            ensureCapacity();
+            items[rows] = item;
+            lineNumbers[rows++] = line;
+        }
+
+        void addSale(String name, long time, int quantity, long price, int line) {
+            if (names == null) {
+                names = new String[64];
+                times = new long[64];
+                quantities = new int[64];
+                prices = new long[64];
+            }
+            ensureCapacity();
+            names[rows] = name;
+            times[rows] = time;
+            quantities[rows] = quantity;
+            prices[rows] = price;
+            lineNumbers[rows++] = line;
+        }
+
+        private void ensureCapacity() {
+            if (rows < lineNumbers.length) {
+                return;
+            }
+            int length = lineNumbers.length * 2;
+            lineNumbers = Arrays.copyOf(lineNumbers, length);
+            if (items != null) {
+                items = Arrays.copyOf(items, length);
+            }
+            if (names != null) {
+                names = Arrays.copyOf(names, length);
+                times = Arrays.copyOf(times, length);
+                quantities = Arrays.copyOf(quantities, length);
+                prices = Arrays.copyOf(prices, length);
+            }
+        }
+    }
+
+    // Sales staged for one item before they are sorted and applied
+    private static class StagedSales {
+        long[] times = new long[16];
+        int[] quantities = new int[16];
+        long[] prices = new long[16];
+        int count;
+
+        void add(long time, int quantity, long price) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                quantities = Arrays.copyOf(quantities, count * 2);
+                prices = Arrays.copyOf(prices, count * 2);
+            }
+            times[count] = time;
+            quantities[count] = quantity;
+            prices[count++] = price;
+        }
+
+        void sortByTime() {
+            for (int i = 1; i < count; i++) {
+                if (times[i] < times[i - 1]) {
+                    Integer[] order = new Integer[count];
+                    for (int j = 0; j < count; j++) {
+                        order[j] = j;
+                    }
+                    Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+                    long[] sortedTimes = new long[count];
+                    int[] sortedQuantities = new int[count];
+                    long[] sortedPrices = new long[count];
+                    for (int j = 0; j < count; j++) {
+                        sortedTimes[j] = times[order[j]];
+                        sortedQuantities[j] = quantities[order[j]];
+                        sortedPrices[j] = prices[order[j]];
+                    }
+                    times = sortedTimes;
+                    quantities = sortedQuantities;
+                    prices = sortedPrices;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Maps raw JSON key bytes to logical columns without decoding each key
+    private static class KeyCache {
+        private byte[][] keys = new byte[0][];
+        private int[] columns = new int[0];
+
+        int column(byte[] buffer, int start, int end) {
+            int length = end - start;
+            for (int k = 0; k < keys.length; k++) {
+                byte[] key = keys[k];
+                if (key.length != length) {
+                    continue;
+                }
+                int i = 0;
+                while (i < length && key[i] == buffer[start + i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return columns[k];
+                }
+            }
+            byte[] key = Arrays.copyOfRange(buffer, start, end);
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            columns = Arrays.copyOf(columns, columns.length + 1);
+            keys[keys.length - 1] = key;
+            columns[columns.length - 1] = BulkImporter.column(new String(key, StandardCharsets.UTF_8));
+            return columns[columns.length - 1];
+        }
+    }
+
+    private final TimeZone timeZone = StockClock.getTimeZone();
+
+    public Result importFile(Path file, Kind kind, Target target, BackgroundTasks.Progress progress)
+            throws Exception {
+        Result result = new Result(kind);
+        boolean json = isJson(file);
+        long parseStart = System.nanoTime();
+        List<Chunk> chunks;
+        int[] columns;
+        long headerLines;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            result.bytes = size;
+            long dataStart = 0;
+            columns = null;
+            if (!json) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1 << 16));
+                byte[] head = new byte[mapped.limit()];
+                mapped.get(head);
+                int lineEnd = 0;
+                while (lineEnd < head.length && head[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                columns = parseHeader(head, lineEnd);
+                dataStart = Math.min(size, lineEnd + 1);
+                requireColumns(columns, kind);
+            }
+            headerLines = json ? 0 : 1;
+            chunks = split(channel, dataStart, size);
+
+            int[] csvColumns = columns;
+            int[] done = new int[1];
+            chunks.parallelStream().forEach(chunk -> {
+                if (progress != null && progress.isCancelled()) {
+                    throw new CancellationException();
+                }
+                try {
+                    parseChunk(channel, chunk, csvColumns, kind);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (progress != null) {
+                    synchronized (done) {
+                        done[0]++;
+                        progress.update(done[0] * 50 / chunks.size(), "Parsed " + done[0] + " of " + chunks.size() + " chunks");
+                    }
+                }
+            });
+        }
+        result.parseNanos = System.nanoTime() - parseStart;
+
+        // Turn chunk-local line numbers into file line numbers
+        long line = headerLines;
+        for (Chunk chunk : chunks) {
+            chunk.firstLine = line;
+            for (Rejection rejection : chunk.rejections) {
+                result.rejections.add(new Rejection(line + rejection.line, rejection.reason, rejection.text));
+            }
+            result.rows += chunk.rows + chunk.rejections.size();
+            line += chunk.lines;
+        }
+
+        long applyStart = System.nanoTime();
+        if (kind == Kind.STOCK) {
+            applyStock(chunks, target, result, progress);
+        } else {
+            applySales(chunks, target, result, progress);
+        }
+        result.applyNanos = System.nanoTime() - applyStart;
+
+        if (!result.rejections.isEmpty()) {
+            result.rejections.sort((a, b) -> Long.compare(a.line, b.line));
+            result.rejectFile = file.resolveSibling(file.getFileName() + ".rejected.csv");
+            try (CsvExporter out = new CsvExporter(result.rejectFile, false)) {
+                out.header("Line", "Reason", "Row");
+                for (Rejection rejection : result.rejections) {
+                    out.number(rejection.line);
+                    out.field(rejection.reason);
+                    out.field(rejection.text);
+                    out.endRow();
+                }
+            }
+        }
+        return result;
+    }
+
+    private void applyStock(List<Chunk> chunks, Target target, Result result, BackgroundTasks.Progress progress)
+            throws Exception {
+        int chunkIndex = 0;
+        for (Chunk chunk : chunks) {
+            for (int from = 0; from < chunk.rows; from += BATCH_SIZE) {
+                checkCancelled(progress);
+                int batchStart = from;
+                int batchEnd = Math.min(chunk.rows, from + BATCH_SIZE);
+                target.inBatch(() -> {
+                    for (int i = batchStart; i < batchEnd; i++) {
+                        StockItem item = chunk.items[i];
+                        boolean added = false;
+                        if (target.get(item.getName()) == null) {
+                            try {
+                                target.add(item);
+                                added = true;
+                            } catch (DuplicateItemException e) {
+                                // Added by a till since the check
+                            }
+                        }
+                        if (added) {
+                            result.accepted++;
+                        } else {
+                            result.rejections.add(new Rejection(chunk.firstLine + chunk.lineNumbers[i],
+                                    "An item with this name already exists", item.getName()));
+                        }
+                    }
+                });
+            }
+            chunkIndex++;
+            reportApply(progress, chunkIndex, chunks.size());
+        }
+    }
+
+    private void applySales(List<Chunk> chunks, Target target, Result result, BackgroundTasks.Progress progress)
+            throws Exception {
+        Map<StockItem, StagedSales> staged = new IdentityHashMap<>();
+        int chunkIndex = 0;
+        for (Chunk chunk : chunks) {
+            checkCancelled(progress);
+            target.inBatch(() -> {
+                StockItem item = null;
+                for (int i = 0; i < chunk.rows; i++) {
+                    if (item == null || !item.getName().equals(chunk.names[i])) {
+                        item = target.get(chunk.names[i]);
+                    }
+                    if (item == null) {
+                        result.rejections.add(new Rejection(chunk.firstLine + chunk.lineNumbers[i],
+                                "Unknown item", chunk.names[i]));
+                        continue;
+                    }
+                    staged.computeIfAbsent(item, k -> new StagedSales())
+                            .add(chunk.times[i], chunk.quantities[i], chunk.prices[i]);
+                    result.accepted++;
+                }
+            });
+            chunkIndex++;
+            reportApply(progress, chunkIndex, chunks.size() * 2);
+        }
+
+        List<Map.Entry<StockItem, StagedSales>> entries = new ArrayList<>(staged.entrySet());
+        entries.parallelStream().forEach(entry -> entry.getValue().sortByTime());
+        for (int from = 0; from < entries.size(); from += BATCH_SIZE) {
+            checkCancelled(progress);
+            List<Map.Entry<StockItem, StagedSales>> batch = entries.subList(from, Math.min(entries.size(), from + BATCH_SIZE));
+            target.inBatch(() -> {
+                for (Map.Entry<StockItem, StagedSales> entry : batch) {
+                    StagedSales sales = entry.getValue();
+                    target.importSales(entry.getKey(), sales.times, sales.quantities, sales.prices, sales.count);
+                }
+            });
+            reportApply(progress, chunks.size() + (from + batch.size()) * chunks.size() / Math.max(entries.size(), 1),
+                    chunks.size() * 2);
+        }
+    }
+
+    private static void checkCancelled(BackgroundTasks.Progress progress) {
+        if (progress != null && progress.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    private static void reportApply(BackgroundTasks.Progress progress, int done, int total) {
+        if (progress != null) {
+            progress.update(50 + done * 50 / Math.max(total, 1), "Applying rows");
+        }
+    }
+
+    private static boolean isJson(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jsonl") || name.endsWith(".json") || name.endsWith(".ndjson");
+    }
+
+    // Splits [start, size) into chunks that end just after a newline
+    private static List<Chunk> split(FileChannel channel, long start, long size) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        while (start < size) {
+            long end = Math.min(size, start + CHUNK_SIZE);
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                int newline = -1;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += Math.max(read, 0);
+                if (read <= 0) {
+                    end = size;
+                }
+            }
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private void parseChunk(FileChannel channel, Chunk chunk, int[] csvColumns, Kind kind) throws IOException {
+        // Copy the mapped chunk into a heap array once; byte[] access is much cheaper to parse
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+        byte[] buffer = new byte[mapped.limit()];
+        mapped.get(buffer);
+        int[] starts = new int[COLUMNS];
+        int[] ends = new int[COLUMNS];
+        boolean[] escaped = new boolean[COLUMNS];
+        Map<String, String> names = new HashMap<>();
+        KeyCache keys = new KeyCache();
+        int limit = buffer.length;
+        int lineStart = 0;
+        int lineNumber = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            lineNumber++;
+            if (lineEnd > lineStart) {
+                Arrays.fill(starts, -1);
+                String error = csvColumns == null
+                        ? splitJson(buffer, lineStart, lineEnd, keys, starts, ends, escaped)
+                        : splitCsv(buffer, lineStart, lineEnd, csvColumns, starts, ends, escaped);
+                if (error == null) {
+                    error = kind == Kind.STOCK
+                            ? parseStockRow(buffer, starts, ends, escaped, chunk, lineNumber)
+                            : parseSaleRow(buffer, starts, ends, escaped, chunk, lineNumber, names);
+                }
+                if (error != null) {
+                    chunk.rejections.add(new Rejection(lineNumber, error, decode(buffer, lineStart, lineEnd)));
+                }
+            }
+            lineStart = next;
+        }
+        chunk.lines = lineNumber;
+    }
+
+    // Same rules as validateStockData and the Add Stock dialog
+    private static String parseStockRow(byte[] buffer, int[] starts, int[] ends, boolean[] escaped,
+            Chunk chunk, int line) {
+        String name = starts[NAME] < 0 ? "" : value(buffer, starts[NAME], ends[NAME], escaped[NAME]).trim();
+        if (name.isEmpty()) {
+            return "Name cannot be empty";
+        }
+        long quantity = parseLong(buffer, starts[QUANTITY], ends[QUANTITY]);
+        long price = parseCents(buffer, starts[PRICE], ends[PRICE]);
+        long minimumStock = starts[MINIMUM_STOCK] < 0 ? 0 : parseLong(buffer, starts[MINIMUM_STOCK], ends[MINIMUM_STOCK]);
+        if (quantity < 0 || quantity > Integer.MAX_VALUE) {
+            return "Invalid quantity";
+        }
+        if (price < 0) {
+            return "Invalid price";
+        }
+        if (minimumStock < 0 || minimumStock > Integer.MAX_VALUE) {
+            return "Invalid minimum stock";
+        }
+        String category = starts[CATEGORY] < 0 ? "Other"
+                : value(buffer, starts[CATEGORY], ends[CATEGORY], escaped[CATEGORY]).trim();
+        if (category.isEmpty()) {
+            category = "Other";
+        }
+        chunk.addItem(new StockItem(name, (int) quantity, price, (int) minimumStock, category), line);
+        return null;
+    }
+
+    private String parseSaleRow(byte[] buffer, int[] starts, int[] ends, boolean[] escaped,
+            Chunk chunk, int line, Map<String, String> names) {
+        String name = starts[NAME] < 0 ? "" : value(buffer, starts[NAME], ends[NAME], escaped[NAME]).trim();
+        if (name.isEmpty()) {
+            return "Item name cannot be empty";
+        }
+        long quantity = parseLong(buffer, starts[QUANTITY], ends[QUANTITY]);
+        if (quantity <= 0 || quantity > Integer.MAX_VALUE) {
+            return "Invalid quantity";
+        }
+        long price = parseCents(buffer, starts[PRICE], ends[PRICE]);
+        if (price < 0) {
+            return "Invalid price";
+        }
+        long time = parseTime(buffer, starts[TIME], ends[TIME]);
+        if (time == Long.MIN_VALUE) {
+            return "Invalid sale time";
+        }
+        String interned = names.putIfAbsent(name, name);
+        chunk.addSale(interned == null ? name : interned, time, (int) quantity, price, line);
+        return null;
+    }
+
+    private static int[] parseHeader(byte[] buffer, int lineEnd) {
+        if (lineEnd > 0 && buffer[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+        String header = decode(buffer, 0, lineEnd);
+        if (header.startsWith("\uFEFF")) {
+            header = header.substring(1);
+        }
+        String[] names = header.split(",", -1);
+        int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = column(names[i]);
+        }
+        return columns;
+    }
+
+    private static void requireColumns(int[] columns, Kind kind) throws IOException {
+        String[] labels = { "Name", "Quantity", "Price", "Minimum Stock", "Category", "Sale Time" };
+        int[] required = kind == Kind.STOCK
+                ? new int[] { NAME, QUANTITY, PRICE }
+                : new int[] { NAME, QUANTITY, PRICE, TIME };
+        for (int column : required) {
+            boolean present = false;
+            for (int mapped : columns) {
+                present |= mapped == column;
+            }
+            if (!present) {
+                throw new IOException("Missing required column: " + labels[column]);
+            }
+        }
+    }
+
+    // Maps a CSV header or JSON key to a logical column, ignoring case, spaces and quotes
+    private static int column(String name) {
+        String key = name.replaceAll("[^A-Za-z]", "").toLowerCase(Locale.ROOT);
+        switch (key) {
+            case "name":
+            case "item":
+            case "itemname":
+                return NAME;
+            case "quantity":
+            case "qty":
+                return QUANTITY;
+            case "price":
+            case "unitprice":
+                return PRICE;
+            case "minimumstock":
+            case "minstock":
+                return MINIMUM_STOCK;
+            case "category":
+                return CATEGORY;
+            case "saletime":
+            case "saledate":
+            case "time":
+            case "date":
+            case "timestamp":
+                return TIME;
+            default:
+                return -1;
+        }
+    }
+
+    private static String splitCsv(byte[] buffer, int start, int end, int[] columns,
+            int[] starts, int[] ends, boolean[] escaped) {
+        int field = 0;
+        int position = start;
+        while (position <= end) {
+            int fieldStart = position;
+            int fieldEnd;
+            boolean quoted = position < end && buffer[position] == '"';
+            boolean hasEscape = false;
+            if (quoted) {
+                position++;
+                fieldStart = position;
+                while (true) {
+                    if (position >= end) {
+                        return "Unterminated quoted field";
+                    }
+                    if (buffer[position] == '"') {
+                        if (position + 1 < end && buffer[position + 1] == '"') {
+                            hasEscape = true;
+                            position += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    position++;
+                }
+                fieldEnd = position;
+                position++;
+                if (position < end && buffer[position] != ',') {
+                    return "Unexpected character after quoted field";
+                }
+            } else {
+                while (position < end && buffer[position] != ',') {
+                    position++;
+                }
+                fieldEnd = position;
+            }
+            if (field < columns.length && columns[field] >= 0) {
+                int column = columns[field];
+                starts[column] = fieldStart;
+                ends[column] = fieldEnd;
+                escaped[column] = hasEscape;
+            }
+            field++;
+            position++;
+        }
+        if (field != columns.length) {
+            return "Expected " + columns.length + " fields but found " + field;
+        }
+        return null;
+    }
+
+    // Splits a flat JSON object; string values are marked escaped when they contain backslashes
+    private static String splitJson(byte[] buffer, int start, int end, KeyCache keys,
+            int[] starts, int[] ends, boolean[] escaped) {
+        int position = skipSpace(buffer, start, end);
+        if (position >= end || buffer[position] != '{') {
+            return "Expected a JSON object";
+        }
+        position = skipSpace(buffer, position + 1, end);
+        if (position < end && buffer[position] == '}') {
+            return null;
+        }
+        while (position < end) {
+            if (buffer[position] != '"') {
+                return "Expected a quoted key";
+            }
+            int keyStart = position + 1;
+            position = endOfString(buffer, keyStart, end);
+            if (position < 0) {
+                return "Unterminated string";
+            }
+            int column = keys.column(buffer, keyStart, position);
+            position = skipSpace(buffer, position + 1, end);
+            if (position >= end || buffer[position] != ':') {
+                return "Expected ':'";
+            }
+            position = skipSpace(buffer, position + 1, end);
+            int valueStart;
+            int valueEnd;
+            boolean hasEscape = false;
+            if (position < end && buffer[position] == '"') {
+                valueStart = position + 1;
+                valueEnd = endOfString(buffer, valueStart, end);
+                if (valueEnd < 0) {
+                    return "Unterminated string";
+                }
+                for (int i = valueStart; i < valueEnd; i++) {
+                    if (buffer[i] == '\\') {
+                        hasEscape = true;
+                        break;
+                    }
+                }
+                position = valueEnd + 1;
+            } else {
+                valueStart = position;
+                while (position < end && buffer[position] != ',' && buffer[position] != '}'
+                        && buffer[position] != ' ') {
+                    position++;
+                }
+                valueEnd = position;
+                if (valueEnd - valueStart == 4 && buffer[valueStart] == 'n') {
+                    valueEnd = valueStart; // null
+                }
+            }
+            if (column >= 0) {
+                starts[column] = valueStart;
+                ends[column] = valueEnd;
+                escaped[column] = hasEscape;
+            }
+            position = skipSpace(buffer, position, end);
+            if (position < end && buffer[position] == ',') {
+                position = skipSpace(buffer, position + 1, end);
+            } else if (position < end && buffer[position] == '}') {
+                return null;
+            } else {
+                return "Expected ',' or '}'";
+            }
+        }
+        return "Unterminated JSON object";
+    }
+
+    private static int skipSpace(byte[] buffer, int position, int end) {
+        while (position < end && (buffer[position] == ' ' || buffer[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int endOfString(byte[] buffer, int position, int end) {
+        while (position < end) {
+            byte b = buffer[position];
+            if (b == '\\') {
+                position += 2;
+            } else if (b == '"') {
+                return position;
+            } else {
+                position++;
+            }
+        }
+        return -1;
+    }
+
+    private static String value(byte[] buffer, int start, int end, boolean escaped) {
+        String value = decode(buffer, start, end);
+        if (!escaped) {
+            return value;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value.replace("\"\"", "\"");
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                case 'u':
+                    if (i + 4 < value.length()) {
+                        unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default:
+                    unescaped.append(next);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private static String decode(byte[] buffer, int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // Parses a non-negative integer; returns -1 when the field is missing or invalid
+    private static long parseLong(byte[] buffer, int start, int end) {
+        if (start < 0 || start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Parses a decimal amount such as 12, 12.5 or 12.34 into cents; -1 when invalid
+    private static long parseCents(byte[] buffer, int start, int end) {
+        if (start < 0 || start >= end) {
+            return -1;
+        }
+        int point = start;
+        while (point < end && buffer[point] != '.') {
+            point++;
+        }
+        long whole = point == start ? 0 : parseLong(buffer, start, point);
+        if (whole < 0 || whole > Long.MAX_VALUE / 100) {
+            return -1;
+        }
+        long cents = 0;
+        int digits = 0;
+        for (int i = point + 1; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            if (digits < 2) {
+                cents = cents * 10 + digit;
+            } else if (digits == 2 && digit >= 5) {
+                cents++;
+            }
+            digits++;
+        }
+        if (digits == 1) {
+            cents *= 10;
+        }
+        return whole * 100 + cents;
+    }
+
+    // Accepts epoch milliseconds or local "yyyy-MM-dd[ HH:mm[:ss]]"
+    private long parseTime(byte[] buffer, int start, int end) {
+        if (start < 0 || start >= end) {
+            return Long.MIN_VALUE;
+        }
+        if (end - start < 5 || buffer[start + 4] != '-') {
+            long millis = parseLong(buffer, start, end);
+            return millis < 0 ? Long.MIN_VALUE : millis;
+        }
+        if (end - start < 10 || buffer[start + 4] != '-' || buffer[start + 7] != '-') {
+            return Long.MIN_VALUE;
+        }
+        long year = parseLong(buffer, start, start + 4);
+        long month = parseLong(buffer, start + 5, start + 7);
+        long day = parseLong(buffer, start + 8, start + 10);
+        long hour = 0;
+        long minute = 0;
+        long second = 0;
+        int position = start + 10;
+        if (position < end) {
+            if (end - position < 6 || buffer[position + 3] != ':') {
+                return Long.MIN_VALUE;
+            }
+            hour = parseLong(buffer, position + 1, position + 3);
+            minute = parseLong(buffer, position + 4, position + 6);
+            if (end - position >= 9 && buffer[position + 6] == ':') {
+                second = parseLong(buffer, position + 7, position + 9);
+            }
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        long local;
+        try {
+            local = LocalDate.of((int) year, (int) month, (int) day).toEpochDay() * DAY
+                    + ((hour * 60 + minute) * 60 + second) * 1000;
+        } catch (DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+        return local - timeZone.getOffset(local - timeZone.getOffset(local));
+    }
+
+    // Headless entry point: imports into the journal-backed store and checkpoints it
+    public static void main(String[] args) throws Exception {
+        Path dataDir = Paths.get(System.getProperty("stock.dataDir", "stock-data"));
+        List<Path> stockFiles = new ArrayList<>();
+        List<Path> salesFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--data-dir".equals(args[i]) && i + 1 < args.length) {
+                dataDir = Paths.get(args[++i]);
+            } else if ("--stock".equals(args[i]) && i + 1 < args.length) {
+                stockFiles.add(Paths.get(args[++i]));
+            } else if ("--sales".equals(args[i]) && i + 1 < args.length) {
+                salesFiles.add(Paths.get(args[++i]));
+            } else {
+                System.out.println("Usage: java BulkImporter [--data-dir dir] [--stock file]... [--sales file]...");
+                System.out.println("Files ending in .jsonl/.json are read as JSON Lines, anything else as CSV.");
+                return;
+            }
+        }
+        if (stockFiles.isEmpty() && salesFiles.isEmpty()) {
+            System.out.println("Nothing to import.");
+            return;
+        }
+
+        try (Inventory inventory = Inventory.open(dataDir)) {
+            Target target = new Target() {
+                @Override
+                public void inBatch(Runnable batch) {
+                    batch.run();
+                }
+
+                @Override
+                public StockItem get(String name) {
+                    return inventory.findItem(name);
+                }
+
+                @Override
+                public void add(StockItem item) {
+                    inventory.addItem(item);
+                }
+
+                @Override
+                public void importSales(StockItem item, long[] times, int[] quantities, long[] prices, int count) {
+                    inventory.importSales(item, times, quantities, prices, count);
+                }
+            };
+
+            BulkImporter importer = new BulkImporter();
+            for (Path file : stockFiles) {
+                System.out.println(importer.importFile(file, Kind.STOCK, target, null).summary());
+            }
+            for (Path file : salesFiles) {
+                System.out.println(importer.importFile(file, Kind.SALES, target, null).summary());
+            }
+            if (!salesFiles.isEmpty()) {
+                // Rebuild the indexes and write a snapshot holding the imported history
+                inventory.salesImported();
+            }
+        }
+    }
+}
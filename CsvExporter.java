@@ -0,0 +1,290 @@
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+import java.util.zip.GZIPOutputStream;
+
+// Streaming CSV writer. Rows are encoded straight into one reusable byte buffer
+// (UTF-8, numbers and cents formatted by hand) that is drained to a FileChannel,
+// or through gzip for compressed output. Values are quoted per RFC 4180.
+class CsvExporter implements Closeable {
+    private static final long DAY = 86_400_000L;
+    private static final byte[] NEWLINE = { '\n' };
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 18);
+    private final byte[] digits = new byte[20];
+    private final TimeZone timeZone = StockClock.getTimeZone();
+    private long cachedDay = Long.MIN_VALUE;
+    private byte[] cachedDayPrefix;
+    private boolean firstField = true;
+
+    public CsvExporter(Path file, boolean gzip) throws IOException {
+        if (gzip) {
+            channel = Channels.newChannel(new GZIPOutputStream(new FileOutputStream(file.toFile()), 1 << 16));
+        } else {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    // Exports one row per item; returns the number of rows written
+    public static long exportStock(List<StockItem> items, Path file, BackgroundTasks.Progress progress)
+            throws IOException {
+        return export(file, false, progress, exporter -> {
+            exporter.header("Name", "Quantity", "Price", "Category", "Last Updated", "Total Sold", "Total Sales");
+            for (int i = 0; i < items.size(); i++) {
+                if ((i & 4095) == 0) {
+                    checkProgress(progress, i, items.size(), "Exporting item ");
+                }
+                StockItem item = items.get(i);
+                exporter.field(item.getName());
+                exporter.number(item.getQuantity());
+                exporter.cents(item.getPriceCents());
+                exporter.field(item.getCategory());
+                exporter.field(StockClock.format(item.getLastUpdated()));
+                exporter.number(item.getTotalSold());
+                exporter.cents(item.getTotalSalesCents());
+                exporter.endRow();
+            }
+            return items.size();
+        });
+    }
+
+    // Exports every sale of every item; returns the number of rows written
+    public static long exportSalesHistory(List<StockItem> items, Path file, boolean gzip,
+            BackgroundTasks.Progress progress) throws IOException {
+        return export(file, gzip, progress, exporter -> {
+            exporter.header("Item", "Quantity", "Price", "Total", "Sale Time");
+            long rows = 0;
+            for (int i = 0; i < items.size(); i++) {
+                checkProgress(progress, i, items.size(), "Exporting sales of item ");
+                StockItem item = items.get(i);
+                SalesHistory history = item.getSales();
+                int size = history.size();
+                for (int s = 0; s < size; s++) {
+                    int quantity = history.quantityAt(s);
+                    long price = history.priceCentsAt(s);
+                    exporter.field(item.getName());
+                    exporter.number(quantity);
+                    exporter.cents(price);
+                    exporter.cents(quantity * price);
+                    exporter.timestamp(history.timeAt(s));
+                    exporter.endRow();
+                }
+                rows += size;
+            }
+            return rows;
+        });
+    }
+
+    private interface Body {
+        long write(CsvExporter exporter) throws IOException;
+    }
+
+    // Writes to a temporary file that replaces the target only on success
+    private static long export(Path file, boolean gzip, BackgroundTasks.Progress progress, Body body)
+            throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        boolean complete = false;
+        try {
+            long rows;
+            try (CsvExporter exporter = new CsvExporter(temp, gzip)) {
+                rows = body.write(exporter);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            complete = true;
+            return rows;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static void checkProgress(BackgroundTasks.Progress progress, int done, int total, String message) {
+        if (progress == null) {
+            return;
+        }
+        if (progress.isCancelled()) {
+            throw new CancellationException();
+        }
+        if ((done & 1023) == 0) {
+            progress.update((int) (done * 100L / Math.max(total, 1)), message + done + " of " + total);
+        }
+    }
+
+    public void header(String... names) throws IOException {
+        for (String name : names) {
+            field(name);
+        }
+        endRow();
+    }
+
+    public void field(String value) throws IOException {
+        separator();
+        if (value == null) {
+            return;
+        }
+        boolean quote = needsQuotes(value);
+        if (quote) {
+            put((byte) '"');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                put((byte) '"');
+                put((byte) '"');
+            } else if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                put((byte) (0xF0 | (codePoint >> 18)));
+                put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                put((byte) (0xE0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        if (quote) {
+            put((byte) '"');
+        }
+    }
+
+    public void number(long value) throws IOException {
+        separator();
+        writeLong(value);
+    }
+
+    // Writes an amount in cents as a plain decimal with two places, e.g. -12.05
+    public void cents(long cents) throws IOException {
+        separator();
+        // Split before dropping the sign, since -Long.MIN_VALUE is not a long
+        long units = cents / 100;
+        int fraction = Math.abs((int) (cents % 100));
+        if (cents < 0) {
+            put((byte) '-');
+            units = -units;
+        }
+        writeLong(units);
+        put((byte) ('.'));
+        put((byte) ('0' + fraction / 10));
+        put((byte) ('0' + fraction % 10));
+    }
+
+    // Writes local time as yyyy-MM-dd HH:mm:ss; the date part is cached per day
+    public void timestamp(long millis) throws IOException {
+        separator();
+        long local = millis + timeZone.getOffset(millis);
+        long day = Math.floorDiv(local, DAY);
+        if (day != cachedDay) {
+            cachedDay = day;
+            cachedDayPrefix = (LocalDate.ofEpochDay(day) + " ").getBytes(StandardCharsets.US_ASCII);
+        }
+        ensure(cachedDayPrefix.length + 8);
+        buffer.put(cachedDayPrefix);
+        int seconds = (int) (Math.floorMod(local, DAY) / 1000);
+        twoDigits(seconds / 3600);
+        buffer.put((byte) ':');
+        twoDigits(seconds / 60 % 60);
+        buffer.put((byte) ':');
+        twoDigits(seconds % 60);
+    }
+
+    public void endRow() throws IOException {
+        ensure(1);
+        buffer.put(NEWLINE);
+        firstField = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void separator() throws IOException {
+        if (!firstField) {
+            put((byte) ',');
+        }
+        firstField = false;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            for (byte b : Long.toString(value).getBytes(StandardCharsets.US_ASCII)) {
+                put(b);
+            }
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensure(digits.length - position);
+        buffer.put(digits, position, digits.length - position);
+    }
+
+    private void twoDigits(int value) {
+        buffer.put((byte) ('0' + value / 10));
+        buffer.put((byte) ('0' + value % 10));
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put(b);
+    }
+
+    private void ensure(int size) throws IOException {
+        if (buffer.remaining() < size) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
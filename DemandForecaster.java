@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-item demand forecasts from exponentially weighted moving averages of the
+// units sold per local day. A sale only adds to the item's running day total;
+// when a later day starts the closed days are folded into the average in one
+// step, so the cost per sale is constant whatever the history length. From the
+// average and its spread it suggests a reorder point (demand over the lead time
+// plus safety stock) and how much to order to cover the following days, and can
+// keep minimum stock set to that reorder point.
+class DemandForecaster implements StockItemListener {
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    static class Forecast {
+        private final StockItem item;
+        private final double dailyUnits;
+        private final double deviation;
+        private final double daysUntilStockout;
+        private final int reorderPoint;
+        private final int reorderQuantity;
+
+        Forecast(StockItem item, double dailyUnits, double deviation, double daysUntilStockout,
+                 int reorderPoint, int reorderQuantity) {
+            this.item = item;
+            this.dailyUnits = dailyUnits;
+            this.deviation = deviation;
+            this.daysUntilStockout = daysUntilStockout;
+            this.reorderPoint = reorderPoint;
+            this.reorderQuantity = reorderQuantity;
+        }
+
+        public StockItem getItem() {
+            return item;
+        }
+
+        // Expected units sold per day
+        public double getDailyUnits() {
+            return dailyUnits;
+        }
+
+        // Standard deviation of the units sold per day
+        public double getDeviation() {
+            return deviation;
+        }
+
+        // Infinite when the item is not selling
+        public double getDaysUntilStockout() {
+            return daysUntilStockout;
+        }
+
+        // Stock level at which to reorder, so the order lands before stock runs out
+        public int getReorderPoint() {
+            return reorderPoint;
+        }
+
+        // Units to order now; zero while stock is above the reorder point
+        public int getReorderQuantity() {
+            return reorderQuantity;
+        }
+    }
+
+    // Running averages for one item, guarded by its own lock
+    private static class Demand {
+        final double alpha;
+        long day = Long.MIN_VALUE;
+        long dayUnits;
+        double mean;
+        double variance;
+        // Set once a day has closed; the first closed day seeds the average
+        boolean seeded;
+
+        Demand(double alpha) {
+            this.alpha = alpha;
+        }
+
+        void add(long day, long units) {
+            roll(day);
+            // Sales dated before the current day arrive late; count them in today
+            dayUnits += units;
+        }
+
+        // Folds the days before the given day into the averages
+        void roll(long day) {
+            if (this.day == Long.MIN_VALUE) {
+                this.day = day;
+                return;
+            }
+            if (day <= this.day) {
+                return;
+            }
+            fold(dayUnits);
+            // Days without sales count as zero, up to where they no longer matter
+            long quiet = Math.min(day - this.day - 1, MAX_QUIET_DAYS);
+            for (long i = 0; i < quiet; i++) {
+                fold(0);
+            }
+            this.day = day;
+            dayUnits = 0;
+        }
+
+        private void fold(long units) {
+            if (!seeded) {
+                mean = units;
+                seeded = true;
+                return;
+            }
+            double difference = units - mean;
+            mean += alpha * difference;
+            variance = (1 - alpha) * (variance + alpha * difference * difference);
+        }
+    }
+
+    private static final int MAX_QUIET_DAYS = 365;
+
+    private final Map<StockItem, Demand> demands = new ConcurrentHashMap<>();
+    private final TimeZone timeZone;
+    private final double alpha;
+    private final int leadDays;
+    private final int coverDays;
+    private final double safetyFactor;
+    private volatile boolean dynamicMinimum;
+
+    // alpha is the weight of the latest day; leadDays is how long an order takes
+    // to arrive and coverDays how many days of demand an order should cover.
+    // safetyFactor is the number of deviations of lead time demand held as safety
+    // stock (1.65 leaves about a 5% chance of running out before the order lands).
+    public DemandForecaster(TimeZone timeZone, double alpha, int leadDays, int coverDays, double safetyFactor) {
+        if (!(alpha > 0 && alpha <= 1) || leadDays < 0 || coverDays < 0 || safetyFactor < 0) {
+            throw new IllegalArgumentException("Invalid forecast settings");
+        }
+        this.timeZone = timeZone;
+        this.alpha = alpha;
+        this.leadDays = leadDays;
+        this.coverDays = coverDays;
+        this.safetyFactor = safetyFactor;
+    }
+
+    // When on, each item's minimum stock follows its reorder point as days close
+    public void setDynamicMinimum(boolean dynamicMinimum) {
+        this.dynamicMinimum = dynamicMinimum;
+    }
+
+    public boolean isDynamicMinimum() {
+        return dynamicMinimum;
+    }
+
+    // Recomputes every item's averages from its sale history, spread over all
+    // cores. A sale racing the recompute of its own item may be counted twice
+    // for the day, which the next recompute corrects.
+    public void recompute(Collection<StockItem> items, long now) {
+        long today = dayOf(now);
+        // Older days carry less than a thousandth of the weight
+        long horizon = Math.min(MAX_QUIET_DAYS, (long) Math.ceil(Math.log(0.001) / Math.log(1 - Math.min(alpha, 0.999))));
+        long from = startOfDay(today - horizon);
+        new ArrayList<>(items).parallelStream().forEach(item -> {
+            Demand demand = rebuild(item, from, today);
+            demands.put(item, demand);
+            if (dynamicMinimum) {
+                applyMinimum(item, now);
+            }
+        });
+    }
+
+    public Forecast forecast(StockItem item, long now) {
+        double mean;
+        double variance;
+        Demand demand = demands.get(item);
+        if (demand == null) {
+            mean = 0;
+            variance = 0;
+        } else {
+            synchronized (demand) {
+                demand.roll(dayOf(now));
+                if (demand.seeded) {
+                    mean = demand.mean;
+                    variance = demand.variance;
+                } else {
+                    // Nothing closed yet; today's sales so far stand in for a day
+                    mean = demand.dayUnits;
+                    variance = 0;
+                }
+            }
+        }
+
+        int quantity = item.getQuantity();
+        double deviation = Math.sqrt(variance);
+        double daysUntilStockout = mean > 0 ? Math.max(0, quantity) / mean : Double.POSITIVE_INFINITY;
+        double safetyStock = safetyFactor * deviation * Math.sqrt(leadDays);
+        int reorderPoint = (int) Math.min(Integer.MAX_VALUE, Math.ceil(mean * leadDays + safetyStock));
+        int reorderQuantity = 0;
+        if (quantity <= reorderPoint) {
+            double target = Math.ceil(mean * (leadDays + coverDays) + safetyStock);
+            reorderQuantity = (int) Math.min(Integer.MAX_VALUE, Math.max(0, target - quantity));
+        }
+        return new Forecast(item, mean, deviation, daysUntilStockout, reorderPoint, reorderQuantity);
+    }
+
+    // Items that need ordering now, soonest to run out first
+    public List<Forecast> reorderSuggestions(Collection<StockItem> items, long now) {
+        List<Forecast> suggestions = new ArrayList<>();
+        for (StockItem item : items) {
+            Forecast forecast = forecast(item, now);
+            if (forecast.getReorderQuantity() > 0) {
+                suggestions.add(forecast);
+            }
+        }
+        suggestions.sort((a, b) -> Double.compare(a.getDaysUntilStockout(), b.getDaysUntilStockout()));
+        return suggestions;
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        Demand demand = demands.computeIfAbsent(item, key -> new Demand(alpha));
+        long day = dayOf(time);
+        boolean dayClosed;
+        synchronized (demand) {
+            dayClosed = demand.day != Long.MIN_VALUE && day > demand.day;
+            demand.add(day, amount);
+        }
+        // Outside the item's lock, as setting the minimum raises an event of its own
+        if (dayClosed && dynamicMinimum) {
+            applyMinimum(item, time);
+        }
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+        demands.remove(item);
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+    }
+
+    private void applyMinimum(StockItem item, long now) {
+        Demand demand = demands.get(item);
+        if (demand == null || !demand.seeded) {
+            // Leave items without a closed day of history as they were set up
+            return;
+        }
+        int reorderPoint = forecast(item, now).getReorderPoint();
+        if (reorderPoint != item.getMinimumStock()) {
+            item.setMinimumStock(reorderPoint);
+        }
+    }
+
+    private Demand rebuild(StockItem item, long from, long today) {
+        Demand demand = new Demand(alpha);
+        SalesHistory history = item.getSales();
+        int size = history.size();
+        int first = history.lowerBound(from);
+        if (first > 0) {
+            // The item was selling before the horizon, so its quiet days since count
+            demand.roll(dayOf(from));
+        }
+        for (int i = first; i < size; i++) {
+            long day = dayOf(history.timeAt(i));
+            demand.add(Math.min(day, today), history.quantityAt(i));
+        }
+        demand.roll(today);
+        return demand;
+    }
+
+    private long dayOf(long utc) {
+        return Math.floorDiv(utc + timeZone.getOffset(utc), DAY_MILLIS);
+    }
+
+    private long startOfDay(long day) {
+        long local = day * DAY_MILLIS;
+        return local - timeZone.getOffset(local - timeZone.getOffset(local));
+    }
+}
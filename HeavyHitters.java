@@ -0,0 +1,348 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Approximate best sellers over sliding windows (last hour, day and week) with
+// Space-Saving sketches. Each window is a ring of time slices holding one
+// fixed-capacity sketch each; a query merges the slices the window covers, so
+// memory and query cost follow the capacity, not the catalog size. Any item
+// selling more than 1/capacity of a slice's units is sure to be counted, and
+// every estimate comes with the most it may overcount by.
+//
+// Sales are counted in stripes, each a full set of rings under its own lock, and
+// a thread always uses the same stripe, so tills on different stripes never
+// contend. Queries merge every stripe's slices the same way they merge slices,
+// so each stripe adds its own overcount allowance to the error bound.
+class HeavyHitters implements StockItemListener {
+    private static final int MAX_STRIPES = 16;
+
+    // A window is covered by whole slices, so it may reach back up to one slice further
+    enum Window {
+        HOUR(300_000L, 12), DAY(3_600_000L, 24), WEEK(86_400_000L, 7);
+
+        final long sliceMillis;
+        final int slices;
+
+        Window(long sliceMillis, int slices) {
+            this.sliceMillis = sliceMillis;
+            this.slices = slices;
+        }
+
+        long getMillis() {
+            return sliceMillis * slices;
+        }
+    }
+
+    static class Estimate {
+        private final StockItem item;
+        private final long units;
+        private final long error;
+
+        Estimate(StockItem item, long units, long error) {
+            this.item = item;
+            this.units = units;
+            this.error = error;
+        }
+
+        public StockItem getItem() {
+            return item;
+        }
+
+        // Upper bound on the units sold in the window
+        public long getUnits() {
+            return units;
+        }
+
+        // The true count is at least getUnits() - getError()
+        public long getError() {
+            return error;
+        }
+    }
+
+    // One set of rings, guarded by its own monitor
+    private static class Stripe {
+        final Sketch[][] rings = new Sketch[Window.values().length][];
+
+        Stripe(int capacity) {
+            for (Window window : Window.values()) {
+                Sketch[] ring = new Sketch[window.slices + 1];
+                for (int i = 0; i < ring.length; i++) {
+                    ring[i] = new Sketch(capacity);
+                }
+                rings[window.ordinal()] = ring;
+            }
+        }
+
+        void add(StockItem item, long units, long time) {
+            for (Window window : Window.values()) {
+                Sketch[] ring = rings[window.ordinal()];
+                long slice = Math.floorDiv(time, window.sliceMillis);
+                Sketch sketch = ring[(int) Math.floorMod(slice, (long) ring.length)];
+                if (sketch.slice != slice) {
+                    if (sketch.slice > slice) {
+                        // Older than anything the ring still holds
+                        continue;
+                    }
+                    sketch.reset(slice);
+                }
+                sketch.add(item, units);
+            }
+        }
+    }
+
+    private final int capacity;
+    private final Stripe[] stripes;
+
+    public HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        int processors = Runtime.getRuntime().availableProcessors();
+        stripes = new Stripe[Math.min(MAX_STRIPES, Integer.highestOneBit(processors * 2 - 1))];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    // Recounts the sales of the longest window before now from the items' histories
+    public synchronized void rebuild(Collection<StockItem> items, long now) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Sketch[] ring : stripe.rings) {
+                    for (Sketch sketch : ring) {
+                        sketch.reset(Long.MIN_VALUE);
+                    }
+                }
+            }
+        }
+        long from = now - Window.WEEK.getMillis() - Window.WEEK.sliceMillis;
+        Stripe stripe = stripes[0];
+        synchronized (stripe) {
+            for (StockItem item : items) {
+                SalesHistory history = item.getSales();
+                for (int i = history.lowerBound(from); i < history.size(); i++) {
+                    stripe.add(item, history.quantityAt(i), history.timeAt(i));
+                }
+            }
+        }
+    }
+
+    // Up to count items with the most units in the window ending at now, most first
+    public synchronized List<Estimate> top(Window window, int count, long now) {
+        long last = Math.floorDiv(now, window.sliceMillis);
+        long first = Math.floorDiv(now - window.getMillis(), window.sliceMillis);
+
+        // An item missing from a full slice may still have sold up to that slice's minimum
+        long missingAllowance = 0;
+        Map<StockItem, long[]> merged = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Sketch sketch : stripe.rings[window.ordinal()]) {
+                    if (sketch.slice < first || sketch.slice > last || sketch.size == 0) {
+                        continue;
+                    }
+                    long minimum = sketch.size == capacity ? sketch.counts[0] : 0;
+                    missingAllowance += minimum;
+                    for (int i = 0; i < sketch.size; i++) {
+                        // counts, errors, and the minimum of each slice the item was found in
+                        long[] totals = merged.computeIfAbsent(sketch.items[i], item -> new long[3]);
+                        totals[0] += sketch.counts[i];
+                        totals[1] += sketch.errors[i];
+                        totals[2] += minimum;
+                    }
+                }
+            }
+        }
+
+        Comparator<Estimate> byUnits = Comparator.comparingLong(Estimate::getUnits);
+        PriorityQueue<Estimate> best = new PriorityQueue<>(byUnits);
+        for (Map.Entry<StockItem, long[]> entry : merged.entrySet()) {
+            long[] totals = entry.getValue();
+            long upper = totals[0] + missingAllowance - totals[2];
+            long lower = totals[0] - totals[1];
+            if (best.size() < count) {
+                best.add(new Estimate(entry.getKey(), upper, upper - lower));
+            } else if (count > 0 && upper > best.peek().units) {
+                best.poll();
+                best.add(new Estimate(entry.getKey(), upper, upper - lower));
+            }
+        }
+        List<Estimate> top = new ArrayList<>(best);
+        top.sort(byUnits.reversed());
+        return top;
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        synchronized (stripe) {
+            stripe.add(item, amount, time);
+        }
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Sketch[] ring : stripe.rings) {
+                    for (Sketch sketch : ring) {
+                        sketch.remove(item);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+    }
+
+    // Space-Saving counters for one slice, kept in a min-heap on count so the
+    // counter to replace when a new item arrives is always at the root. Heap
+    // positions are found through a small open-addressed table keyed by identity.
+    private static class Sketch {
+        final StockItem[] items;
+        final long[] counts;
+        final long[] errors;
+        final StockItem[] keys;
+        final int[] positions;
+        long slice = Long.MIN_VALUE;
+        int size;
+
+        Sketch(int capacity) {
+            items = new StockItem[capacity];
+            counts = new long[capacity];
+            errors = new long[capacity];
+            keys = new StockItem[Integer.highestOneBit(Math.max(1, capacity) * 4 - 1)];
+            positions = new int[keys.length];
+        }
+
+        void reset(long slice) {
+            this.slice = slice;
+            Arrays.fill(items, 0, size, null);
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+
+        void add(StockItem item, long units) {
+            int slot = slotOf(item);
+            if (slot >= 0) {
+                int position = positions[slot];
+                counts[position] += units;
+                siftDown(position);
+            } else if (size < items.length) {
+                keys[-slot - 1] = item;
+                set(size, item, units, 0);
+                size++;
+                siftUp(size - 1);
+            } else {
+                // Take over the smallest counter; its count becomes the new item's error
+                delete(slotOf(items[0]));
+                keys[-slotOf(item) - 1] = item;
+                set(0, item, counts[0] + units, counts[0]);
+                siftDown(0);
+            }
+        }
+
+        void remove(StockItem item) {
+            int slot = slotOf(item);
+            if (slot < 0) {
+                return;
+            }
+            int position = positions[slot];
+            delete(slot);
+            size--;
+            if (position < size) {
+                set(position, items[size], counts[size], errors[size]);
+                siftDown(position);
+                siftUp(position);
+            }
+            items[size] = null;
+        }
+
+        private void set(int position, StockItem item, long count, long error) {
+            items[position] = item;
+            counts[position] = count;
+            errors[position] = error;
+            positions[slotOf(item)] = position;
+        }
+
+        // Slot holding item, or -(free slot) - 1 when it is absent
+        private int slotOf(StockItem item) {
+            int mask = keys.length - 1;
+            int slot = (System.identityHashCode(item) * 0x9E3779B9) >>> 7 & mask;
+            while (keys[slot] != null) {
+                if (keys[slot] == item) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -slot - 1;
+        }
+
+        // Linear-probing delete: shift later entries of the probe run back into the gap
+        private void delete(int slot) {
+            int mask = keys.length - 1;
+            int gap = slot;
+            keys[gap] = null;
+            for (int next = (gap + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+                int home = (System.identityHashCode(keys[next]) * 0x9E3779B9) >>> 7 & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    positions[gap] = positions[next];
+                    keys[next] = null;
+                    gap = next;
+                }
+            }
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (counts[parent] <= counts[position]) {
+                    return;
+                }
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int smallest = position;
+                int left = 2 * position + 1;
+                int right = left + 1;
+                if (left < size && counts[left] < counts[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && counts[right] < counts[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == position) {
+                    return;
+                }
+                swap(position, smallest);
+                position = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            StockItem item = items[a];
+            long count = counts[a];
+            long error = errors[a];
+            set(a, items[b], counts[b], errors[b]);
+            set(b, item, count, error);
+        }
+    }
+}
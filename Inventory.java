@@ -0,0 +1,595 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// The inventory engine behind InventoryService: the item registry, the users, the
+// storage backend and the derived indexes (aggregates, rollups, filters). Every
+// item reports its changes through one listener fan-out, which keeps the
+// storage and the indexes up to date and lets clients such as the dashboard
+// table follow along.
+class Inventory implements InventoryService, Closeable {
+    private static final LocalTime NIGHTLY_RUN = LocalTime.of(2, 0);
+
+    private final ItemRegistry stock = new ItemRegistry();
+    private final List<User> users = new ArrayList<>();
+    private final StockListeners listeners = new StockListeners();
+    private final SalesAggregates aggregates = new SalesAggregates();
+    private final SalesRollupIndex rollupIndex = new SalesRollupIndex(StockClock.getTimeZone(), 35);
+    private final StockQueryEngine queryEngine = new StockQueryEngine(stock);
+    // -Dstock.sequentialReports runs them on the caller, to compare against
+    private final ReportEngine reportEngine = new ReportEngine(stock,
+            Boolean.getBoolean("stock.sequentialReports") ? null : ForkJoinPool.commonPool());
+    private final BestSellerIndex bestSellerIndex = new BestSellerIndex(stock.values(), 64);
+    private final HeavyHitters heavyHitters = new HeavyHitters(256);
+    private final LowStockAlerts lowStockAlerts = new LowStockAlerts();
+    private final DemandForecaster forecaster = new DemandForecaster(StockClock.getTimeZone(), 0.2,
+            Integer.getInteger("stock.leadDays", 7), Integer.getInteger("stock.coverDays", 14), 1.65);
+    private volatile StockStorage storage;
+    // Item changes hold the read side and a checkpoint holds the write side while
+    // it takes its cut, so a change is either wholly in a snapshot or in the
+    // journal after it, never both.
+    // The read side is striped, so tills selling at once do not contend on it.
+    private final StripedReadWriteLock changes = new StripedReadWriteLock();
+    // One checkpoint at a time, from its cut until its snapshot is written
+    private final Object checkpointLock = new Object();
+    private SaleRecorder recorder;
+    private Timer nightly;
+    private ScheduledExecutorService checkpoints;
+
+    // In-memory inventory, nothing is persisted
+    public Inventory() {
+        this(new MemoryStorage(), Collections.emptyMap());
+    }
+
+    private Inventory(StockStorage storage, Map<String, StockItem> recovered) {
+        this.storage = storage;
+        users.add(new User("manager", "manager123", "Manager"));
+        users.add(new User("worker", "worker123", "Worker"));
+
+        for (StockItem item : recovered.values()) {
+            // Items without a name cannot be looked up, so are left behind
+            if (item != null && item.getName() != null) {
+                stock.add(item);
+            }
+        }
+        aggregates.rebuild(stock.values());
+        if (Boolean.getBoolean("stock.verifyAggregates")) {
+            List<String> problems = aggregates.verify(stock.values());
+            System.out.println("Aggregate check found " + problems.size() + " problems");
+            problems.forEach(System.out::println);
+        }
+        rollupIndex.rebuild(stock.values());
+        queryEngine.rebuild(stock.values());
+        bestSellerIndex.rebuild();
+        heavyHitters.rebuild(stock.values(), StockClock.millis());
+        lowStockAlerts.rebuild(stock.values());
+        forecaster.recompute(stock.values(), StockClock.millis());
+        forecaster.setDynamicMinimum(Boolean.getBoolean("stock.dynamicMinimum"));
+        // The registry goes first, so the indexes after it see current columns
+        listeners.add(stock);
+        listeners.add(storage);
+        listeners.add(aggregates);
+        listeners.add(rollupIndex);
+        listeners.add(queryEngine);
+        listeners.add(bestSellerIndex);
+        listeners.add(heavyHitters);
+        listeners.add(lowStockAlerts);
+        listeners.add(forecaster);
+        for (StockItem item : stock.values()) {
+            item.setListener(listeners);
+        }
+    }
+
+    // Recovers the inventory stored in dataDir, in the storage named by
+    // -Dstock.storage (the journal unless set)
+    public static Inventory open(Path dataDir) {
+        StockStorage storage = null;
+        try {
+            storage = StockStorage.open(System.getProperty("stock.storage", "journal"), dataDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return open(storage);
+    }
+
+    // If the storage cannot be loaded the inventory still starts, but changes
+    // are not persisted
+    public static Inventory open(StockStorage storage) {
+        Map<String, StockItem> recovered = Collections.emptyMap();
+        try {
+            if (storage != null) {
+                recovered = storage.load();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                storage.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            storage = null;
+        }
+        Inventory inventory = new Inventory(storage != null ? storage : new MemoryStorage(), recovered);
+        String recording = System.getProperty("stock.recordSales");
+        if (recording != null) {
+            inventory.recordSales(Paths.get(recording));
+        }
+        inventory.scheduleNightlyForecasts();
+        return inventory;
+    }
+
+    // Recomputes the forecasts from the full sale history every night at 2am on
+    // the store clock, when the tills are quiet
+    private synchronized void scheduleNightlyForecasts() {
+        nightly = new Timer("nightly-forecasts", true);
+        scheduleNextForecast();
+    }
+
+    // Each run schedules the next, so it stays at 2am across daylight saving
+    // changes rather than drifting by the hour a fixed 24 hour period would
+    private synchronized void scheduleNextForecast() {
+        if (nightly == null) {
+            return;
+        }
+        ZonedDateTime now = ZonedDateTime.now(StockClock.getClock());
+        ZonedDateTime next = now.with(NIGHTLY_RUN);
+        if (!next.isAfter(now)) {
+            next = now.plusDays(1).with(NIGHTLY_RUN);
+        }
+        nightly.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                recomputeForecasts();
+                scheduleNextForecast();
+            }
+        }, Duration.between(now, next).toMillis());
+    }
+
+    private synchronized void stopNightlyForecasts() {
+        if (nightly != null) {
+            nightly.cancel();
+            nightly = null;
+        }
+    }
+
+    // Checkpoints on a background thread every periodMillis when the storage
+    // has a backlog worth compacting, so startup only replays a short tail
+    public synchronized void scheduleCheckpoints(long periodMillis) {
+        if (checkpoints != null) {
+            return;
+        }
+        checkpoints = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoints");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpoints.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint(false);
+            } catch (RuntimeException e) {
+                // Keep the schedule going; the next run tries again
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Records every sale from now on, for replay by LoadGenerator
+    public void recordSales(Path file) {
+        try {
+            recorder = new SaleRecorder(file);
+            listeners.add(recorder);
+            System.out.println("Recording sales to " + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Seeds an empty inventory with a few example items
+    public void addSampleItems() {
+        if (!stock.isEmpty()) {
+            return;
+        }
+        addItem("Laptop", 10, 999.99, 2, "Electronics");
+        addItem("Smartphone", 15, 699.99, 3, "Electronics");
+        addItem("T-Shirt", 50, 19.99, 10, "Clothing");
+        addItem("Jeans", 30, 49.99, 5, "Clothing");
+        addItem("Coffee", 100, 9.99, 20, "Food");
+        addItem("Bread", 40, 3.99, 15, "Food");
+        System.out.println("Created sample stock data with " + stock.size() + " items");
+    }
+
+    @Override
+    public User authenticate(String username, String password) {
+        for (User user : users) {
+            if (user.getUsername().equals(username) && user.checkPassword(password)) {
+                return user;
+            }
+        }
+        throw new AuthenticationException();
+    }
+
+    @Override
+    public StockItem addItem(String name, int quantity, double price, int minimumStock, String category) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new InvalidInputException("Name cannot be empty");
+        }
+        if (quantity < 0 || minimumStock < 0) {
+            throw new InvalidInputException("Quantity and minimum stock cannot be negative");
+        }
+        if (!(price >= 0) || Double.isInfinite(price)) {
+            throw new InvalidInputException("Price must be zero or more");
+        }
+        if (category == null || category.trim().isEmpty()) {
+            throw new InvalidInputException("Category cannot be empty");
+        }
+        StockItem item = new StockItem(name.trim(), quantity, price, minimumStock, category);
+        addItem(item);
+        return item;
+    }
+
+    // Adds an already validated item, as built by the bulk importer
+    void addItem(StockItem item) {
+        changes.readLock().lock();
+        try {
+            if (!stock.add(item)) {
+                throw new DuplicateItemException(item.getName());
+            }
+            item.setListener(listeners);
+            listeners.itemAdded(item);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    // Merges historical sales from the bulk importer with sells held off, as
+    // merging replaces the item's history and a sale recorded meanwhile would be lost
+    void importSales(StockItem item, long[] times, int[] quantities, long[] prices, int count) {
+        changes.lockWrite();
+        try {
+            item.importSales(times, quantities, prices, count);
+        } finally {
+            changes.unlockWrite();
+        }
+    }
+
+    @Override
+    public void removeItem(String name) {
+        changes.readLock().lock();
+        try {
+            StockItem item = stock.remove(name);
+            if (item == null) {
+                throw new ItemNotFoundException(name);
+            }
+            item.setListener(null);
+            listeners.itemRemoved(item);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    @Override
+    public StockItem getItem(String name) {
+        StockItem item = stock.get(name);
+        if (item == null) {
+            throw new ItemNotFoundException(name);
+        }
+        return item;
+    }
+
+    // Ids and primitive columns of every item, for scans
+    ItemRegistry getRegistry() {
+        return stock;
+    }
+
+    // Returns the item, or null if there is none by that name
+    StockItem findItem(String name) {
+        return stock.get(name);
+    }
+
+    @Override
+    public Collection<StockItem> getItems() {
+        return Collections.unmodifiableCollection(stock.values());
+    }
+
+    @Override
+    public SaleRecord sell(String name, int quantity) {
+        changes.readLock().lock();
+        try {
+            return getItem(name).sell(quantity);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean trySell(String name, int quantity) {
+        if (quantity <= 0) {
+            throw new InvalidInputException("Quantity must be greater than zero");
+        }
+        changes.readLock().lock();
+        try {
+            return getItem(name).trySell(quantity);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    // Every line is validated and its stock reserved before anything is recorded;
+    // if one line cannot be filled the reservations made so far are released.
+    // Another till may briefly see the reserved units as gone while that happens.
+    @Override
+    public List<SaleRecord> sellBasket(Basket basket) {
+        if (basket.isEmpty()) {
+            throw new InvalidInputException("Basket is empty");
+        }
+        int lines = basket.size();
+        StockItem[] items = new StockItem[lines];
+        int[] amounts = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            items[i] = getItem(basket.getName(i));
+            amounts[i] = basket.getQuantity(i);
+            if (amounts[i] <= 0) {
+                throw new InvalidInputException("Quantity must be greater than zero for " + basket.getName(i));
+            }
+        }
+
+        changes.readLock().lock();
+        try {
+            for (int i = 0; i < lines; i++) {
+                if (!items[i].reserve(amounts[i])) {
+                    for (int j = 0; j < i; j++) {
+                        items[j].release(amounts[j]);
+                    }
+                    throw new InsufficientStockException(items[i].getName(), amounts[i], items[i].getQuantity());
+                }
+            }
+
+            long[] prices = new long[lines];
+            long[] times = new long[lines];
+            List<SaleRecord> sales = new ArrayList<>(lines);
+            for (int i = 0; i < lines; i++) {
+                prices[i] = items[i].getPriceCents();
+                times[i] = items[i].completeSale(amounts[i], prices[i]);
+                sales.add(new SaleRecord(items[i].getName(), amounts[i], prices[i], times[i]));
+            }
+            listeners.basketSold(items, amounts, prices, times);
+            return sales;
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void restock(String name, int amount) {
+        changes.readLock().lock();
+        try {
+            getItem(name).addStock(amount);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setQuantity(String name, int quantity) {
+        changes.readLock().lock();
+        try {
+            getItem(name).setQuantity(quantity);
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    // Low-stock-only queries walk the alerts, so their cost follows the number of
+    // low items rather than the catalog size
+    @Override
+    public List<StockItem> query(StockQueryEngine.Query query) {
+        if (query.isLowStockOnly()) {
+            return lowStockAlerts.matching(query::matches);
+        }
+        return queryEngine.run(query);
+    }
+
+    @Override
+    public List<StockItem> getLowStockItems() {
+        return lowStockAlerts.getItems();
+    }
+
+    @Override
+    public int getLowStockCount() {
+        return lowStockAlerts.size();
+    }
+
+    @Override
+    public void addLowStockListener(LowStockListener listener) {
+        lowStockAlerts.addListener(listener);
+    }
+
+    @Override
+    public void removeLowStockListener(LowStockListener listener) {
+        lowStockAlerts.removeListener(listener);
+    }
+
+    @Override
+    public SalesAggregates.Totals getTotals(String category) {
+        return category == null || "All".equals(category)
+                ? aggregates.getStoreTotals()
+                : aggregates.getCategoryTotals(category);
+    }
+
+    // Pushed down to the storage when it can sum its own copy of the sales
+    @Override
+    public SalesRollupIndex.Report salesReport(long fromMillis, long toMillis) {
+        StockStorage storage = this.storage;
+        try {
+            SalesRollupIndex.Report report = storage == null ? null
+                    : storage.salesReport(fromMillis, toMillis, stock::get);
+            if (report != null) {
+                return report;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return rollupIndex.query(fromMillis, toMillis);
+    }
+
+    @Override
+    public ReportEngine.Report report(ReportEngine.GroupBy groupBy, long fromMillis, long toMillis) {
+        return reportEngine.report(groupBy, fromMillis, toMillis, StockClock.getZone());
+    }
+
+    @Override
+    public List<StockItem> bestSellers(int count) {
+        return bestSellerIndex.top(count);
+    }
+
+    @Override
+    public List<HeavyHitters.Estimate> trending(HeavyHitters.Window window, int count) {
+        return heavyHitters.top(window, count, StockClock.millis());
+    }
+
+    @Override
+    public DemandForecaster.Forecast forecast(String name) {
+        return forecaster.forecast(getItem(name), StockClock.millis());
+    }
+
+    @Override
+    public List<DemandForecaster.Forecast> reorderSuggestions() {
+        return forecaster.reorderSuggestions(stock.values(), StockClock.millis());
+    }
+
+    // Rebuilds every forecast from the sale history across all cores
+    public void recomputeForecasts() {
+        long start = System.nanoTime();
+        recompute();
+        System.out.println("Recomputed forecasts for " + stock.size() + " items in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    @Override
+    public void addListener(StockItemListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(StockItemListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Drops items without a usable name; returns how many were removed
+    public int removeInvalidItems() {
+        List<String> invalidItems = new ArrayList<>();
+        for (StockItem item : stock.values()) {
+            if (item.getName().trim().isEmpty()) {
+                invalidItems.add(item.getName());
+            }
+        }
+
+        if (!invalidItems.isEmpty()) {
+            System.out.println("Found " + invalidItems.size() + " invalid items in stock data");
+            for (String itemName : invalidItems) {
+                // Through removeItem, so the indexes and the storage drop it too
+                try {
+                    removeItem(itemName);
+                } catch (ItemNotFoundException e) {
+                    // Already removed by someone else
+                }
+            }
+        }
+        return invalidItems.size();
+    }
+
+    // Imported history bypasses item events, so rebuild derived state and persist it
+    public void salesImported() {
+        aggregates.rebuild(stock.values());
+        rollupIndex.rebuild(stock.values());
+        bestSellerIndex.rebuild();
+        heavyHitters.rebuild(stock.values(), StockClock.millis());
+        recompute();
+        checkpoint(true);
+    }
+
+    // A change like any other, as the forecaster may set minimum stock levels
+    private void recompute() {
+        changes.readLock().lock();
+        try {
+            forecaster.recompute(stock.values(), StockClock.millis());
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    // Has the storage write out the full state when forced or when it has a
+    // backlog worth compacting
+    public void checkpoint(boolean force) {
+        StockStorage storage = this.storage;
+        if (storage == null || (!force && !storage.needsCheckpoint())) {
+            return;
+        }
+        synchronized (checkpointLock) {
+            // Sells and other changes wait only while the storage takes its cut,
+            // not while the snapshot is written
+            StockStorage.Checkpoint checkpoint;
+            changes.lockWrite();
+            try {
+                checkpoint = storage.checkpoint(stock.values());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            } finally {
+                changes.unlockWrite();
+            }
+            try {
+                checkpoint.write();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Lets a running checkpoint finish, so the final one does not overlap it
+    private synchronized void stopCheckpoints() {
+        if (checkpoints == null) {
+            return;
+        }
+        checkpoints.shutdown();
+        try {
+            checkpoints.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoints = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopNightlyForecasts();
+        stopCheckpoints();
+        if (recorder != null) {
+            listeners.remove(recorder);
+            recorder.close();
+            recorder = null;
+        }
+        if (storage == null) {
+            return;
+        }
+        checkpoint(true);
+        listeners.remove(storage);
+        storage.close();
+        storage = null;
+    }
+}
@@ -0,0 +1,66 @@
+// Failures reported by InventoryService. Messages are written for the person at
+// the till, so clients can show them as they are.
+class InventoryException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public InventoryException(String message) {
+        super(message);
+    }
+
+    public InventoryException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
+
+class ItemNotFoundException extends InventoryException {
+    private static final long serialVersionUID = 1L;
+
+    public ItemNotFoundException(String name) {
+        super("Item not found: " + name);
+    }
+}
+
+class DuplicateItemException extends InventoryException {
+    private static final long serialVersionUID = 1L;
+
+    public DuplicateItemException(String name) {
+        super("An item with this name already exists: " + name);
+    }
+}
+
+class InsufficientStockException extends InventoryException {
+    private static final long serialVersionUID = 1L;
+    private final int requested;
+    private final int available;
+
+    public InsufficientStockException(String name, int requested, int available) {
+        super(String.format("Not enough stock available for %s: requested %d, %d on hand",
+                name, requested, available));
+        this.requested = requested;
+        this.available = available;
+    }
+
+    public int getRequested() {
+        return requested;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+}
+
+class InvalidInputException extends InventoryException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidInputException(String message) {
+        super(message);
+    }
+}
+
+class AuthenticationException extends InventoryException {
+    private static final long serialVersionUID = 1L;
+
+    public AuthenticationException() {
+        super("Invalid username or password");
+    }
+}
@@ -0,0 +1,556 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HTTP/JSON front end for an InventoryService, on the JDK's built-in server.
+// Endpoints:
+//   POST /sales            {"item": "Laptop", "quantity": 2}, or an array of them
+//   POST /baskets          [{"item": "Laptop", "quantity": 1}, ...], sold all or nothing
+//   POST /restock          {"item": "Laptop", "amount": 10}
+//   GET  /items/{name}
+//   GET  /items?q=&category=&lowStock=&minPrice=&maxPrice=&limit=
+//   GET  /reports/sales?from=yyyy-MM-dd&to=yyyy-MM-dd&top=10   (to is inclusive)
+//        &group=item|category|day|hour  ranks items or categories, or lists every day or hour
+//   GET  /bestsellers?window=all|hour|day|week&count=10
+//   GET  /alerts           items at or below minimum stock, most urgent first
+//   GET  /forecasts/{name}  demand forecast and reorder advice for one item
+//   GET  /reorders         items to reorder now, soonest to run out first
+// Every request signs in with HTTP Basic as one of the inventory's users, and
+// restocking needs the Manager role; a missing or wrong login gets 401 and a
+// Worker restocking gets 403.
+// Failures come back as {"error": message} with a status matching the
+// InventoryException type. Requests run one per virtual thread where the
+// JDK has them, otherwise on a fixed pool of platform threads.
+class InventoryServer {
+    private static final int MAX_BODY = 1 << 20;
+    private static final int DEFAULT_LIMIT = 100;
+
+    static {
+        // The server writes headers and body separately; without TCP_NODELAY every
+        // response stalls on the client's delayed ACK for about 40 ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final InventoryService inventory;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private interface Route {
+        void handle(HttpExchange exchange, Json.Writer out) throws IOException;
+    }
+
+    // Thrown by handlers for a request the API cannot serve, with the status to send
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    public InventoryServer(InventoryService inventory, InetSocketAddress address) throws IOException {
+        this.inventory = inventory;
+        this.server = HttpServer.create(address, 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/sales", exchange -> dispatch(exchange, "POST", null, this::sales));
+        server.createContext("/baskets", exchange -> dispatch(exchange, "POST", null, this::basket));
+        server.createContext("/restock", exchange -> dispatch(exchange, "POST", "Manager", this::restock));
+        server.createContext("/items", exchange -> dispatch(exchange, "GET", null, this::items));
+        server.createContext("/reports/sales", exchange -> dispatch(exchange, "GET", null, this::salesReport));
+        server.createContext("/bestsellers", exchange -> dispatch(exchange, "GET", null, this::bestSellers));
+        server.createContext("/alerts", exchange -> dispatch(exchange, "GET", null, this::alerts));
+        server.createContext("/forecasts/", exchange -> dispatch(exchange, "GET", null, this::forecast));
+        server.createContext("/reorders", exchange -> dispatch(exchange, "GET", null, this::reorders));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Inventory API listening on http://" + server.getAddress().getHostString()
+                + ":" + getPort());
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Virtual threads need Java 21; look the factory up so the code also runs on 17
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            int threads = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "inventory-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // role is the one the route needs, or null for any signed-in user
+    private void dispatch(HttpExchange exchange, String method, String role, Route route) throws IOException {
+        int status = 200;
+        Json.Writer out = new Json.Writer();
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                throw new HttpError(405, "Use " + method);
+            }
+            User user = authenticate(exchange);
+            if (role != null && !role.equals(user.getRole())) {
+                throw new HttpError(403, "Only the " + role + " role can do this");
+            }
+            route.handle(exchange, out);
+        } catch (HttpError e) {
+            status = e.status;
+            out = error(e.getMessage());
+        } catch (InventoryException e) {
+            status = statusOf(e);
+            if (e instanceof AuthenticationException) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"inventory\", charset=\"UTF-8\"");
+            }
+            out = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            out = error(e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            status = 500;
+            out = error("Internal error");
+        }
+        byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream response = exchange.getResponseBody()) {
+            response.write(body);
+        }
+    }
+
+    // The user named by the request's Basic credentials; throws
+    // AuthenticationException when they are missing or do not match one
+    private User authenticate(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6)) {
+            throw new AuthenticationException();
+        }
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new AuthenticationException();
+        }
+        int colon = credentials.indexOf(':');
+        if (colon < 0) {
+            throw new AuthenticationException();
+        }
+        return inventory.authenticate(credentials.substring(0, colon), credentials.substring(colon + 1));
+    }
+
+    private static int statusOf(InventoryException e) {
+        if (e instanceof ItemNotFoundException) {
+            return 404;
+        }
+        if (e instanceof InsufficientStockException || e instanceof DuplicateItemException) {
+            return 409;
+        }
+        if (e instanceof AuthenticationException) {
+            return 401;
+        }
+        return 400;
+    }
+
+    private static Json.Writer error(String message) {
+        return new Json.Writer().beginObject().field("error", message).endObject();
+    }
+
+    // A single sale, or an array of sales answered with one result per entry
+    private void sales(HttpExchange exchange, Json.Writer out) throws IOException {
+        Object body = readJson(exchange);
+        if (!(body instanceof List)) {
+            Map<String, Object> sale = asObject(body);
+            writeSale(out, inventory.sell(requiredString(sale, "item"), requiredInt(sale, "quantity")));
+            return;
+        }
+
+        int sold = 0;
+        List<?> sales = (List<?>) body;
+        out.beginObject().name("results").beginArray();
+        for (Object entry : sales) {
+            Map<String, Object> sale = asObject(entry);
+            try {
+                writeSale(out, inventory.sell(requiredString(sale, "item"), requiredInt(sale, "quantity")));
+                sold++;
+            } catch (InventoryException | IllegalArgumentException e) {
+                out.beginObject()
+                        .field("item", sale.get("item") instanceof String ? (String) sale.get("item") : null)
+                        .field("status", e instanceof InventoryException ? statusOf((InventoryException) e) : 400)
+                        .field("error", e.getMessage())
+                        .endObject();
+            }
+        }
+        out.endArray().field("sold", sold).field("failed", sales.size() - sold).endObject();
+    }
+
+    private void basket(HttpExchange exchange, Json.Writer out) throws IOException {
+        Object body = readJson(exchange);
+        if (!(body instanceof List)) {
+            throw new IllegalArgumentException("Expected an array of basket lines");
+        }
+        Basket basket = new Basket();
+        for (Object entry : (List<?>) body) {
+            Map<String, Object> line = asObject(entry);
+            basket.add(requiredString(line, "item"), requiredInt(line, "quantity"));
+        }
+
+        long total = 0;
+        out.beginObject().name("sales").beginArray();
+        for (SaleRecord sale : inventory.sellBasket(basket)) {
+            writeSale(out, sale);
+            total += sale.getTotalCents();
+        }
+        out.endArray().centsField("total", total).endObject();
+    }
+
+    private void restock(HttpExchange exchange, Json.Writer out) throws IOException {
+        Map<String, Object> request = asObject(readJson(exchange));
+        String name = requiredString(request, "item");
+        inventory.restock(name, requiredInt(request, "amount"));
+        writeItem(out, inventory.getItem(name));
+    }
+
+    private void items(HttpExchange exchange, Json.Writer out) {
+        String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/items/") && path.length() > "/items/".length()) {
+            writeItem(out, inventory.getItem(path.substring("/items/".length())));
+            return;
+        }
+        if (!path.equals("/items") && !path.equals("/items/")) {
+            throw new HttpError(404, "No such resource");
+        }
+
+        Map<String, String> parameters = queryParameters(exchange);
+        StockQueryEngine.Query query = new StockQueryEngine.Query()
+                .text(parameters.getOrDefault("q", "").toLowerCase(Locale.ROOT))
+                .category(parameters.get("category"))
+                .lowStockOnly(Boolean.parseBoolean(parameters.get("lowStock")))
+                .priceRange(priceParameter(parameters, "minPrice", Long.MIN_VALUE),
+                        priceParameter(parameters, "maxPrice", Long.MAX_VALUE));
+        int limit = intParameter(parameters, "limit", DEFAULT_LIMIT);
+        List<StockItem> items = inventory.query(query);
+        out.beginObject().field("count", items.size()).name("items").beginArray();
+        for (int i = 0; i < Math.min(limit, items.size()); i++) {
+            writeItem(out, items.get(i));
+        }
+        out.endArray().endObject();
+    }
+
+    private void salesReport(HttpExchange exchange, Json.Writer out) {
+        Map<String, String> parameters = queryParameters(exchange);
+        LocalDate from = dateParameter(parameters, "from");
+        LocalDate to = dateParameter(parameters, "to");
+        ZoneId zone = StockClock.getZone();
+        long fromMillis = from.atStartOfDay(zone).toInstant().toEpochMilli();
+        long toMillis = to.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        String group = parameters.get("group");
+        if (group != null) {
+            groupedReport(parameters, group, from, to, fromMillis, toMillis, out);
+            return;
+        }
+        SalesRollupIndex.Report report = inventory.salesReport(fromMillis, toMillis);
+
+        out.beginObject()
+                .field("from", from.toString())
+                .field("to", to.toString())
+                .field("units", report.getUnits())
+                .centsField("revenue", report.getRevenueCents())
+                .name("top").beginArray();
+        for (SalesRollupIndex.ItemSales sales : report.top(intParameter(parameters, "top", 10))) {
+            out.beginObject()
+                    .field("item", sales.getItem().getName())
+                    .field("units", sales.getUnits())
+                    .centsField("revenue", sales.getRevenueCents())
+                    .endObject();
+        }
+        out.endArray().endObject();
+    }
+
+    private void groupedReport(Map<String, String> parameters, String group, LocalDate from, LocalDate to,
+                               long fromMillis, long toMillis, Json.Writer out) {
+        ReportEngine.GroupBy groupBy;
+        try {
+            groupBy = ReportEngine.GroupBy.valueOf(group.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("group must be item, category, day or hour");
+        }
+        ReportEngine.Report report = inventory.report(groupBy, fromMillis, toMillis);
+        List<ReportEngine.Row> rows = groupBy == ReportEngine.GroupBy.ITEM || groupBy == ReportEngine.GroupBy.CATEGORY
+                ? report.top(intParameter(parameters, "top", 10))
+                : report.getRows();
+
+        out.beginObject()
+                .field("from", from.toString())
+                .field("to", to.toString())
+                .field("group", group.toLowerCase(Locale.ROOT))
+                .field("units", report.getUnits())
+                .centsField("revenue", report.getRevenueCents())
+                .field("sales", report.getSales())
+                .name("groups").beginArray();
+        for (ReportEngine.Row row : rows) {
+            out.beginObject()
+                    .field("key", row.getLabel())
+                    .field("units", row.getUnits())
+                    .centsField("revenue", row.getRevenueCents())
+                    .field("sales", row.getSales())
+                    .endObject();
+        }
+        out.endArray().endObject();
+    }
+
+    // Exact all-time ranking, or an estimate over a recent window
+    private void bestSellers(HttpExchange exchange, Json.Writer out) {
+        Map<String, String> parameters = queryParameters(exchange);
+        String window = parameters.getOrDefault("window", "all");
+        int count = intParameter(parameters, "count", 10);
+        out.beginObject().field("window", window).name("items").beginArray();
+        if ("all".equals(window)) {
+            for (StockItem item : inventory.bestSellers(count)) {
+                out.beginObject().field("item", item.getName()).field("units", item.getTotalSold()).endObject();
+            }
+        } else {
+            HeavyHitters.Window recent;
+            try {
+                recent = HeavyHitters.Window.valueOf(window.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("window must be all, hour, day or week");
+            }
+            for (HeavyHitters.Estimate estimate : inventory.trending(recent, count)) {
+                out.beginObject()
+                        .field("item", estimate.getItem().getName())
+                        .field("units", estimate.getUnits())
+                        .field("error", estimate.getError())
+                        .endObject();
+            }
+        }
+        out.endArray().endObject();
+    }
+
+    private void alerts(HttpExchange exchange, Json.Writer out) {
+        List<StockItem> items = inventory.getLowStockItems();
+        out.beginObject().field("count", items.size()).name("items").beginArray();
+        for (StockItem item : items) {
+            writeItem(out, item);
+        }
+        out.endArray().endObject();
+    }
+
+    private void forecast(HttpExchange exchange, Json.Writer out) {
+        String name = exchange.getRequestURI().getPath().substring("/forecasts/".length());
+        writeForecast(out, inventory.forecast(name));
+    }
+
+    private void reorders(HttpExchange exchange, Json.Writer out) {
+        List<DemandForecaster.Forecast> forecasts = inventory.reorderSuggestions();
+        out.beginObject().field("count", forecasts.size()).name("items").beginArray();
+        for (DemandForecaster.Forecast forecast : forecasts) {
+            writeForecast(out, forecast);
+        }
+        out.endArray().endObject();
+    }
+
+    private static void writeSale(Json.Writer out, SaleRecord sale) {
+        long price = sale.getPriceCents();
+        out.beginObject()
+                .field("item", sale.getItemName())
+                .field("quantity", sale.getQuantity())
+                .centsField("price", price)
+                .centsField("total", price * sale.getQuantity())
+                .field("time", sale.getSaleTime())
+                .endObject();
+    }
+
+    private static void writeItem(Json.Writer out, StockItem item) {
+        out.beginObject()
+                .field("name", item.getName())
+                .field("quantity", item.getQuantity())
+                .centsField("price", item.getPriceCents())
+                .field("minimumStock", item.getMinimumStock())
+                .field("category", item.getCategory())
+                .field("lowStock", item.isLowStock())
+                .field("lastUpdated", StockClock.format(item.getLastUpdated()))
+                .field("sold", item.getTotalSold())
+                .centsField("revenue", item.getTotalSalesCents())
+                .endObject();
+    }
+
+    private static void writeForecast(Json.Writer out, DemandForecaster.Forecast forecast) {
+        StockItem item = forecast.getItem();
+        out.beginObject()
+                .field("item", item.getName())
+                .field("quantity", item.getQuantity())
+                .field("dailyUnits", forecast.getDailyUnits())
+                .field("deviation", forecast.getDeviation())
+                .field("daysUntilStockout", forecast.getDaysUntilStockout())
+                .field("reorderPoint", forecast.getReorderPoint())
+                .field("reorderQuantity", forecast.getReorderQuantity())
+                .endObject();
+    }
+
+    private static Object readJson(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) {
+                throw new HttpError(413, "Request body too large");
+            }
+            return Json.parse(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static String requiredString(Map<String, Object> object, String name) {
+        Object value = object.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a string");
+        }
+        return (String) value;
+    }
+
+    private static int requiredInt(Map<String, Object> object, String name) {
+        Object value = object.get(name);
+        if (!(value instanceof Double) || (Double) value != Math.rint((Double) value)
+                || Math.abs((Double) value) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a whole number");
+        }
+        return ((Double) value).intValue();
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    private static long priceParameter(Map<String, String> parameters, String name, long unbounded) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            return unbounded;
+        }
+        try {
+            return Money.parse(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    private static LocalDate dateParameter(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException(name + " is required (yyyy-MM-dd)");
+        }
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be a date in yyyy-MM-dd format");
+        }
+    }
+
+    // Standalone server: java InventoryServer [--host 127.0.0.1] [--port 8080] [--data-dir dir]
+    public static void main(String[] args) throws IOException {
+        String host = "127.0.0.1";
+        int port = 8080;
+        Path dataDir = Paths.get(System.getProperty("stock.dataDir", "stock-data"));
+        for (int i = 0; i < args.length; i++) {
+            if ("--host".equals(args[i]) && i + 1 < args.length) {
+                host = args[++i];
+            } else if ("--port".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("--data-dir".equals(args[i]) && i + 1 < args.length) {
+                dataDir = Paths.get(args[++i]);
+            } else {
+                System.out.println("Usage: java InventoryServer [--host address] [--port port] [--data-dir dir]");
+                return;
+            }
+        }
+
+        Inventory inventory = Inventory.open(dataDir);
+        inventory.addSampleItems();
+        // Same schedule as the dashboard, so the journal stays short
+        inventory.scheduleCheckpoints(60_000);
+        InventoryServer server = new InventoryServer(inventory, new InetSocketAddress(host, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                inventory.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+    }
+}
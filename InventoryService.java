@@ -0,0 +1,72 @@
+import java.util.Collection;
+import java.util.List;
+
+// Headless inventory operations shared by the Swing dashboard, the console and
+// any server front end. Failures are reported as InventoryException subclasses;
+// nothing here touches the UI. Implementations are safe for concurrent use.
+interface InventoryService {
+
+    // Returns the user, or throws AuthenticationException
+    User authenticate(String username, String password);
+
+    StockItem addItem(String name, int quantity, double price, int minimumStock, String category);
+
+    void removeItem(String name);
+
+    StockItem getItem(String name);
+
+    Collection<StockItem> getItems();
+
+    // Sells quantity units at the current price and returns the sale
+    SaleRecord sell(String name, int quantity);
+
+    // Sells quantity units if that many are on hand and reports whether it did,
+    // without building a SaleRecord; an unknown item or bad quantity still throws
+    boolean trySell(String name, int quantity);
+
+    // Sells every line of the basket, or throws and sells nothing
+    List<SaleRecord> sellBasket(Basket basket);
+
+    void restock(String name, int amount);
+
+    // Sets the counted quantity on hand
+    void setQuantity(String name, int quantity);
+
+    List<StockItem> query(StockQueryEngine.Query query);
+
+    // Items at or below their minimum stock, most urgent first
+    List<StockItem> getLowStockItems();
+
+    int getLowStockCount();
+
+    // Told once when an item falls to its minimum stock and once when it recovers
+    void addLowStockListener(LowStockListener listener);
+
+    void removeLowStockListener(LowStockListener listener);
+
+    // Store-wide totals for "All" or null, otherwise the category's totals
+    SalesAggregates.Totals getTotals(String category);
+
+    // Sales in [fromMillis, toMillis)
+    SalesRollupIndex.Report salesReport(long fromMillis, long toMillis);
+
+    // Sales in [fromMillis, toMillis) grouped by item, category, local day or hour,
+    // summed from the full histories across all cores
+    ReportEngine.Report report(ReportEngine.GroupBy groupBy, long fromMillis, long toMillis);
+
+    // Items ordered by units sold, most first
+    List<StockItem> bestSellers(int count);
+
+    // Approximate best sellers of the last hour, day or week, most first
+    List<HeavyHitters.Estimate> trending(HeavyHitters.Window window, int count);
+
+    // Demand forecast and reorder advice for the item
+    DemandForecaster.Forecast forecast(String name);
+
+    // Items that should be reordered now, soonest to run out first
+    List<DemandForecaster.Forecast> reorderSuggestions();
+
+    void addListener(StockItemListener listener);
+
+    void removeListener(StockItemListener listener);
+}
@@ -0,0 +1,368 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// The stock table. Items get dense int ids in insertion order, found by name
+// through an open-addressed table, and their quantity, sold, price, minimum
+// stock and category are mirrored into id-indexed primitive columns so scans
+// and filters walk arrays instead of chasing objects. Columns come in fixed
+// pages, so growing never copies a column another thread is writing.
+// Lookups and column reads take no lock; adds and removes are serialized.
+// Ids of removed items are not reused, as the indexes keep them as keys.
+class ItemRegistry implements StockItemListener {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ITEMS = MethodHandles.arrayElementVarHandle(StockItem[].class);
+    private static final VarHandle NAMES = MethodHandles.arrayElementVarHandle(String[].class);
+
+    private static final class Page {
+        final StockItem[] items = new StockItem[PAGE_SIZE];
+        final int[] quantity = new int[PAGE_SIZE];
+        final int[] sold = new int[PAGE_SIZE];
+        final long[] priceCents = new long[PAGE_SIZE];
+        final int[] minimumStock = new int[PAGE_SIZE];
+        final int[] category = new int[PAGE_SIZE];
+    }
+
+    // Name to id, linear probing. A removed item's name stays behind pointing
+    // at its dead id until the table is next rebuilt; adding the name again
+    // repoints the slot.
+    private static final class NameTable {
+        final String[] names;
+        final int[] ids;
+        int used;
+
+        NameTable(int capacity) {
+            names = new String[capacity];
+            ids = new int[capacity];
+        }
+    }
+
+    private volatile Page[] pages = new Page[16];
+    private volatile NameTable table = new NameTable(1 << 10);
+    // Ids below the limit have been handed out
+    private volatile int limit;
+    private int size;
+    // Category dictionary; ids are only handed out while locked
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private volatile String[] categoryNames = new String[16];
+    private final Values values = new Values();
+
+    // Registers the item under a new id; false if its name is taken
+    public synchronized boolean add(StockItem item) {
+        String name = item.getName();
+        if (get(name) != null) {
+            return false;
+        }
+        int id = limit;
+        Page page = page(id);
+        int offset = id & PAGE_MASK;
+        item.setId(id);
+        write(page, offset, item);
+        ITEMS.setRelease(page.items, offset, item);
+        index(name, id);
+        size++;
+        limit = id + 1;
+        return true;
+    }
+
+    // Unregisters the item by that name and returns it, or null if there is none
+    public synchronized StockItem remove(String name) {
+        int id = idOf(name);
+        StockItem item = itemAt(id);
+        if (item == null) {
+            return null;
+        }
+        ITEMS.setRelease(pages[id >>> PAGE_BITS].items, id & PAGE_MASK, (StockItem) null);
+        size--;
+        return item;
+    }
+
+    public StockItem get(String name) {
+        return itemAt(idOf(name));
+    }
+
+    // Id last registered under the name, or -1; the item may since have been removed
+    public int idOf(String name) {
+        NameTable table = this.table;
+        int mask = table.names.length - 1;
+        for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+            String key = (String) NAMES.getAcquire(table.names, slot);
+            if (key == null) {
+                return -1;
+            }
+            if (key.equals(name)) {
+                return (int) INTS.getAcquire(table.ids, slot);
+            }
+        }
+    }
+
+    // The live item with that id, or null
+    public StockItem itemAt(int id) {
+        if (id < 0 || id >= limit) {
+            return null;
+        }
+        return (StockItem) ITEMS.getAcquire(pages[id >>> PAGE_BITS].items, id & PAGE_MASK);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Upper bound for scans: every id handed out so far is below it
+    public int limit() {
+        return limit;
+    }
+
+    // Live items in id order, weakly consistent like a concurrent map's values
+    public Collection<StockItem> values() {
+        return values;
+    }
+
+    public int quantityAt(int id) {
+        return (int) INTS.getAcquire(pages[id >>> PAGE_BITS].quantity, id & PAGE_MASK);
+    }
+
+    public int soldAt(int id) {
+        return (int) INTS.getAcquire(pages[id >>> PAGE_BITS].sold, id & PAGE_MASK);
+    }
+
+    public long priceCentsAt(int id) {
+        return (long) LONGS.getAcquire(pages[id >>> PAGE_BITS].priceCents, id & PAGE_MASK);
+    }
+
+    public int minimumStockAt(int id) {
+        return (int) INTS.getAcquire(pages[id >>> PAGE_BITS].minimumStock, id & PAGE_MASK);
+    }
+
+    // Id of the item's category in the category dictionary
+    public int categoryAt(int id) {
+        return (int) INTS.getAcquire(pages[id >>> PAGE_BITS].category, id & PAGE_MASK);
+    }
+
+    public boolean isLowStock(int id) {
+        return quantityAt(id) <= minimumStockAt(id);
+    }
+
+    // Dictionary id of the category, or -1 if no item has used it
+    public synchronized int categoryId(String category) {
+        Integer id = categoryIds.get(category);
+        return id == null ? -1 : id;
+    }
+
+    public String categoryName(int categoryId) {
+        return categoryNames[categoryId];
+    }
+
+    // Ids of live items at or below their minimum stock, from the columns alone
+    public BitSet lowStock() {
+        int end = limit;
+        Page[] pages = this.pages;
+        BitSet result = new BitSet(end);
+        for (int first = 0; first < end; first += PAGE_SIZE) {
+            Page page = pages[first >>> PAGE_BITS];
+            int count = Math.min(PAGE_SIZE, end - first);
+            for (int i = 0; i < count; i++) {
+                if ((int) INTS.getAcquire(page.quantity, i) <= (int) INTS.getAcquire(page.minimumStock, i)
+                        && ITEMS.getAcquire(page.items, i) != null) {
+                    result.set(first + i);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        refresh(item);
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+        refresh(item);
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+        refresh(item);
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+    }
+
+    // Copies the item's fields into its columns. Events for one item can arrive
+    // out of order, so each writer checks the item again after writing and
+    // repeats if it changed; whichever writes last has then seen current values.
+    private void refresh(StockItem item) {
+        int id = item.getId();
+        if (itemAt(id) != item) {
+            return;
+        }
+        Page page = pages[id >>> PAGE_BITS];
+        int offset = id & PAGE_MASK;
+        int quantity;
+        int sold;
+        long priceCents;
+        int minimumStock;
+        String category;
+        do {
+            quantity = item.getQuantity();
+            sold = item.getSold();
+            priceCents = item.getPriceCents();
+            minimumStock = item.getMinimumStock();
+            category = item.getCategory();
+            INTS.setRelease(page.quantity, offset, quantity);
+            INTS.setRelease(page.sold, offset, sold);
+            LONGS.setRelease(page.priceCents, offset, priceCents);
+            INTS.setRelease(page.minimumStock, offset, minimumStock);
+            if (!category.equals(categoryName(categoryAt(id)))) {
+                INTS.setRelease(page.category, offset, category(category));
+            }
+        } while (quantity != item.getQuantity() || sold != item.getSold()
+                || priceCents != item.getPriceCents() || minimumStock != item.getMinimumStock()
+                || !category.equals(item.getCategory()));
+    }
+
+    private void write(Page page, int offset, StockItem item) {
+        INTS.setRelease(page.quantity, offset, item.getQuantity());
+        INTS.setRelease(page.sold, offset, item.getSold());
+        LONGS.setRelease(page.priceCents, offset, item.getPriceCents());
+        INTS.setRelease(page.minimumStock, offset, item.getMinimumStock());
+        INTS.setRelease(page.category, offset, category(item.getCategory()));
+    }
+
+    private synchronized int category(String category) {
+        Integer id = categoryIds.get(category);
+        if (id == null) {
+            id = categoryIds.size();
+            String[] names = categoryNames;
+            if (id == names.length) {
+                names = Arrays.copyOf(names, id * 2);
+            }
+            names[id] = category;
+            categoryNames = names;
+            categoryIds.put(category, id);
+        }
+        return id;
+    }
+
+    // Page holding the id, allocating it and growing the directory as needed
+    private Page page(int id) {
+        int index = id >>> PAGE_BITS;
+        Page[] pages = this.pages;
+        if (index == pages.length) {
+            pages = Arrays.copyOf(pages, index * 2);
+        }
+        if (pages[index] == null) {
+            pages[index] = new Page();
+            this.pages = pages;
+        }
+        return pages[index];
+    }
+
+    private void index(String name, int id) {
+        NameTable table = this.table;
+        if ((table.used + 1) * 2 > table.names.length) {
+            table = rebuildTable();
+        }
+        int mask = table.names.length - 1;
+        int slot = hash(name) & mask;
+        while (table.names[slot] != null && !table.names[slot].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        INTS.setRelease(table.ids, slot, id);
+        if (table.names[slot] == null) {
+            NAMES.setRelease(table.names, slot, name);
+            table.used++;
+        }
+    }
+
+    // Copies the live names into a table sized for them, dropping removed ones.
+    // Readers still probing the old table see it as it was.
+    private NameTable rebuildTable() {
+        int capacity = Integer.highestOneBit(Math.max(1 << 10, (size + 1) * 4) - 1) << 1;
+        NameTable rebuilt = new NameTable(capacity);
+        int mask = capacity - 1;
+        for (int id = 0; id < limit; id++) {
+            StockItem item = itemAt(id);
+            if (item == null) {
+                continue;
+            }
+            int slot = hash(item.getName()) & mask;
+            while (rebuilt.names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            rebuilt.names[slot] = item.getName();
+            rebuilt.ids[slot] = id;
+            rebuilt.used++;
+        }
+        table = rebuilt;
+        return rebuilt;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private final class Values extends AbstractCollection<StockItem> {
+        @Override
+        public Iterator<StockItem> iterator() {
+            return new Iterator<StockItem>() {
+                private int id;
+                private StockItem next = find();
+
+                // Next live item, skipping ids removed since
+                private StockItem find() {
+                    int end = limit;
+                    while (id < end) {
+                        StockItem item = itemAt(id++);
+                        if (item != null) {
+                            return item;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public StockItem next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    StockItem item = next;
+                    next = find();
+                    return item;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ItemRegistry.this.size();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Minimal JSON support for the HTTP API. parse() returns Map (objects, in key
+// order), List, String, Double, Boolean or null; Writer appends values to a
+// StringBuilder with the escaping JSON requires.
+final class Json {
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json parser = new Json(text);
+        parser.skipWhitespace();
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw parser.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private Object value() {
+        if (position >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a field name");
+            }
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            object.put(key, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            skipWhitespace();
+            array.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String string() {
+        position++;
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+    }
+
+    private Double number() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Bad number");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, position)) {
+            throw error("Unexpected token");
+        }
+        position += word.length();
+        return value;
+    }
+
+    private char peek() {
+        return position < text.length() ? text.charAt(position) : '\0';
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+
+    // Streaming writer; commas between values and fields are inserted automatically
+    static final class Writer {
+        private final StringBuilder out = new StringBuilder(256);
+        private boolean first = true;
+
+        public Writer beginObject() {
+            comma();
+            out.append('{');
+            first = true;
+            return this;
+        }
+
+        public Writer endObject() {
+            out.append('}');
+            first = false;
+            return this;
+        }
+
+        public Writer beginArray() {
+            comma();
+            out.append('[');
+            first = true;
+            return this;
+        }
+
+        public Writer endArray() {
+            out.append(']');
+            first = false;
+            return this;
+        }
+
+        public Writer name(String name) {
+            comma();
+            quote(name);
+            out.append(':');
+            first = true;
+            return this;
+        }
+
+        public Writer value(String value) {
+            comma();
+            if (value == null) {
+                out.append("null");
+            } else {
+                quote(value);
+            }
+            first = false;
+            return this;
+        }
+
+        public Writer value(long value) {
+            comma();
+            out.append(value);
+            first = false;
+            return this;
+        }
+
+        // JSON has no infinity or NaN, so those are written as null
+        public Writer value(double value) {
+            comma();
+            if (Double.isFinite(value)) {
+                out.append(value);
+            } else {
+                out.append("null");
+            }
+            first = false;
+            return this;
+        }
+
+        public Writer value(boolean value) {
+            comma();
+            out.append(value);
+            first = false;
+            return this;
+        }
+
+        // Amount in cents written as a decimal number with two places
+        public Writer cents(long cents) {
+            comma();
+            if (cents < 0) {
+                out.append('-');
+                cents = -cents;
+            }
+            out.append(cents / 100).append('.');
+            long fraction = cents % 100;
+            out.append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+            first = false;
+            return this;
+        }
+
+        public Writer field(String name, String value) {
+            return name(name).value(value);
+        }
+
+        public Writer field(String name, long value) {
+            return name(name).value(value);
+        }
+
+        public Writer field(String name, double value) {
+            return name(name).value(value);
+        }
+
+        public Writer field(String name, boolean value) {
+            return name(name).value(value);
+        }
+
+        public Writer centsField(String name, long cents) {
+            return name(name).cents(cents);
+        }
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+
+        private void comma() {
+            if (!first) {
+                out.append(',');
+            }
+            first = true;
+        }
+
+        private void quote(String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        out.append("\\\"");
+                        break;
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            out.append('"');
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load generator for sizing a deployment:
+//   java LoadGenerator run [--items 100000] [--sales 1000000] [--threads 4] [--rate 0]
+//                          [--zipf 1.0] [--seed 1] [--record file] [--data-dir dir]
+//   java LoadGenerator replay file [--threads 1] [--speed 1 | max] [--data-dir dir]
+// run builds a synthetic catalog and sells a Zipf-distributed stream against it;
+// replay sells a stream recorded by --record or -Dstock.recordSales again. Both
+// report throughput, a latency histogram and heap growth. Without --data-dir the
+// inventory is in memory, with it the journal is included.
+// --rate is total sales per second, 0 for as fast as possible. When paced,
+// latency is measured from each sale's scheduled start, so a stall is charged
+// to every sale queued behind it rather than hidden (coordinated omission).
+class LoadGenerator {
+    private static final String[] CATEGORIES = { "Electronics", "Clothing", "Food", "Home", "Other" };
+    private static final double[] CATEGORY_WEIGHTS = { 0.15, 0.25, 0.35, 0.15, 0.10 };
+    // Prices are log-normal around the category median
+    private static final double[] MEDIAN_PRICES = { 250, 30, 6, 40, 15 };
+    private static final double[] PRICE_SPREAD = { 0.9, 0.6, 0.7, 0.8, 1.0 };
+    // Generated items hold enough stock that a run never sells out
+    private static final int STOCK = 1_000_000_000;
+
+    // Outcomes of SaleSource.next
+    private static final int SOLD = 0;
+    private static final int OUT_OF_STOCK = 1;
+    private static final int DONE = 2;
+
+    private interface SaleSource {
+        // Sells the thread's next sale and returns SOLD or OUT_OF_STOCK, or
+        // returns DONE when it has none left. begin holds the run's start time on
+        // the first call; the source sets it to the time the sale's latency is
+        // measured from.
+        int next(Inventory inventory, long[] begin);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || !("run".equals(args[0]) || ("replay".equals(args[0]) && args.length > 1))) {
+            System.out.println("Usage: java LoadGenerator run [--items n] [--sales n] [--threads n] [--rate n]"
+                    + " [--zipf s] [--seed n] [--record file] [--data-dir dir]");
+            System.out.println("       java LoadGenerator replay file [--threads n] [--speed factor|max]"
+                    + " [--data-dir dir]");
+            return;
+        }
+        boolean replay = "replay".equals(args[0]);
+        Map<String, String> options = new HashMap<>();
+        for (int i = replay ? 2 : 1; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        String dataDir = options.get("--data-dir");
+        try (Inventory inventory = dataDir == null ? new Inventory() : Inventory.open(Paths.get(dataDir))) {
+            if (replay) {
+                replay(inventory, Paths.get(args[1]), options);
+            } else {
+                run(inventory, options);
+            }
+        }
+    }
+
+    private static void run(Inventory inventory, Map<String, String> options) throws InterruptedException {
+        int itemCount = Integer.parseInt(options.getOrDefault("--items", "100000"));
+        long sales = Long.parseLong(options.getOrDefault("--sales", "1000000"));
+        int threads = Integer.parseInt(options.getOrDefault("--threads", "4"));
+        double rate = Double.parseDouble(options.getOrDefault("--rate", "0"));
+        double exponent = Double.parseDouble(options.getOrDefault("--zipf", "1.0"));
+        SplittableRandom random = new SplittableRandom(Long.parseLong(options.getOrDefault("--seed", "1")));
+
+        long start = System.nanoTime();
+        List<StockItem> items = createCatalog(inventory, itemCount, random);
+        ZipfSampler popularity = new ZipfSampler(items.size(), exponent, random);
+        System.out.println(String.format("Created %d items in %d ms", items.size(),
+                (System.nanoTime() - start) / 1_000_000));
+        if (options.containsKey("--record")) {
+            inventory.recordSales(Paths.get(options.get("--record")));
+        }
+
+        long interval = rate > 0 ? Math.round(threads * 1e9 / rate) : 0;
+        SaleSource[] sources = new SaleSource[threads];
+        for (int t = 0; t < threads; t++) {
+            long count = sales / threads + (t < sales % threads ? 1 : 0);
+            SplittableRandom threadRandom = random.split();
+            long[] issued = { 0 };
+            sources[t] = (target, begin) -> {
+                if (issued[0] == count) {
+                    return DONE;
+                }
+                if (interval > 0) {
+                    begin[0] += interval;
+                    waitUntil(begin[0]);
+                } else {
+                    begin[0] = System.nanoTime();
+                }
+                issued[0]++;
+                // Mostly single units, now and then a few more
+                int quantity = threadRandom.nextInt(8) == 0 ? 2 + threadRandom.nextInt(4) : 1;
+                return target.trySell(items.get(popularity.next(threadRandom)).getName(), quantity)
+                        ? SOLD : OUT_OF_STOCK;
+            };
+        }
+        drive(inventory, sources, interval > 0);
+    }
+
+    private static void replay(Inventory inventory, Path file, Map<String, String> options)
+            throws IOException, InterruptedException {
+        int threads = Integer.parseInt(options.getOrDefault("--threads", "1"));
+        String speedOption = options.getOrDefault("--speed", "1");
+        double speed = "max".equals(speedOption) ? 0 : Double.parseDouble(speedOption);
+
+        // Load the recording, numbering the items as they first appear
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        List<Long> prices = new ArrayList<>();
+        long[] times = new long[1024];
+        int[] itemIds = new int[1024];
+        int[] quantities = new int[1024];
+        int count = 0;
+        try (SaleRecorder.Reader reader = new SaleRecorder.Reader(file)) {
+            SaleRecorder.Sale sale = new SaleRecorder.Sale();
+            while (reader.next(sale)) {
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                    itemIds = Arrays.copyOf(itemIds, count * 2);
+                    quantities = Arrays.copyOf(quantities, count * 2);
+                }
+                Integer id = ids.get(sale.item);
+                if (id == null) {
+                    id = names.size();
+                    ids.put(sale.item, id);
+                    names.add(sale.item);
+                    prices.add(sale.priceCents);
+                }
+                times[count] = sale.time;
+                itemIds[count] = id;
+                quantities[count] = sale.quantity;
+                count++;
+            }
+        }
+        System.out.println(String.format("Loaded %d sales of %d items from %s", count, names.size(), file));
+
+        // Items the inventory does not have are created with enough stock for the replay
+        int created = 0;
+        for (int i = 0; i < names.size(); i++) {
+            if (inventory.findItem(names.get(i)) == null) {
+                inventory.addItem(names.get(i), STOCK, prices.get(i) / 100.0, 0, "Replay");
+                created++;
+            }
+        }
+        if (created > 0) {
+            System.out.println("Created " + created + " items missing from the inventory");
+        }
+
+        // Each item's sales go to one thread in recorded order, so every run
+        // leaves the inventory in the same state whatever the thread count
+        long first = count == 0 ? 0 : times[0];
+        long[] recordedTimes = times;
+        int[] recordedItems = itemIds;
+        int[] recordedQuantities = quantities;
+        int total = count;
+        SaleSource[] sources = new SaleSource[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            int[] position = { 0 };
+            long[] origin = { -1 };
+            sources[t] = (target, begin) -> {
+                int i = position[0];
+                while (i < total && recordedItems[i] % threads != thread) {
+                    i++;
+                }
+                if (i == total) {
+                    position[0] = i;
+                    return DONE;
+                }
+                position[0] = i + 1;
+                if (speed > 0) {
+                    // Every thread starts from the same instant, passed in as begin
+                    if (origin[0] < 0) {
+                        origin[0] = begin[0];
+                    }
+                    begin[0] = origin[0] + Math.round((recordedTimes[i] - first) * 1_000_000 / speed);
+                    waitUntil(begin[0]);
+                } else {
+                    begin[0] = System.nanoTime();
+                }
+                return target.trySell(names.get(recordedItems[i]), recordedQuantities[i]) ? SOLD : OUT_OF_STOCK;
+            };
+        }
+        drive(inventory, sources, speed > 0);
+
+        // Order-independent digest of the replayed items, equal across deterministic runs
+        long units = 0;
+        long fingerprint = 0;
+        for (String name : names) {
+            StockItem item = inventory.getItem(name);
+            units += item.getTotalSold();
+            fingerprint += name.hashCode() * 31L + item.getQuantity() * 17L + item.getTotalSalesCents();
+        }
+        System.out.println(String.format("Replayed items now show %d units sold, fingerprint %x",
+                units, fingerprint));
+    }
+
+    // Runs one thread per source until all are drained, then prints the report
+    private static void drive(Inventory inventory, SaleSource[] sources, boolean paced) throws InterruptedException {
+        long heapBefore = usedHeap();
+        LatencyHistogram[] histograms = new LatencyHistogram[sources.length];
+        long[] outOfStock = new long[sources.length];
+        CountDownLatch ready = new CountDownLatch(1);
+        Thread[] threads = new Thread[sources.length];
+        long[] startTime = new long[1];
+        for (int t = 0; t < sources.length; t++) {
+            int thread = t;
+            histograms[t] = new LatencyHistogram();
+            threads[t] = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long[] begin = { startTime[0] };
+                int outcome;
+                while ((outcome = sources[thread].next(inventory, begin)) != DONE) {
+                    if (outcome == OUT_OF_STOCK) {
+                        outOfStock[thread]++;
+                    }
+                    histograms[thread].record(System.nanoTime() - begin[0]);
+                }
+            }, "load-" + t);
+            threads[t].start();
+        }
+
+        startTime[0] = System.nanoTime();
+        ready.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - startTime[0];
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long failed = 0;
+        for (int t = 0; t < sources.length; t++) {
+            latency.add(histograms[t]);
+            failed += outOfStock[t];
+        }
+        long heapAfter = usedHeap();
+        System.out.println(String.format("%d sales on %d threads in %.2f s: %.0f sales/s, %d out of stock",
+                latency.getCount(), sources.length, elapsed / 1e9, latency.getCount() * 1e9 / elapsed, failed));
+        System.out.println("Latency in microseconds" + (paced ? ", from scheduled start:" : ":"));
+        latency.print(System.out, 1000.0);
+        System.out.println(String.format("Heap after GC: %.1f MB before, %.1f MB after, %.1f bytes retained per sale",
+                heapBefore / 1048576.0, heapAfter / 1048576.0,
+                (heapAfter - heapBefore) / (double) Math.max(1, latency.getCount())));
+    }
+
+    // Catalog with the category mix and price ranges of the sample items, at scale
+    static List<StockItem> createCatalog(Inventory inventory, int count, SplittableRandom random) {
+        List<StockItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int category = 0;
+            double pick = random.nextDouble();
+            while (category < CATEGORIES.length - 1 && pick >= CATEGORY_WEIGHTS[category]) {
+                pick -= CATEGORY_WEIGHTS[category];
+                category++;
+            }
+            double price = MEDIAN_PRICES[category] * Math.exp(PRICE_SPREAD[category] * random.nextGaussian());
+            price = Math.max(0, Math.floor(price)) + 0.99;
+            items.add(inventory.addItem(CATEGORIES[category] + " " + i, STOCK, price, 5 + random.nextInt(20),
+                    CATEGORIES[category]));
+        }
+        return items;
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Item popularity following Zipf's law: the item at rank k is chosen with
+    // probability proportional to 1/k^s. Ranks are shuffled over the items so
+    // popularity does not follow the catalog order.
+    static class ZipfSampler {
+        private final double[] cumulative;
+        private final int[] itemAtRank;
+
+        ZipfSampler(int items, double exponent, SplittableRandom random) {
+            cumulative = new double[items];
+            double sum = 0;
+            for (int k = 0; k < items; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < items; k++) {
+                cumulative[k] /= sum;
+            }
+            itemAtRank = new int[items];
+            for (int i = 0; i < items; i++) {
+                int j = random.nextInt(i + 1);
+                itemAtRank[i] = itemAtRank[j];
+                itemAtRank[j] = i;
+            }
+        }
+
+        int next(SplittableRandom random) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            return itemAtRank[Math.min(rank, itemAtRank.length - 1)];
+        }
+    }
+}
+
+// Log-linear histogram of non-negative values in the style of HdrHistogram:
+// each power of two is split into 1024 linear buckets, so values are kept to
+// three significant digits in a fixed array and recording never allocates.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // Highest value of the bucket holding the given percentile
+    public long valueAtPercentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    // Percentile distribution: the value at each percentile and how many
+    // values are at or below it
+    public void print(PrintStream out, double unit) {
+        out.println(String.format("%14s %12s %12s", "Value", "Percentile", "Count"));
+        double[] ticks = { 0, 50, 75, 90, 99, 99.9, 99.99, 99.999 };
+        for (double tick : ticks) {
+            long value = valueAtPercentile(tick);
+            out.println(String.format("%14.1f %12s %12d", value / unit, tick + "%", countAtOrBelow(value)));
+        }
+        out.println(String.format("%14.1f %12s %12d", max / unit, "max", count));
+        out.println(String.format("Mean %.1f, max %.1f, %d values", getMean() / unit, max / unit, count));
+    }
+
+    private long countAtOrBelow(long value) {
+        long total = 0;
+        for (int i = 0; i <= indexOf(value); i++) {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return ((long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift) + (1L << shift) - 1;
+    }
+}
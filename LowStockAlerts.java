@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+// Reorder alerts raised as stock changes, rather than found by scanning.
+// Items at or below their minimum stock are ranked by headroom (quantity minus
+// minimum), most urgent first. Every event re-reads the item, so listeners hear
+// exactly once when an item crosses its threshold, and once when it recovers,
+// whatever order concurrent sales and restocks report in. Events for items that
+// are neither low nor alerted, nearly all of them, return without the lock.
+class LowStockAlerts implements StockItemListener {
+
+    private static class Entry implements Comparable<Entry> {
+        final StockItem item;
+        int headroom;
+
+        Entry(StockItem item) {
+            this.item = item;
+            this.headroom = headroomOf(item);
+        }
+
+        // Least headroom first, ties by name so the order is stable
+        @Override
+        public int compareTo(Entry other) {
+            int byHeadroom = Integer.compare(headroom, other.headroom);
+            return byHeadroom != 0 ? byHeadroom : item.getName().compareTo(other.item.getName());
+        }
+    }
+
+    // Written under the lock, read without it by the fast path
+    private final Map<StockItem, Entry> entries = new ConcurrentHashMap<>();
+    private final TreeSet<Entry> ranking = new TreeSet<>();
+    private final List<LowStockListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(LowStockListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(LowStockListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Takes the current state of the items without raising alerts
+    public synchronized void rebuild(Collection<StockItem> items) {
+        entries.clear();
+        ranking.clear();
+        for (StockItem item : items) {
+            if (item.isLowStock()) {
+                Entry entry = new Entry(item);
+                entries.put(item, entry);
+                ranking.add(entry);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Low items, most urgent first
+    public synchronized List<StockItem> getItems() {
+        return matching(item -> true);
+    }
+
+    // Low items accepted by the filter, most urgent first; costs O(alerts)
+    public synchronized List<StockItem> matching(Predicate<StockItem> filter) {
+        List<StockItem> items = new ArrayList<>();
+        for (Entry entry : ranking) {
+            if (filter.test(entry.item)) {
+                items.add(entry.item);
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+        check(item);
+    }
+
+    @Override
+    public synchronized void itemRemoved(StockItem item) {
+        Entry entry = entries.remove(item);
+        if (entry != null) {
+            ranking.remove(entry);
+            for (LowStockListener listener : listeners) {
+                listener.alertCleared(item);
+            }
+        }
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        check(item);
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+        check(item);
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+        check(item);
+    }
+
+    // The quantity is changed before the event and the entry is added before the
+    // item is read again, so a recovery racing a new alert either finds the
+    // entry here or is seen by that second read
+    private void check(StockItem item) {
+        if (!item.isLowStock() && !entries.containsKey(item)) {
+            return;
+        }
+        synchronized (this) {
+            update(item);
+        }
+    }
+
+    private void update(StockItem item) {
+        Entry entry = entries.get(item);
+        boolean low = item.isLowStock();
+        if (entry == null && !low) {
+            return;
+        }
+        if (entry == null) {
+            entry = new Entry(item);
+            entries.put(item, entry);
+            ranking.add(entry);
+            for (LowStockListener listener : listeners) {
+                listener.lowStock(item);
+            }
+            if (!item.isLowStock()) {
+                update(item);
+            }
+        } else if (low) {
+            int headroom = headroomOf(item);
+            if (headroom != entry.headroom) {
+                ranking.remove(entry);
+                entry.headroom = headroom;
+                ranking.add(entry);
+            }
+        } else {
+            entries.remove(item);
+            ranking.remove(entry);
+            for (LowStockListener listener : listeners) {
+                listener.alertCleared(item);
+            }
+        }
+    }
+
+    private static int headroomOf(StockItem item) {
+        return item.getQuantity() - item.getMinimumStock();
+    }
+}
+
+// Reorder alert events. They are raised while the alert index is locked, so
+// listeners should hand any slow work to another thread.
+interface LowStockListener {
+    // The item has just fallen to or below its minimum stock
+    void lowStock(StockItem item);
+
+    // The item is back above its minimum stock, or was removed
+    void alertCleared(StockItem item);
+}
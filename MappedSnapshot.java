@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+// Fixed-layout snapshot of the item table, read through memory mappings rather
+// than parsed. Every item is a 64-byte row, so rows are decoded independently
+// and in parallel, and each column of sales (times, quantities, prices) is
+// stored contiguously and left in the mapping: loaded histories read their
+// older sales straight from the page cache and only new sales take heap.
+// Little-endian throughout. The layout, in file order:
+//
+//   header      96 bytes, see below
+//   categories  16 bytes each: long string offset, int byte length, padding
+//   times       8 bytes per sale, epoch millis
+//   quantities  4 bytes per sale, padded to 8
+//   prices      8 bytes per sale, cents
+//   items       64 bytes each, see ROW_* below
+//   strings     UTF-8 names and categories
+//
+// The header carries the store's unit and revenue totals, checked against the
+// rows on load, since checksumming the whole file would read every page.
+final class MappedSnapshot {
+    static final int MAGIC = 0x534D4150; // "SMAP"
+    static final int VERSION = 4;
+
+    private static final int HEADER_SIZE = 96;
+    private static final int CATEGORY_SIZE = 16;
+    private static final int ROW_SIZE = 64;
+
+    // Header fields
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_GENERATION = 8;
+    private static final int H_ITEMS = 16;
+    private static final int H_CATEGORIES = 20;
+    private static final int H_SALES = 24;
+    private static final int H_CATEGORY_TABLE = 32;
+    private static final int H_TIMES = 40;
+    private static final int H_QUANTITIES = 48;
+    private static final int H_PRICES = 56;
+    private static final int H_ROWS = 64;
+    private static final int H_STRINGS = 72;
+    private static final int H_UNITS = 80;
+    private static final int H_REVENUE = 88;
+
+    // Item row fields
+    private static final int ROW_NAME = 0;          // long string offset
+    private static final int ROW_NAME_LENGTH = 8;   // int
+    private static final int ROW_CATEGORY = 12;     // int index into categories
+    private static final int ROW_QUANTITY = 16;     // int
+    private static final int ROW_SOLD = 20;         // int
+    private static final int ROW_MINIMUM = 24;      // int
+    private static final int ROW_SALES = 28;        // int sale count
+    private static final int ROW_PRICE = 32;        // long cents
+    private static final int ROW_UPDATED = 40;      // long epoch millis
+    private static final int ROW_REVENUE = 48;      // long cents
+    private static final int ROW_FIRST_SALE = 56;   // long index into the sale columns
+
+    private MappedSnapshot() {
+    }
+
+    // The items' state at one instant. Taking it copies a few fields per item
+    // and no sales: histories only grow, so the first saleCounts[i] sales of
+    // each stay as they were while the snapshot is written from the cut.
+    static final class Cut {
+        final int size;
+        final String[] names;
+        final String[] categories;
+        final int[] quantities;
+        final int[] sold;
+        final int[] minimumStock;
+        final int[] saleCounts;
+        final long[] prices;
+        final long[] lastUpdated;
+        final SalesHistory[] histories;
+
+        // Callers keep the items from changing while it is taken
+        Cut(Collection<StockItem> items) {
+            StockItem[] table = items.toArray(new StockItem[0]);
+            size = table.length;
+            names = new String[size];
+            categories = new String[size];
+            quantities = new int[size];
+            sold = new int[size];
+            minimumStock = new int[size];
+            saleCounts = new int[size];
+            prices = new long[size];
+            lastUpdated = new long[size];
+            histories = new SalesHistory[size];
+            for (int i = 0; i < size; i++) {
+                StockItem item = table[i];
+                names[i] = item.getName();
+                categories[i] = item.getCategory();
+                quantities[i] = item.getQuantity();
+                sold[i] = item.getSold();
+                minimumStock[i] = item.getMinimumStock();
+                prices[i] = item.getPriceCents();
+                lastUpdated[i] = item.getLastUpdated();
+                histories[i] = item.getSales();
+                saleCounts[i] = histories[i].size();
+            }
+        }
+    }
+
+    // Writes the cut to file; items may change meanwhile
+    static void write(Path file, long generation, Cut cut) throws IOException {
+        int[] saleCounts = cut.saleCounts;
+        long[] firstSales = new long[cut.size];
+        long[] revenue = new long[cut.size];
+        int[] categoryOf = new int[cut.size];
+        Map<String, Integer> categoryIds = new HashMap<>();
+        List<byte[]> categories = new ArrayList<>();
+        byte[][] names = new byte[cut.size][];
+        long sales = 0;
+        for (int i = 0; i < cut.size; i++) {
+            firstSales[i] = sales;
+            sales += saleCounts[i];
+            names[i] = cut.names[i].getBytes(StandardCharsets.UTF_8);
+            Integer category = categoryIds.get(cut.categories[i]);
+            if (category == null) {
+                category = categories.size();
+                categoryIds.put(cut.categories[i], category);
+                byte[] bytes = cut.categories[i].getBytes(StandardCharsets.UTF_8);
+                categories.add(bytes);
+            }
+            categoryOf[i] = category;
+        }
+
+        long categoryTable = HEADER_SIZE;
+        long times = categoryTable + (long) categories.size() * CATEGORY_SIZE;
+        long quantities = times + sales * 8;
+        long prices = quantities + align(sales * 4);
+        long rows = prices + sales * 8;
+        long strings = rows + (long) cut.size * ROW_SIZE;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            // Filled in once the rows are known
+            out.skip(HEADER_SIZE);
+
+            long stringOffset = strings;
+            for (byte[] category : categories) {
+                out.ensure(CATEGORY_SIZE).putLong(stringOffset).putInt(category.length).putInt(0);
+                stringOffset += category.length;
+            }
+            for (int i = 0; i < cut.size; i++) {
+                SalesHistory history = cut.histories[i];
+                for (int s = 0; s < saleCounts[i]; s++) {
+                    out.ensure(8).putLong(history.timeAt(s));
+                }
+            }
+            for (int i = 0; i < cut.size; i++) {
+                SalesHistory history = cut.histories[i];
+                for (int s = 0; s < saleCounts[i]; s++) {
+                    out.ensure(4).putInt(history.quantityAt(s));
+                    revenue[i] += history.quantityAt(s) * history.priceCentsAt(s);
+                }
+            }
+            out.skip(align(sales * 4) - sales * 4);
+            for (int i = 0; i < cut.size; i++) {
+                SalesHistory history = cut.histories[i];
+                for (int s = 0; s < saleCounts[i]; s++) {
+                    out.ensure(8).putLong(history.priceCentsAt(s));
+                }
+            }
+
+            long units = 0;
+            long totalRevenue = 0;
+            for (int i = 0; i < cut.size; i++) {
+                int sold = cut.sold[i];
+                out.ensure(ROW_SIZE)
+                        .putLong(stringOffset)
+                        .putInt(names[i].length)
+                        .putInt(categoryOf[i])
+                        .putInt(cut.quantities[i])
+                        .putInt(sold)
+                        .putInt(cut.minimumStock[i])
+                        .putInt(saleCounts[i])
+                        .putLong(cut.prices[i])
+                        .putLong(cut.lastUpdated[i])
+                        .putLong(revenue[i])
+                        .putLong(firstSales[i]);
+                stringOffset += names[i].length;
+                units += sold;
+                totalRevenue += revenue[i];
+            }
+            for (byte[] category : categories) {
+                out.put(category);
+            }
+            for (byte[] name : names) {
+                out.put(name);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(H_MAGIC, MAGIC)
+                    .putInt(H_VERSION, VERSION)
+                    .putLong(H_GENERATION, generation)
+                    .putInt(H_ITEMS, cut.size)
+                    .putInt(H_CATEGORIES, categories.size())
+                    .putLong(H_SALES, sales)
+                    .putLong(H_CATEGORY_TABLE, categoryTable)
+                    .putLong(H_TIMES, times)
+                    .putLong(H_QUANTITIES, quantities)
+                    .putLong(H_PRICES, prices)
+                    .putLong(H_ROWS, rows)
+                    .putLong(H_STRINGS, strings)
+                    .putLong(H_UNITS, units)
+                    .putLong(H_REVENUE, totalRevenue);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    // Maps the snapshot and adds its items to the map; returns its generation.
+    // The mappings stay alive as long as the loaded histories do. Rows are
+    // decoded into items up front, in parallel, and only the sales stay in the
+    // mapping: Inventory walks every item at open to rebuild its indexes, so
+    // building an item on first touch would only move the cost, not save it.
+    static long read(Path file, Map<String, StockItem> items) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Truncated snapshot " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION) {
+                throw new IOException("Unrecognized snapshot file " + file);
+            }
+            int count = header.getInt(H_ITEMS);
+            int categoryCount = header.getInt(H_CATEGORIES);
+            long sales = header.getLong(H_SALES);
+            long rowsOffset = header.getLong(H_ROWS);
+            long stringsOffset = header.getLong(H_STRINGS);
+            if (count < 0 || categoryCount < 0 || sales < 0
+                    || header.getLong(H_CATEGORY_TABLE) + (long) categoryCount * CATEGORY_SIZE > size
+                    || header.getLong(H_TIMES) + sales * 8 > size
+                    || header.getLong(H_QUANTITIES) + sales * 4 > size
+                    || header.getLong(H_PRICES) + sales * 8 > size
+                    || rowsOffset + (long) count * ROW_SIZE > stringsOffset || stringsOffset > size) {
+                throw new IOException("Truncated snapshot " + file);
+            }
+
+            MappedRegion categoryTable = new MappedRegion(channel, header.getLong(H_CATEGORY_TABLE),
+                    (long) categoryCount * CATEGORY_SIZE);
+            MappedRegion rows = new MappedRegion(channel, rowsOffset, (long) count * ROW_SIZE);
+            MappedRegion strings = new MappedRegion(channel, stringsOffset, size - stringsOffset);
+            MappedSales mappedSales = new MappedSales(
+                    new MappedRegion(channel, header.getLong(H_TIMES), sales * 8),
+                    new MappedRegion(channel, header.getLong(H_QUANTITIES), sales * 4),
+                    new MappedRegion(channel, header.getLong(H_PRICES), sales * 8));
+
+            String[] categories = new String[categoryCount];
+            for (int c = 0; c < categoryCount; c++) {
+                long entry = (long) c * CATEGORY_SIZE;
+                categories[c] = strings.getString(categoryTable.getLong(entry) - stringsOffset,
+                        categoryTable.getInt(entry + 8));
+            }
+
+            StockItem[] loaded = new StockItem[count];
+            IntStream.range(0, count).parallel().forEach(i -> {
+                long row = (long) i * ROW_SIZE;
+                String name = strings.getString(rows.getLong(row + ROW_NAME) - stringsOffset,
+                        rows.getInt(row + ROW_NAME_LENGTH));
+                int category = rows.getInt(row + ROW_CATEGORY);
+                int quantity = rows.getInt(row + ROW_QUANTITY);
+                int saleCount = rows.getInt(row + ROW_SALES);
+                long firstSale = rows.getLong(row + ROW_FIRST_SALE);
+                if (category < 0 || category >= categoryCount || saleCount < 0
+                        || firstSale < 0 || firstSale + saleCount > sales) {
+                    throw new IllegalStateException("Corrupt snapshot row " + i);
+                }
+                int minimumStock = rows.getInt(row + ROW_MINIMUM);
+                StockItem item = new StockItem(name, quantity, rows.getLong(row + ROW_PRICE), minimumStock,
+                        categories[category]);
+                item.restoreState(quantity, rows.getInt(row + ROW_SOLD), rows.getLong(row + ROW_UPDATED));
+                item.restoreSales(saleCount, rows.getLong(row + ROW_REVENUE),
+                        new SalesHistory(name, mappedSales, firstSale, saleCount));
+                loaded[i] = item;
+            });
+
+            long units = 0;
+            long revenue = 0;
+            for (StockItem item : loaded) {
+                units += item.getSold();
+                revenue += item.getTotalSalesCents();
+                items.put(item.getName(), item);
+            }
+            if (units != header.getLong(H_UNITS) || revenue != header.getLong(H_REVENUE)) {
+                throw new IOException("Snapshot totals do not match its rows in " + file);
+            }
+            return header.getLong(H_GENERATION);
+        } catch (IllegalStateException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt snapshot " + file, e);
+        }
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    // Sale columns shared by every history loaded from one snapshot
+    static final class MappedSales {
+        private final MappedRegion times;
+        private final MappedRegion quantities;
+        private final MappedRegion prices;
+
+        MappedSales(MappedRegion times, MappedRegion quantities, MappedRegion prices) {
+            this.times = times;
+            this.quantities = quantities;
+            this.prices = prices;
+        }
+
+        long timeAt(long index) {
+            return times.getLong(index << 3);
+        }
+
+        int quantityAt(long index) {
+            return quantities.getInt(index << 2);
+        }
+
+        long priceCentsAt(long index) {
+            return prices.getLong(index << 3);
+        }
+    }
+
+    // Read-only view of part of a file, mapped in pieces of 1 GB as a single
+    // buffer cannot address more than 2 GB. Only absolute reads are used, so
+    // it is safe to share between threads.
+    static final class MappedRegion {
+        private static final int SEGMENT_BITS = 30;
+        private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+        private static final int SEGMENT_MASK = (int) SEGMENT_SIZE - 1;
+
+        private final ByteBuffer[] segments;
+
+        MappedRegion(FileChannel channel, long offset, long length) throws IOException {
+            segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start,
+                        Math.min(SEGMENT_SIZE, length - start)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        // Values are aligned to their size, so none straddles two segments
+        long getLong(long position) {
+            return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) position & SEGMENT_MASK);
+        }
+
+        int getInt(long position) {
+            return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) position & SEGMENT_MASK);
+        }
+
+        String getString(long position, int length) {
+            byte[] bytes = new byte[length];
+            int done = 0;
+            while (done < length) {
+                long at = position + done;
+                ByteBuffer segment = segments[(int) (at >>> SEGMENT_BITS)];
+                int offset = (int) at & SEGMENT_MASK;
+                int chunk = Math.min(length - done, segment.limit() - offset);
+                segment.get(offset, bytes, done, chunk);
+                done += chunk;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Buffered sequential writer
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer ensure(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int chunk = Math.min(bytes.length - offset, ensure(1).remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        // Leaves zeros
+        void skip(long size) throws IOException {
+            for (long i = 0; i < size; i++) {
+                ensure(1).put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
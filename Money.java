@@ -0,0 +1,91 @@
+// Money as long cents. Prices, sale amounts and revenue are carried in minor
+// units end to end, so totals are exact however many sales they cover and
+// accumulate in primitives. Doubles only appear at the edges: typed input,
+// older journal records, and callers that still want a double. Formatting is
+// done by hand, as it runs on every repaint of the price column.
+final class Money {
+    private Money() {
+    }
+
+    // Nearest cent of an amount in dollars
+    static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    // Price of quantity units; throws ArithmeticException rather than wrapping
+    static long times(long cents, int quantity) {
+        return Math.multiplyExact(cents, (long) quantity);
+    }
+
+    // Parses "12", "12.5", "-3.99" or "$1,250.00" exactly, without going through
+    // a double. More than two decimals is an error rather than silently rounded.
+    static long parse(String text) {
+        String value = text.trim();
+        boolean negative = value.startsWith("-");
+        int i = negative ? 1 : 0;
+        if (i < value.length() && value.charAt(i) == '$') {
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        for (; i < value.length() && value.charAt(i) != '.'; i++) {
+            char c = value.charAt(i);
+            if (c == ',') {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not an amount: " + text);
+            }
+            units = Math.addExact(Math.multiplyExact(units, 10), c - '0');
+            digits++;
+        }
+        long fraction = 0;
+        int decimals = 0;
+        if (i < value.length()) {
+            for (i++; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9' || decimals == 2) {
+                    throw new NumberFormatException("Not an amount in cents: " + text);
+                }
+                fraction = fraction * 10 + (c - '0');
+                decimals++;
+            }
+        }
+        if (digits == 0 && decimals == 0) {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+        if (decimals == 1) {
+            fraction *= 10;
+        }
+        long cents = Math.addExact(Math.multiplyExact(units, 100), fraction);
+        return negative ? -cents : cents;
+    }
+
+    // $1234.56, or -$0.05 for negative amounts
+    static String format(long cents) {
+        return append(new StringBuilder(16), cents).toString();
+    }
+
+    static StringBuilder append(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+        }
+        out.append('$');
+        // Split before dropping the sign, since -Long.MIN_VALUE is not a long
+        return appendDigits(out, Math.abs(cents / 100), Math.abs((int) (cents % 100)));
+    }
+
+    // Digits only, 1234.56, for amounts known not to be negative
+    static StringBuilder appendPlain(StringBuilder out, long cents) {
+        return appendDigits(out, cents / 100, (int) (cents % 100));
+    }
+
+    private static StringBuilder appendDigits(StringBuilder out, long units, int fraction) {
+        out.append(units).append('.');
+        return out.append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+}
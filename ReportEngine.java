@@ -0,0 +1,527 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Sales reports summed straight from the items' histories on a fork/join pool.
+// Items are split into runs by registry id, and a run hands its remaining ids
+// out again once it has scanned its share of sales; an item with more sales
+// than that is split into index ranges of its history, so one busy item is
+// also spread over the cores. Each task sums into primitive columns keyed by
+// item id, category id or local day or hour, and results are merged as tasks
+// join. Without a pool the same tasks run one after another on the caller.
+// Only items still in stock are counted.
+class ReportEngine {
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 24 * HOUR;
+    // Sales a task scans before handing out the rest of its work
+    private static final int TASK_SALES = 1 << 16;
+    private static final int TASK_ITEMS = 512;
+    private static final int BUFFER = 1024;
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    enum GroupBy {
+        ITEM, CATEGORY, DAY, HOUR
+    }
+
+    static class Row {
+        private final String label;
+        private final StockItem item;
+        private final long start;
+        private final long units;
+        private final long revenueCents;
+        private final long sales;
+
+        Row(String label, StockItem item, long start, long units, long revenueCents, long sales) {
+            this.label = label;
+            this.item = item;
+            this.start = start;
+            this.units = units;
+            this.revenueCents = revenueCents;
+            this.sales = sales;
+        }
+
+        // Item name, category, yyyy-MM-dd or yyyy-MM-dd HH:00
+        public String getLabel() {
+            return label;
+        }
+
+        // Null unless grouped by item
+        public StockItem getItem() {
+            return item;
+        }
+
+        // Epoch millis the day or hour starts at; 0 for items and categories
+        public long getStart() {
+            return start;
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public long getRevenueCents() {
+            return revenueCents;
+        }
+
+        // Number of sales, as opposed to units
+        public long getSales() {
+            return sales;
+        }
+    }
+
+    static class Report {
+        private final GroupBy groupBy;
+        private final ZoneId zone;
+        private final String[] categories;
+        private final StockItem[] items;
+        private final long[] keys;
+        private final long[] units;
+        private final long[] revenueCents;
+        private final long[] sales;
+        private final int size;
+        private long totalUnits;
+        private long totalRevenueCents;
+        private long totalSales;
+        private long computeMillis;
+
+        // Keeps the groups with sales, in key order
+        Report(GroupBy groupBy, ZoneId zone, ItemRegistry registry, Sums sums) {
+            this.groupBy = groupBy;
+            this.zone = zone;
+            int count = 0;
+            for (int i = 0; i < sums.length; i++) {
+                if (sums.sales[i] != 0) {
+                    count++;
+                }
+            }
+            keys = new long[count];
+            units = new long[count];
+            revenueCents = new long[count];
+            sales = new long[count];
+            items = groupBy == GroupBy.ITEM ? new StockItem[count] : null;
+            categories = groupBy == GroupBy.CATEGORY ? new String[count] : null;
+            int size = 0;
+            for (int i = 0; i < sums.length; i++) {
+                if (sums.sales[i] == 0) {
+                    continue;
+                }
+                long key = sums.origin + i;
+                if (items != null) {
+                    // Removed while the report ran
+                    items[size] = registry.itemAt((int) key);
+                    if (items[size] == null) {
+                        continue;
+                    }
+                } else if (categories != null) {
+                    categories[size] = registry.categoryName((int) key);
+                }
+                keys[size] = key;
+                units[size] = sums.units[i];
+                revenueCents[size] = sums.revenueCents[i];
+                sales[size] = sums.sales[i];
+                totalUnits += units[size];
+                totalRevenueCents += revenueCents[size];
+                totalSales += sales[size];
+                size++;
+            }
+            this.size = size;
+        }
+
+        public GroupBy getGroupBy() {
+            return groupBy;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Every group in order of item id, category id or time
+        public List<Row> getRows() {
+            List<Row> rows = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                rows.add(row(i));
+            }
+            return rows;
+        }
+
+        public long getUnits() {
+            return totalUnits;
+        }
+
+        public long getRevenueCents() {
+            return totalRevenueCents;
+        }
+
+        public long getSales() {
+            return totalSales;
+        }
+
+        // Wall time the report took to compute
+        public long getComputeMillis() {
+            return computeMillis;
+        }
+
+        // Up to count groups with the most units, most first
+        public List<Row> top(int count) {
+            return top(count, units);
+        }
+
+        // Up to count groups with the most revenue, most first
+        public List<Row> topByRevenue(int count) {
+            return top(count, revenueCents);
+        }
+
+        // Selects with a heap of count indexes rather than sorting every group
+        private List<Row> top(int count, long[] column) {
+            PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, count),
+                    (a, b) -> Long.compare(column[a], column[b]));
+            for (int i = 0; i < size && count > 0; i++) {
+                if (best.size() < count) {
+                    best.add(i);
+                } else if (column[i] > column[best.peek()]) {
+                    best.poll();
+                    best.add(i);
+                }
+            }
+            List<Row> top = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                top.add(row(best.poll()));
+            }
+            Collections.reverse(top);
+            return top;
+        }
+
+        private Row row(int i) {
+            switch (groupBy) {
+                case ITEM:
+                    return new Row(items[i].getName(), items[i], 0, units[i], revenueCents[i], sales[i]);
+                case CATEGORY:
+                    return new Row(categories[i], null, 0, units[i], revenueCents[i], sales[i]);
+                case DAY: {
+                    LocalDate day = LocalDate.ofEpochDay(keys[i]);
+                    return new Row(day.toString(), null, day.atStartOfDay(zone).toInstant().toEpochMilli(),
+                            units[i], revenueCents[i], sales[i]);
+                }
+                default: {
+                    LocalDateTime hour = LocalDateTime.ofEpochSecond(keys[i] * (HOUR / 1000), 0, ZoneOffset.UTC);
+                    return new Row(hour.toLocalDate() + " " + (hour.getHour() < 10 ? "0" : "") + hour.getHour()
+                            + ":00", null, hour.atZone(zone).toInstant().toEpochMilli(),
+                            units[i], revenueCents[i], sales[i]);
+                }
+            }
+        }
+    }
+
+    private final ItemRegistry registry;
+    private volatile ForkJoinPool pool;
+
+    // A null pool runs reports sequentially on the calling thread
+    public ReportEngine(ItemRegistry registry, ForkJoinPool pool) {
+        this.registry = registry;
+        this.pool = pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    // Sales in [fromMillis, toMillis), days and hours taken in the zone
+    public Report report(GroupBy groupBy, long fromMillis, long toMillis, ZoneId zone) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = this.pool;
+        Run run = new Run(groupBy, fromMillis, toMillis, zone.getRules(), pool != null);
+        Sums sums;
+        if (fromMillis >= toMillis) {
+            sums = new Sums(0);
+        } else {
+            Run.Items all = run.new Items(0, run.limit);
+            sums = pool != null ? pool.invoke(all) : all.invoke();
+        }
+        Report report = new Report(groupBy, zone, registry, sums);
+        report.computeMillis = (System.nanoTime() - start) / 1_000_000;
+        return report;
+    }
+
+    // The state shared by the tasks of one report
+    private final class Run {
+        final GroupBy groupBy;
+        final long from;
+        final long to;
+        final ZoneRules rules;
+        final boolean parallel;
+        final int limit;
+        // Grouped by item every task adds into the one set of columns, as ids
+        // are dense and each item is summed by one task or its history ranges
+        final Sums shared;
+
+        Run(GroupBy groupBy, long from, long to, ZoneRules rules, boolean parallel) {
+            this.groupBy = groupBy;
+            this.from = from;
+            this.to = to;
+            this.rules = rules;
+            this.parallel = parallel;
+            limit = registry.limit();
+            shared = groupBy == GroupBy.ITEM ? new Sums(limit) : null;
+        }
+
+        Sums sums() {
+            return shared != null ? shared : new Sums(0);
+        }
+
+        Sums both(RecursiveTask<Sums> first, RecursiveTask<Sums> second) {
+            if (!parallel) {
+                return first.invoke().merge(second.invoke());
+            }
+            second.fork();
+            Sums sums = first.invoke();
+            return sums.merge(second.join());
+        }
+
+        // Items with ids in [first, end)
+        final class Items extends RecursiveTask<Sums> {
+            private static final long serialVersionUID = 1L;
+
+            final int first;
+            final int end;
+
+            Items(int first, int end) {
+                this.first = first;
+                this.end = end;
+            }
+
+            @Override
+            protected Sums compute() {
+                if (end - first > TASK_ITEMS) {
+                    int middle = (first + end) >>> 1;
+                    return both(new Items(first, middle), new Items(middle, end));
+                }
+                Sums sums = sums();
+                Scanner scanner = new Scanner();
+                long scanned = 0;
+                for (int id = first; id < end; id++) {
+                    if (scanned >= TASK_SALES && end - id > 1) {
+                        // Done this task's share; the rest goes out as two more tasks
+                        int middle = (id + end) >>> 1;
+                        return sums.merge(both(new Items(id, middle), new Items(middle, end)));
+                    }
+                    StockItem item = registry.itemAt(id);
+                    if (item == null) {
+                        continue;
+                    }
+                    SalesHistory history = item.getSales();
+                    int start = history.lowerBound(from);
+                    int stop = history.lowerBound(to);
+                    if (stop - start > TASK_SALES) {
+                        sums = sums.merge(new Sales(id, history, start, stop).invoke());
+                    } else {
+                        scanner.scan(id, history, start, stop, sums, false);
+                    }
+                    scanned += stop - start;
+                }
+                return sums;
+            }
+        }
+
+        // Sales [first, end) of one item's history
+        final class Sales extends RecursiveTask<Sums> {
+            private static final long serialVersionUID = 1L;
+
+            final int id;
+            final SalesHistory history;
+            final int first;
+            final int end;
+
+            Sales(int id, SalesHistory history, int first, int end) {
+                this.id = id;
+                this.history = history;
+                this.first = first;
+                this.end = end;
+            }
+
+            @Override
+            protected Sums compute() {
+                if (end - first > TASK_SALES) {
+                    int middle = (first + end) >>> 1;
+                    return both(new Sales(id, history, first, middle), new Sales(id, history, middle, end));
+                }
+                Sums sums = sums();
+                // Other ranges of the same item may be adding to its shared column at once
+                new Scanner().scan(id, history, first, end, sums, sums == shared);
+                return sums;
+            }
+        }
+
+        // Per-task read buffers and zone offset cache
+        final class Scanner {
+            final long[] times = new long[BUFFER];
+            final int[] quantities = new int[BUFFER];
+            final long[] prices = new long[BUFFER];
+            // The offset holds for UTC times in [offsetFrom, offsetUntil)
+            long offsetFrom = 1;
+            long offsetUntil = 0;
+            long offset;
+
+            void scan(int id, SalesHistory history, int first, int end, Sums sums, boolean atomic) {
+                if (first >= end) {
+                    return;
+                }
+                if (groupBy == GroupBy.ITEM || groupBy == GroupBy.CATEGORY) {
+                    long units = 0;
+                    long revenue = 0;
+                    for (int i = first; i < end; ) {
+                        int count = history.read(i, Math.min(BUFFER, end - i), times, quantities, prices);
+                        for (int j = 0; j < count; j++) {
+                            units += quantities[j];
+                            revenue += quantities[j] * prices[j];
+                        }
+                        i += count;
+                    }
+                    long key = groupBy == GroupBy.ITEM ? id : registry.categoryAt(id);
+                    if (atomic) {
+                        sums.addAtomic((int) key, units, revenue, end - first);
+                    } else {
+                        sums.add(key, units, revenue, end - first);
+                    }
+                    return;
+                }
+                // Sales are in time order, so a bucket's sales come in one run
+                long width = groupBy == GroupBy.DAY ? DAY : HOUR;
+                long bucket = Long.MIN_VALUE;
+                long units = 0;
+                long revenue = 0;
+                long sales = 0;
+                for (int i = first; i < end; ) {
+                    int count = history.read(i, Math.min(BUFFER, end - i), times, quantities, prices);
+                    for (int j = 0; j < count; j++) {
+                        long time = times[j];
+                        if (time < offsetFrom || time >= offsetUntil) {
+                            findOffset(time);
+                        }
+                        long key = Math.floorDiv(time + offset, width);
+                        if (key != bucket) {
+                            if (sales > 0) {
+                                sums.add(bucket, units, revenue, sales);
+                            }
+                            bucket = key;
+                            units = 0;
+                            revenue = 0;
+                            sales = 0;
+                        }
+                        units += quantities[j];
+                        revenue += quantities[j] * prices[j];
+                        sales++;
+                    }
+                    i += count;
+                }
+                sums.add(bucket, units, revenue, sales);
+            }
+
+            // Offset at the time, and the span between transitions it holds for
+            private void findOffset(long time) {
+                Instant instant = Instant.ofEpochMilli(time);
+                offset = rules.getOffset(instant).getTotalSeconds() * 1000L;
+                ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+                ZoneOffsetTransition next = rules.nextTransition(instant);
+                offsetFrom = previous == null ? Long.MIN_VALUE : previous.toEpochSecond() * 1000;
+                offsetUntil = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000;
+            }
+        }
+    }
+
+    // Units, revenue and sale counts for keys [origin, origin + length), grown
+    // at either end as keys outside it arrive
+    static final class Sums {
+        long origin;
+        int length;
+        long[] units;
+        long[] revenueCents;
+        long[] sales;
+
+        Sums(int length) {
+            this.length = length;
+            units = new long[length];
+            revenueCents = new long[length];
+            sales = new long[length];
+        }
+
+        void add(long key, long units, long revenueCents, long sales) {
+            if (length == 0) {
+                origin = key;
+            }
+            if (key < origin || key >= origin + length) {
+                cover(Math.min(key, origin), Math.max(key + 1, origin + length));
+            }
+            int i = (int) (key - origin);
+            this.units[i] += units;
+            this.revenueCents[i] += revenueCents;
+            this.sales[i] += sales;
+        }
+
+        // For shared columns that already cover the key
+        void addAtomic(int key, long units, long revenueCents, long sales) {
+            LONGS.getAndAdd(this.units, key, units);
+            LONGS.getAndAdd(this.revenueCents, key, revenueCents);
+            LONGS.getAndAdd(this.sales, key, sales);
+        }
+
+        Sums merge(Sums other) {
+            if (other == this || other.length == 0) {
+                return this;
+            }
+            if (length == 0) {
+                return other;
+            }
+            cover(Math.min(origin, other.origin), Math.max(origin + length, other.origin + other.length));
+            int offset = (int) (other.origin - origin);
+            for (int i = 0; i < other.length; i++) {
+                units[offset + i] += other.units[i];
+                revenueCents[offset + i] += other.revenueCents[i];
+                sales[offset + i] += other.sales[i];
+            }
+            return this;
+        }
+
+        // Grows the columns to cover keys [first, end), with room to spare on the side that grew
+        private void cover(long first, long end) {
+            if (first >= origin && end <= origin + length && length > 0) {
+                return;
+            }
+            long spare = Math.max(16, (end - first) / 2);
+            long newOrigin = first < origin ? first - spare : origin;
+            long newEnd = end > origin + length ? end + spare : origin + length;
+            if (length == 0) {
+                newOrigin = first;
+                newEnd = end + spare;
+            }
+            int newLength = Math.toIntExact(newEnd - newOrigin);
+            int shift = length == 0 ? 0 : (int) (origin - newOrigin);
+            units = grow(units, newLength, shift);
+            revenueCents = grow(revenueCents, newLength, shift);
+            sales = grow(sales, newLength, shift);
+            origin = newOrigin;
+            length = newLength;
+        }
+
+        private long[] grow(long[] column, int newLength, int shift) {
+            long[] grown = new long[newLength];
+            System.arraycopy(column, 0, grown, shift, Math.min(length, column.length));
+            return grown;
+        }
+    }
+}
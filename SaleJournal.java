@@ -0,0 +1,798 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Append-only binary journal of stock mutations. Records are buffered and
+// written by a background flusher that fsyncs once per commit interval (group
+// commit). Journals are files named by generation: a checkpoint starts the next
+// generation at its cut, writes a compacted snapshot of the cut under that
+// generation afterwards, and only then deletes the older journals, so recovery
+// replays every journal from the newest complete snapshot's generation on.
+// Sales are encoded into per-thread buffers, which the flusher copies into the
+// shared buffer, so tills do not wait on each other to journal a sale; any
+// other record first drains them, so it lands after every sale before it.
+// Prices are written as whole cents, the same longs StockItem keeps.
+// Snapshots are MappedSnapshot files named by generation. A directory still
+// holding the single streamed stock.snapshot of earlier versions is refused
+// rather than loaded without it.
+class SaleJournal implements StockStorage {
+    private static final int JOURNAL_MAGIC = 0x534A4E4C; // "SJNL"
+    // Version 3 writes prices as long cents; version 2 journals, with prices
+    // as double dollars, are still replayed
+    private static final int VERSION = 3;
+    private static final int DOUBLE_PRICES = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_RECORD_SIZE = 1 << 24;
+    // Journal is compacted into a snapshot once it grows past this size
+    private static final long CHECKPOINT_THRESHOLD = 64L << 20;
+    private static final int SALE_BUFFER_SIZE = 64 << 10;
+    private static final byte[] NO_NAME = new byte[0];
+    private static final Set<Path> LOCKED_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    private static final byte CREATE = 1;
+    private static final byte SALE = 2;
+    private static final byte RESTOCK = 3;
+    private static final byte UPDATE = 4;
+    private static final byte REMOVE = 5;
+    private static final byte BASKET = 6;
+
+    // Sale records written by one thread and not yet copied to the shared buffer
+    private static class SaleBuffer {
+        final ByteBuffer buffer = ByteBuffer.allocate(SALE_BUFFER_SIZE);
+        final CRC32 crc = new CRC32();
+    }
+
+    private final Path directory;
+    // Single journal of earlier versions, renamed by its generation on load
+    private final Path journalFile;
+    // Streamed snapshot of earlier versions, no longer read
+    private final Path snapshotFile;
+    private final long commitIntervalMillis;
+    private FileChannel channel;
+    // Journal of the previous generation until its checkpoint's snapshot is written
+    private FileChannel retired;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final ThreadBuffers<SaleBuffer> saleBuffers = new ThreadBuffers<>(SaleBuffer::new);
+    private long generation;
+    private long journalSize;
+    private boolean dirty;
+    private volatile boolean closed;
+    private Thread flusher;
+    // Held while the journal is open, so a second process on the same
+    // directory fails to open rather than interleaving its records
+    private final Path lockedDirectory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    public SaleJournal(Path directory, long commitIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.journalFile = directory.resolve("stock.journal");
+        this.snapshotFile = directory.resolve("stock.snapshot");
+        this.commitIntervalMillis = commitIntervalMillis;
+        // Closing any channel on the lock file drops the process's lock on it,
+        // so a directory this process holds is refused before the file is opened
+        this.lockedDirectory = directory.toAbsolutePath().normalize();
+        if (!LOCKED_DIRECTORIES.add(lockedDirectory)) {
+            throw new IOException("Data directory " + directory + " is already open");
+        }
+        FileChannel opened = null;
+        FileLock acquired = null;
+        try {
+            opened = FileChannel.open(directory.resolve("stock.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            acquired = opened.tryLock();
+        } finally {
+            if (acquired == null) {
+                if (opened != null) {
+                    opened.close();
+                }
+                LOCKED_DIRECTORIES.remove(lockedDirectory);
+            }
+        }
+        if (acquired == null) {
+            throw new IOException("Data directory " + directory + " is in use by another process");
+        }
+        this.lockChannel = opened;
+        this.lock = acquired;
+    }
+
+    // Loads the latest snapshot, replays the journals written since on top of it
+    // and truncates any torn record left behind by a crash.
+    @Override
+    public synchronized Map<String, StockItem> load() throws IOException {
+        long start = System.nanoTime();
+        // In snapshot order, so registry ids keep following insertion order
+        Map<String, StockItem> items = new LinkedHashMap<>();
+        long snapshotGeneration = latestSnapshot();
+        if (snapshotGeneration > 0) {
+            MappedSnapshot.read(mappedSnapshot(snapshotGeneration), items);
+        } else if (Files.exists(snapshotFile)) {
+            throw new IOException("Data directory " + directory + " holds a streamed snapshot from an older"
+                    + " version, which this version no longer reads");
+        }
+
+        if (Files.exists(journalFile)) {
+            adoptJournal();
+        }
+        // Journals older than the snapshot are already included in it; a crash
+        // during a checkpoint leaves two newer ones, replayed in order
+        List<Long> journals = new ArrayList<>();
+        for (long journal : journalGenerations()) {
+            if (journal < snapshotGeneration) {
+                Files.deleteIfExists(journalPath(journal));
+            } else {
+                journals.add(journal);
+            }
+        }
+        long replayed = 0;
+        for (int i = 0; i + 1 < journals.size(); i++) {
+            try (FileChannel earlier = FileChannel.open(journalPath(journals.get(i)), StandardOpenOption.READ)) {
+                if (earlier.size() >= HEADER_SIZE) {
+                    replayed += replay(earlier, readJournalHeader(earlier), items);
+                }
+            }
+        }
+        generation = journals.isEmpty() ? snapshotGeneration : journals.get(journals.size() - 1);
+        channel = openJournal(generation);
+        if (channel.size() < HEADER_SIZE) {
+            resetJournal(generation);
+            syncDirectory();
+        } else {
+            int version = readJournalHeader(channel);
+            replayed += replay(channel, version, items);
+            truncateTornTail();
+            if (version != VERSION) {
+                // New records must not be appended in another format, so
+                // compact the old journal away and start one in this one
+                checkpoint(items.values()).write();
+            }
+        }
+
+        System.out.println(String.format("Recovered %d items (%d journal records replayed) in %d ms",
+                items.size(), replayed, (System.nanoTime() - start) / 1_000_000));
+
+        flusher = new Thread(this::runFlusher, "sale-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        return items;
+    }
+
+    public synchronized long getJournalSize() {
+        return journalSize;
+    }
+
+    @Override
+    public synchronized boolean needsCheckpoint() {
+        return journalSize >= CHECKPOINT_THRESHOLD;
+    }
+
+    @Override
+    public synchronized void itemAdded(StockItem item) {
+        byte[] category = encode(item.getCategory());
+        int start = begin(CREATE, StockClock.millis(), item.getName(), 20 + category.length);
+        buffer.putInt(item.getQuantity())
+                .putLong(item.getPriceCents())
+                .putInt(item.getMinimumStock())
+                .putInt(category.length)
+                .put(category);
+        end(start);
+    }
+
+    // Earlier sales of the item are drained first, so replay never applies
+    // them to an item added again under the same name
+    @Override
+    public synchronized void itemRemoved(StockItem item) {
+        drainSales();
+        end(begin(REMOVE, StockClock.millis(), item.getName(), 0));
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        byte[] name = encode(item.getName());
+        int size = recordSize(name.length, 12);
+        while (true) {
+            SaleBuffer sales = saleBuffers.get();
+            synchronized (sales) {
+                if (sales.buffer.remaining() >= size) {
+                    int start = begin(sales.buffer, SALE, time, name);
+                    sales.buffer.putInt(amount).putLong(priceCents);
+                    end(sales.buffer, sales.crc, start);
+                    return;
+                }
+            }
+            drainSales();
+        }
+    }
+
+    // The whole basket goes into one record, so recovery replays all of it or none
+    @Override
+    public void basketSold(StockItem[] items, int[] amounts, long[] prices, long[] times) {
+        byte[][] names = new byte[items.length][];
+        int fieldsSize = 4;
+        for (int i = 0; i < items.length; i++) {
+            names[i] = encode(items[i].getName());
+            fieldsSize += 4 + names[i].length + 20;
+        }
+        int size = recordSize(0, fieldsSize);
+        if (size > SALE_BUFFER_SIZE) {
+            synchronized (this) {
+                drainSales();
+                int start = begin(BASKET, times[0], "", fieldsSize);
+                putBasket(buffer, names, amounts, prices, times);
+                end(start);
+            }
+            return;
+        }
+        while (true) {
+            SaleBuffer sales = saleBuffers.get();
+            synchronized (sales) {
+                if (sales.buffer.remaining() >= size) {
+                    int start = begin(sales.buffer, BASKET, times[0], NO_NAME);
+                    putBasket(sales.buffer, names, amounts, prices, times);
+                    end(sales.buffer, sales.crc, start);
+                    return;
+                }
+            }
+            drainSales();
+        }
+    }
+
+    private static void putBasket(ByteBuffer buffer, byte[][] names, int[] amounts, long[] prices, long[] times) {
+        buffer.putInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            buffer.putInt(names[i].length)
+                    .put(names[i])
+                    .putInt(amounts[i])
+                    .putLong(prices[i])
+                    .putLong(times[i]);
+        }
+    }
+
+    @Override
+    public synchronized void stockAdded(StockItem item, int amount) {
+        int start = begin(RESTOCK, StockClock.millis(), item.getName(), 4);
+        buffer.putInt(amount);
+        end(start);
+    }
+
+    @Override
+    public synchronized void itemUpdated(StockItem item, String previousCategory, long time) {
+        byte[] category = encode(item.getCategory());
+        int start = begin(UPDATE, time, item.getName(), 16 + category.length);
+        buffer.putLong(item.getPriceCents())
+                .putInt(item.getMinimumStock())
+                .putInt(category.length)
+                .put(category);
+        end(start);
+    }
+
+    // Writes out buffered records and forces them to disk
+    public void sync() throws IOException {
+        FileChannel journal;
+        synchronized (this) {
+            drainSales();
+            if (buffer.position() > 0) {
+                writeBuffer();
+            }
+            // The previous generation's tail must not be lost while this one's is kept
+            if (retired != null) {
+                retired.force(false);
+            }
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            journal = channel;
+        }
+        try {
+            journal.force(false);
+        } catch (ClosedChannelException e) {
+            // A checkpoint retired and closed the journal, forcing it first
+        }
+    }
+
+    // Takes the cut for a compacted snapshot and starts the next, empty journal
+    // generation at it. Callers keep the items from changing until this returns,
+    // as Inventory does by holding sells off, so every change is either in the
+    // cut or in the new journal. The snapshot is written from the cut afterwards.
+    @Override
+    public synchronized Checkpoint checkpoint(Collection<StockItem> items) throws IOException {
+        long start = System.nanoTime();
+        MappedSnapshot.Cut cut = new MappedSnapshot.Cut(items);
+        drainSales();
+        if (buffer.position() > 0) {
+            writeBuffer();
+        }
+        if (retired != null) {
+            closeRetired();
+        }
+        retired = channel;
+        channel = openJournal(generation + 1);
+        resetJournal(generation + 1);
+        long next = generation;
+        long cutNanos = System.nanoTime() - start;
+        return () -> writeSnapshot(next, cut, start, cutNanos);
+    }
+
+    private void writeSnapshot(long next, MappedSnapshot.Cut cut, long start, long cutNanos) throws IOException {
+        Path target = mappedSnapshot(next);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        // The previous journal, and the new one's directory entry, go to disk
+        // before the snapshot can supersede it
+        synchronized (this) {
+            if (retired != null) {
+                closeRetired();
+            }
+        }
+        syncDirectory();
+        MappedSnapshot.write(temp, next, cut);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename must be durable before the journals it replaces are deleted
+        syncDirectory();
+
+        deleteSnapshotsBefore(next);
+        for (long journal : journalGenerations()) {
+            if (journal < next) {
+                Files.deleteIfExists(journalPath(journal));
+            }
+        }
+        System.out.println(String.format("Checkpointed %d items in %d ms, %.1f ms of it taking the cut",
+                cut.size, (System.nanoTime() - start) / 1_000_000, cutNanos / 1e6));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (flusher != null) {
+            flusher.interrupt();
+        }
+        sync();
+        synchronized (this) {
+            if (retired != null) {
+                closeRetired();
+            }
+        }
+        // Null when load failed before the journal was opened
+        if (channel != null) {
+            channel.close();
+        }
+        lock.release();
+        lockChannel.close();
+        LOCKED_DIRECTORIES.remove(lockedDirectory);
+    }
+
+    // Makes renames and new files in the directory durable. Some platforms,
+    // Windows among them, cannot open a directory; there the rename is as
+    // durable as the file system makes it.
+    private void syncDirectory() throws IOException {
+        FileChannel dir;
+        try {
+            dir = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (dir) {
+            dir.force(true);
+        }
+    }
+
+    private void runFlusher() {
+        while (!closed) {
+            try {
+                Thread.sleep(commitIntervalMillis);
+                sync();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Copies the records in every thread's sale buffer into the shared buffer
+    private synchronized void drainSales() {
+        saleBuffers.forEach(sales -> {
+            if (sales.buffer.position() == 0) {
+                return;
+            }
+            sales.buffer.flip();
+            ensureCapacity(sales.buffer.remaining());
+            journalSize += sales.buffer.remaining();
+            buffer.put(sales.buffer);
+            sales.buffer.clear();
+        });
+    }
+
+    private int begin(byte type, long time, String name, int fieldsSize) {
+        byte[] nameBytes = encode(name);
+        ensureCapacity(recordSize(nameBytes.length, fieldsSize));
+        return begin(buffer, type, time, nameBytes);
+    }
+
+    private void end(int start) {
+        journalSize += end(buffer, crc, start);
+    }
+
+    // Record layout: int length, payload (type, time, name, fields), int crc32 of payload
+    private static int recordSize(int nameSize, int fieldsSize) {
+        return 4 + 1 + 8 + 4 + nameSize + fieldsSize + 4;
+    }
+
+    private static int begin(ByteBuffer buffer, byte type, long time, byte[] name) {
+        int start = buffer.position();
+        buffer.putInt(0).put(type).putLong(time).putInt(name.length).put(name);
+        return start;
+    }
+
+    // Fills in the length and checksum and returns the size of the record
+    private static int end(ByteBuffer buffer, CRC32 crc, int start) {
+        int end = buffer.position();
+        buffer.putInt(start, end - start - 4);
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + 4).limit(end);
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt((int) crc.getValue());
+        return buffer.position() - start;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() >= needed) {
+            return;
+        }
+        try {
+            writeBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write sale journal", e);
+        }
+        if (buffer.capacity() < needed) {
+            buffer = ByteBuffer.allocateDirect(needed);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        dirty = true;
+    }
+
+    // Returns the journal's format version
+    private int readJournalHeader(FileChannel journal) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        journal.read(header, 0);
+        header.flip();
+        int magic = header.getInt();
+        int version = header.getInt();
+        if (magic != JOURNAL_MAGIC || version < DOUBLE_PRICES || version > VERSION) {
+            throw new IOException("Unrecognized journal file in " + directory);
+        }
+        return version;
+    }
+
+    // Starts the channel over as an empty journal of the generation
+    private void resetJournal(long newGeneration) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(newGeneration).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        channel.position(HEADER_SIZE);
+        generation = newGeneration;
+        journalSize = 0;
+        dirty = true;
+    }
+
+    private FileChannel openJournal(long journalGeneration) throws IOException {
+        return FileChannel.open(journalPath(journalGeneration),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path journalPath(long journalGeneration) {
+        return directory.resolve("stock-" + journalGeneration + ".journal");
+    }
+
+    // Generations of the journals on disk, oldest first
+    private List<Long> journalGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "stock-*.journal")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring("stock-".length(),
+                            name.length() - ".journal".length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    // Renames the single journal of earlier versions by the generation in its header
+    private void adoptJournal() throws IOException {
+        long journalGeneration = 0;
+        try (FileChannel legacy = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+            if (legacy.size() >= HEADER_SIZE) {
+                readJournalHeader(legacy);
+                ByteBuffer header = ByteBuffer.allocate(8);
+                legacy.read(header, 8);
+                journalGeneration = header.flip().getLong();
+            }
+        }
+        Files.move(journalFile, journalPath(journalGeneration), StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    // Forces the previous generation's journal to disk and closes it
+    private void closeRetired() throws IOException {
+        retired.force(false);
+        retired.close();
+        retired = null;
+    }
+
+    // Applies the journal's records to the items and leaves its position after
+    // the last whole record
+    private long replay(FileChannel journal, int version, Map<String, StockItem> items) throws IOException {
+        Input input = new Input(journal, HEADER_SIZE);
+        boolean doublePrices = version == DOUBLE_PRICES;
+        long validEnd = HEADER_SIZE;
+        long records = 0;
+        long skipped = 0;
+        while (input.available(4)) {
+            int length = input.peekInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || !input.available(4 + length + 4)) {
+                break;
+            }
+            input.skip(4);
+            if (!input.checksumMatches(length)) {
+                break;
+            }
+            byte type = input.get();
+            long time = input.getLong();
+            String name = input.getString();
+            StockItem item = items.get(name);
+            switch (type) {
+                case CREATE: {
+                    int quantity = input.getInt();
+                    long price = input.getPrice(doublePrices);
+                    int minimumStock = input.getInt();
+                    String category = input.getString();
+                    item = new StockItem(name, quantity, price, minimumStock, category);
+                    item.replayUpdate(price, minimumStock, category, time);
+                    items.put(name, item);
+                    break;
+                }
+                case SALE: {
+                    int amount = input.getInt();
+                    long price = input.getPrice(doublePrices);
+                    if (item != null) {
+                        item.replaySale(amount, price, time);
+                    } else {
+                        skipped++;
+                    }
+                    break;
+                }
+                case RESTOCK: {
+                    int amount = input.getInt();
+                    if (item != null) {
+                        item.replayRestock(amount);
+                    } else {
+                        skipped++;
+                    }
+                    break;
+                }
+                case UPDATE: {
+                    long price = input.getPrice(doublePrices);
+                    int minimumStock = input.getInt();
+                    String category = input.getString();
+                    if (item != null) {
+                        item.replayUpdate(price, minimumStock, category, time);
+                    } else {
+                        skipped++;
+                    }
+                    break;
+                }
+                case BASKET: {
+                    int lines = input.getInt();
+                    for (int i = 0; i < lines; i++) {
+                        StockItem lineItem = items.get(input.getString());
+                        int amount = input.getInt();
+                        long price = input.getPrice(doublePrices);
+                        long lineTime = input.getLong();
+                        if (lineItem != null) {
+                            lineItem.replaySale(amount, price, lineTime);
+                        } else {
+                            skipped++;
+                        }
+                    }
+                    break;
+                }
+                case REMOVE:
+                    if (items.remove(name) == null) {
+                        skipped++;
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown journal record type " + type);
+            }
+            input.skip(4);
+            validEnd = input.position();
+            records++;
+        }
+
+        if (skipped > 0) {
+            System.out.println("Skipped " + skipped + " journal records for unknown items");
+        }
+        journal.position(validEnd);
+        return records;
+    }
+
+    // Cuts the current journal back to the end of its last whole record
+    private void truncateTornTail() throws IOException {
+        long validEnd = channel.position();
+        if (validEnd < channel.size()) {
+            System.out.println("Truncating torn journal tail at offset " + validEnd);
+            channel.truncate(validEnd);
+            channel.force(false);
+        }
+        journalSize = validEnd - HEADER_SIZE;
+    }
+
+    private Path mappedSnapshot(long generation) {
+        return directory.resolve("stock-" + generation + ".snapshot");
+    }
+
+    // Generation of the newest mapped snapshot, or 0 when there is none
+    private long latestSnapshot() throws IOException {
+        long latest = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "stock-*.snapshot")) {
+            for (Path file : files) {
+                latest = Math.max(latest, snapshotGeneration(file));
+            }
+        }
+        return latest;
+    }
+
+    // Superseded snapshots can still be mapped by histories loaded from them,
+    // which on Windows stops the delete; those go at a later checkpoint
+    private void deleteSnapshotsBefore(long generation) throws IOException {
+        List<Path> stale = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "stock-*.snapshot")) {
+            for (Path file : files) {
+                if (snapshotGeneration(file) < generation) {
+                    stale.add(file);
+                }
+            }
+        }
+        for (Path file : stale) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.out.println("Could not delete old snapshot " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static long snapshotGeneration(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring("stock-".length(), name.length() - ".snapshot".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Buffered sequential reader over a file channel, refilled in large blocks
+    private static class Input {
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private long filePosition;
+        private boolean eof;
+
+        Input(FileChannel channel, long start) {
+            this.channel = channel;
+            this.filePosition = start;
+            buffer.limit(0);
+        }
+
+        long position() {
+            return filePosition - buffer.remaining();
+        }
+
+        boolean available(int size) throws IOException {
+            if (size > buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(size);
+                larger.put(buffer).flip();
+                buffer = larger;
+            }
+            while (buffer.remaining() < size && !eof) {
+                buffer.compact();
+                int read = channel.read(buffer, filePosition);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    filePosition += read;
+                }
+                buffer.flip();
+            }
+            return buffer.remaining() >= size;
+        }
+
+        void require(int size) throws IOException {
+            if (!available(size)) {
+                throw new EOFException("Unexpected end of file");
+            }
+        }
+
+        boolean checksumMatches(int length) {
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(payload.position() + length);
+            crc.reset();
+            crc.update(payload);
+            return (int) crc.getValue() == buffer.getInt(buffer.position() + length);
+        }
+
+        int peekInt() {
+            return buffer.getInt(buffer.position());
+        }
+
+        void skip(int size) {
+            buffer.position(buffer.position() + size);
+        }
+
+        byte get() {
+            return buffer.get();
+        }
+
+        int getInt() {
+            return buffer.getInt();
+        }
+
+        long getLong() {
+            return buffer.getLong();
+        }
+
+        // Cents, from the double dollars of version 2 journals or a long
+        long getPrice(boolean doubleDollars) {
+            return doubleDollars ? Money.toCents(buffer.getDouble()) : buffer.getLong();
+        }
+
+        String getString() throws IOException {
+            require(4);
+            int length = buffer.getInt();
+            require(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
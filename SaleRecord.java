@@ -0,0 +1,45 @@
+import java.io.Serializable;
+
+class SaleRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String itemName;
+    private final int quantity;
+    private final long priceCents;
+    private final long saleTime;
+
+    public SaleRecord(String itemName, int quantity, long priceCents, long saleTime) {
+        this.itemName = itemName;
+        this.quantity = quantity;
+        this.priceCents = priceCents;
+        this.saleTime = saleTime;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public double getPrice() {
+        return Money.toDouble(priceCents);
+    }
+
+    public long getPriceCents() {
+        return priceCents;
+    }
+
+    // Epoch millis
+    public long getSaleTime() {
+        return saleTime;
+    }
+
+    public long getTotalCents() {
+        return Money.times(priceCents, quantity);
+    }
+
+    public double getTotalAmount() {
+        return Money.toDouble(getTotalCents());
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Records the sale stream of an inventory to a file so it can be replayed by
+// LoadGenerator. Each record holds the sale time, item name, quantity and price
+// in cents. Set -Dstock.recordSales=file to record whatever front end is running.
+class SaleRecorder implements StockItemListener, Closeable {
+    private static final int MAGIC = 0x53524543; // "SREC"
+    private static final int VERSION = 1;
+
+    // One recorded sale, as read back by Reader
+    static class Sale {
+        long time;
+        String item;
+        int quantity;
+        long priceCents;
+    }
+
+    private final DataOutputStream out;
+    private long count;
+
+    public SaleRecorder(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    public synchronized void record(long time, String item, int quantity, long priceCents) {
+        try {
+            out.writeLong(time);
+            out.writeUTF(item);
+            out.writeInt(quantity);
+            out.writeLong(priceCents);
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not record sale", e);
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        record(time, item.getName(), amount, priceCents);
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    // Reads a recording back one sale at a time
+    static class Reader implements Closeable {
+        private final DataInputStream in;
+
+        Reader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                in.close();
+                throw new IOException("Not a sale recording: " + file);
+            }
+        }
+
+        // Fills sale with the next record; returns false at the end of the recording
+        boolean next(Sale sale) throws IOException {
+            try {
+                sale.time = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            sale.item = in.readUTF();
+            sale.quantity = in.readInt();
+            sale.priceCents = in.readLong();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
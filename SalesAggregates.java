@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Incrementally maintained sales totals per category and store-wide. Per-item
+// totals live on StockItem itself; this listener rolls them up so dashboard and
+// export totals never have to walk the sales history. Sales add to striped
+// counters without taking the lock; adding, removing and moving items, and
+// reading totals, are synchronized.
+class SalesAggregates implements StockItemListener {
+
+    static class Totals {
+        private int items;
+        private long saleCount;
+        private long unitsSold;
+        private long revenueCents;
+
+        public int getItems() {
+            return items;
+        }
+
+        public long getSaleCount() {
+            return saleCount;
+        }
+
+        public long getUnitsSold() {
+            return unitsSold;
+        }
+
+        public long getRevenueCents() {
+            return revenueCents;
+        }
+
+        public double getRevenue() {
+            return revenueCents / 100.0;
+        }
+
+    }
+
+    // Running totals; items only changes under the lock
+    private static class Running {
+        private int items;
+        private final LongAdder saleCount = new LongAdder();
+        private final LongAdder unitsSold = new LongAdder();
+        private final LongAdder revenueCents = new LongAdder();
+
+        private void add(StockItem item, int sign) {
+            items += sign;
+            saleCount.add(sign * (long) item.getSaleCount());
+            unitsSold.add(sign * (long) item.getTotalSold());
+            revenueCents.add(sign * item.getTotalSalesCents());
+        }
+
+        private void addSale(long units, long revenue) {
+            saleCount.increment();
+            unitsSold.add(units);
+            revenueCents.add(revenue);
+        }
+
+        private Totals copy() {
+            Totals copy = new Totals();
+            copy.items = items;
+            copy.saleCount = saleCount.sum();
+            copy.unitsSold = unitsSold.sum();
+            copy.revenueCents = revenueCents.sum();
+            return copy;
+        }
+    }
+
+    private final Map<String, Running> byCategory = new ConcurrentHashMap<>();
+    private final Running store = new Running();
+
+    // Recomputes the roll-up from per-item totals, O(items)
+    public synchronized void rebuild(Collection<StockItem> items) {
+        byCategory.clear();
+        store.items = 0;
+        store.saleCount.reset();
+        store.unitsSold.reset();
+        store.revenueCents.reset();
+        for (StockItem item : items) {
+            addItem(item);
+        }
+    }
+
+    public synchronized Totals getStoreTotals() {
+        return store.copy();
+    }
+
+    public synchronized Totals getCategoryTotals(String category) {
+        Running totals = byCategory.get(category);
+        return totals == null ? new Totals() : totals.copy();
+    }
+
+    @Override
+    public synchronized void itemAdded(StockItem item) {
+        addItem(item);
+    }
+
+    @Override
+    public synchronized void itemRemoved(StockItem item) {
+        store.add(item, -1);
+        category(item.getCategory()).add(item, -1);
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        long revenue = amount * priceCents;
+        store.addSale(amount, revenue);
+        category(item.getCategory()).addSale(amount, revenue);
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public synchronized void itemUpdated(StockItem item, String previousCategory, long time) {
+        if (!item.getCategory().equals(previousCategory)) {
+            category(previousCategory).add(item, -1);
+            category(item.getCategory()).add(item, 1);
+        }
+    }
+
+    // Recomputes every total from the raw sales history and reports any drift
+    // from the running aggregates. Intended for verification, it costs O(sales).
+    public synchronized List<String> verify(Collection<StockItem> items) {
+        List<String> problems = new ArrayList<>();
+        Map<String, Totals> expected = new HashMap<>();
+        Totals expectedStore = new Totals();
+        for (StockItem item : items) {
+            SalesHistory history = item.getSales();
+            long units = 0;
+            long revenue = 0;
+            for (int i = 0; i < history.size(); i++) {
+                units += history.quantityAt(i);
+                revenue += history.quantityAt(i) * history.priceCentsAt(i);
+            }
+            if (units != item.getTotalSold() || revenue != item.getTotalSalesCents()
+                    || history.size() != item.getSaleCount()) {
+                problems.add(String.format("%s: running %d units/%d cents/%d sales, history %d/%d/%d",
+                        item.getName(), item.getTotalSold(), item.getTotalSalesCents(), item.getSaleCount(),
+                        units, revenue, history.size()));
+            }
+            for (Totals totals : new Totals[] { expectedStore,
+                    expected.computeIfAbsent(item.getCategory(), c -> new Totals()) }) {
+                totals.items++;
+                totals.saleCount += history.size();
+                totals.unitsSold += units;
+                totals.revenueCents += revenue;
+            }
+        }
+
+        compare("Store", store.copy(), expectedStore, problems);
+        for (Map.Entry<String, Totals> entry : expected.entrySet()) {
+            compare("Category " + entry.getKey(), getCategoryTotals(entry.getKey()), entry.getValue(), problems);
+        }
+        return problems;
+    }
+
+    private static void compare(String label, Totals actual, Totals expected, List<String> problems) {
+        if (actual.items != expected.items || actual.saleCount != expected.saleCount
+                || actual.unitsSold != expected.unitsSold || actual.revenueCents != expected.revenueCents) {
+            problems.add(String.format("%s: running %d items/%d units/%d cents, history %d/%d/%d",
+                    label, actual.items, actual.unitsSold, actual.revenueCents,
+                    expected.items, expected.unitsSold, expected.revenueCents));
+        }
+    }
+
+    private void addItem(StockItem item) {
+        store.add(item, 1);
+        category(item.getCategory()).add(item, 1);
+    }
+
+    private Running category(String category) {
+        Running totals = byCategory.get(category);
+        return totals != null ? totals : byCategory.computeIfAbsent(category, c -> new Running());
+    }
+}
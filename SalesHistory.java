@@ -0,0 +1,314 @@
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+// Columnar sales store for a single item. Sale time (epoch millis), quantity and
+// price in cents are kept in parallel primitive arrays, 21 bytes per sale with the
+// published flag. Storage grows in chunks that are never copied: chunk sizes
+// double from 8 up to 8192 entries and stay fixed after that, so appends only
+// allocate when a chunk fills.
+//
+// Appends may come from several threads without locking. A writer claims a slot
+// and its time stamp together with one CAS on `tail`, a long holding the stamp
+// in its high 48 bits and the claimed count's low 16 bits, so slot order and
+// time order agree. It fills the slot, sets the slot's published flag, and then
+// moves `size` past every published slot. A writer whose slot is not next leaves
+// `size` to the writer of the gap, which sees the later flags when it advances.
+// Readers only look below `size`, so they always see complete sales in time
+// order. Claims wait only when they would run 65535 slots past a writer that
+// has not published yet.
+//
+// A history loaded from a mapped snapshot starts with a read-only base of
+// sales still in the mapping; indexes below the base size read from there and
+// new sales go into chunks after it.
+class SalesHistory implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final VarHandle TAIL;
+    private static final VarHandle SIZE;
+    private static final VarHandle CHUNKS;
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TAIL = lookup.findVarHandle(SalesHistory.class, "tail", long.class);
+            SIZE = lookup.findVarHandle(SalesHistory.class, "size", int.class);
+            CHUNKS = lookup.findVarHandle(SalesHistory.class, "chunks", Chunk[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    private static final int FIRST_CHUNK_SHIFT = 3;
+    private static final int GROWING_CHUNKS = 10;
+    private static final int MAX_CHUNK_SHIFT = FIRST_CHUNK_SHIFT + GROWING_CHUNKS;
+    private static final int MAX_CHUNK_SIZE = 1 << MAX_CHUNK_SHIFT;
+    private static final int GROWING_CAPACITY = (1 << FIRST_CHUNK_SHIFT) * ((1 << GROWING_CHUNKS) - 1);
+    // Claims may run at most COUNT_MASK slots ahead of size, so the low bits of
+    // the count locate a slot; stamps are epoch millis, which fit 48 bits for
+    // thousands of years
+    private static final int COUNT_BITS = 16;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long MIN_TIME = -(1L << (63 - COUNT_BITS));
+    private static final long MAX_TIME = (1L << (63 - COUNT_BITS)) - 1;
+
+    private static final class Chunk implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final long[] times;
+        final int[] quantities;
+        final long[] prices;
+        final byte[] published;
+
+        Chunk(int size) {
+            times = new long[size];
+            quantities = new int[size];
+            prices = new long[size];
+            published = new byte[size];
+        }
+    }
+
+    private final String itemName;
+    private final MappedSnapshot.MappedSales base;
+    private final long baseStart;
+    private final int baseSize;
+    // Copy-on-write directory: a new chunk is installed by swapping in a copy
+    private volatile Chunk[] chunks = new Chunk[4];
+    // Time stamp of the last claimed slot and the low bits of the claimed count
+    private volatile long tail;
+    private volatile int size;
+
+    public SalesHistory(String itemName) {
+        this(itemName, null, 0, 0);
+    }
+
+    // History whose first baseSize sales are at baseStart in the mapped columns
+    SalesHistory(String itemName, MappedSnapshot.MappedSales base, long baseStart, int baseSize) {
+        this.itemName = itemName;
+        this.base = base;
+        this.baseStart = baseStart;
+        this.baseSize = baseSize;
+        this.tail = pack(baseSize > 0 ? base.timeAt(baseStart + baseSize - 1) : MIN_TIME, baseSize);
+        this.size = baseSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Appends a sale stamped with the clock when its slot is claimed and returns
+    // the stamp. Only a clock that steps back is held at the previous stamp.
+    public long appendNow(int quantity, long priceCents) {
+        return store(claim(0, true), quantity, priceCents);
+    }
+
+    // Appends a sale with a known time, as replay and import do, and returns the
+    // stored time: one earlier than the last stored sale is raised to it, so
+    // the history never runs backwards
+    public long append(long time, int quantity, long priceCents) {
+        if (time < MIN_TIME || time > MAX_TIME) {
+            throw new InvalidInputException("Sale time out of range: " + time);
+        }
+        return store(claim(time, false), quantity, priceCents);
+    }
+
+    private long claim(long time, boolean now) {
+        while (true) {
+            long last = tail;
+            if (((last - size) & COUNT_MASK) == COUNT_MASK) {
+                // The claim would outrun size by the whole count; let the writer
+                // of the gap publish first
+                Thread.yield();
+                continue;
+            }
+            long stamp = Math.max(now ? StockClock.millis() : time, last >> COUNT_BITS);
+            long next = pack(stamp, last + 1);
+            if (TAIL.compareAndSet(this, last, next)) {
+                return next;
+            }
+        }
+    }
+
+    // Fills the claimed slot and returns its stamp
+    private long store(long claim, int quantity, long priceCents) {
+        // The slot is not published yet, so size is at or below it and the low
+        // bits of the claimed count give the distance
+        int current = size;
+        int slot = current + (int) ((claim - 1 - current) & COUNT_MASK);
+        long time = claim >> COUNT_BITS;
+        int index = slot - baseSize;
+        int chunkIndex = chunkOf(index);
+        int offset = offsetOf(index, chunkIndex);
+        Chunk chunk = chunk(chunkIndex);
+        chunk.times[offset] = time;
+        chunk.quantities[offset] = quantity;
+        chunk.prices[offset] = priceCents;
+        PUBLISHED.setVolatile(chunk.published, offset, (byte) 1);
+
+        current = size;
+        while (isPublished(current)) {
+            if (SIZE.compareAndSet(this, current, current + 1)) {
+                current++;
+            } else {
+                current = size;
+            }
+        }
+        return time;
+    }
+
+    private static long pack(long time, long count) {
+        return (time << COUNT_BITS) | (count & COUNT_MASK);
+    }
+
+    // False for a slot whose writer has not installed its chunk yet
+    private boolean isPublished(int index) {
+        index -= baseSize;
+        int chunkIndex = chunkOf(index);
+        Chunk[] directory = chunks;
+        if (chunkIndex >= directory.length || directory[chunkIndex] == null) {
+            return false;
+        }
+        return (byte) PUBLISHED.getVolatile(directory[chunkIndex].published, offsetOf(index, chunkIndex)) != 0;
+    }
+
+    public long timeAt(int index) {
+        if (index < baseSize) {
+            return base.timeAt(baseStart + index);
+        }
+        index -= baseSize;
+        int chunk = chunkOf(index);
+        return chunks[chunk].times[offsetOf(index, chunk)];
+    }
+
+    public int quantityAt(int index) {
+        if (index < baseSize) {
+            return base.quantityAt(baseStart + index);
+        }
+        index -= baseSize;
+        int chunk = chunkOf(index);
+        return chunks[chunk].quantities[offsetOf(index, chunk)];
+    }
+
+    public long priceCentsAt(int index) {
+        if (index < baseSize) {
+            return base.priceCentsAt(baseStart + index);
+        }
+        index -= baseSize;
+        int chunk = chunkOf(index);
+        return chunks[chunk].prices[offsetOf(index, chunk)];
+    }
+
+    // Copies up to count sales from index on into the arrays and returns how many
+    // were copied, stopping early at the end of the mapped base or of a chunk.
+    // The caller keeps index + count within size().
+    public int read(int index, int count, long[] times, int[] quantities, long[] prices) {
+        if (index < baseSize) {
+            count = Math.min(count, baseSize - index);
+            long at = baseStart + index;
+            for (int i = 0; i < count; i++) {
+                times[i] = base.timeAt(at + i);
+                quantities[i] = base.quantityAt(at + i);
+                prices[i] = base.priceCentsAt(at + i);
+            }
+            return count;
+        }
+        index -= baseSize;
+        int chunkIndex = chunkOf(index);
+        int offset = offsetOf(index, chunkIndex);
+        Chunk chunk = chunks[chunkIndex];
+        count = Math.min(count, chunk.times.length - offset);
+        System.arraycopy(chunk.times, offset, times, 0, count);
+        System.arraycopy(chunk.quantities, offset, quantities, 0, count);
+        System.arraycopy(chunk.prices, offset, prices, 0, count);
+        return count;
+    }
+
+    // Index of the first sale at or after the given time; history is in time order
+    public int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timeAt(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Returns a new history holding this history and the given time-ordered sales, merged by time
+    public SalesHistory mergedWith(long[] otherTimes, int[] otherQuantities, long[] otherPrices, int count) {
+        SalesHistory merged = new SalesHistory(itemName);
+        int i = 0;
+        int j = 0;
+        while (i < size || j < count) {
+            if (j == count || (i < size && timeAt(i) <= otherTimes[j])) {
+                merged.append(timeAt(i), quantityAt(i), priceCentsAt(i));
+                i++;
+            } else {
+                merged.append(otherTimes[j], otherQuantities[j], otherPrices[j]);
+                j++;
+            }
+        }
+        return merged;
+    }
+
+    public SaleRecord get(int index) {
+        return new SaleRecord(itemName, quantityAt(index), priceCentsAt(index), timeAt(index));
+    }
+
+    // Read-only SaleRecord view; records are materialized on access
+    public List<SaleRecord> asList() {
+        return new AbstractList<SaleRecord>() {
+            @Override
+            public SaleRecord get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                return SalesHistory.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // Returns the chunk, allocating it if this is the first writer to need it
+    private Chunk chunk(int index) {
+        Chunk created = null;
+        while (true) {
+            Chunk[] directory = chunks;
+            if (index < directory.length && directory[index] != null) {
+                return directory[index];
+            }
+            if (created == null) {
+                created = new Chunk(index < GROWING_CHUNKS ? 1 << (FIRST_CHUNK_SHIFT + index) : MAX_CHUNK_SIZE);
+            }
+            Chunk[] updated = Arrays.copyOf(directory,
+                    index < directory.length ? directory.length : Math.max(index + 1, directory.length * 2));
+            updated[index] = created;
+            if (CHUNKS.compareAndSet(this, directory, updated)) {
+                return created;
+            }
+        }
+    }
+
+    private static int chunkOf(int index) {
+        if (index < GROWING_CAPACITY) {
+            return 31 - Integer.numberOfLeadingZeros((index >>> FIRST_CHUNK_SHIFT) + 1);
+        }
+        return GROWING_CHUNKS + ((index - GROWING_CAPACITY) >>> MAX_CHUNK_SHIFT);
+    }
+
+    private static int offsetOf(int index, int chunk) {
+        if (chunk < GROWING_CHUNKS) {
+            return index - (((1 << chunk) - 1) << FIRST_CHUNK_SHIFT);
+        }
+        return (index - GROWING_CAPACITY) & (MAX_CHUNK_SIZE - 1);
+    }
+}
@@ -0,0 +1,284 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Pre-aggregated sales per item in local day and hour buckets, maintained as
+// sales arrive. A date-range query sums whole days, then whole hours at the
+// edges, and only binary-searches raw sales history for the remaining minutes.
+// Buckets are concurrent maps and a sale adds to its item's cells atomically,
+// so sales of different items never contend and none take the lock.
+class SalesRollupIndex implements StockItemListener {
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 24 * HOUR;
+    private static final VarHandle UNITS;
+    private static final VarHandle REVENUE_CENTS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            UNITS = lookup.findVarHandle(ItemSales.class, "units", long.class);
+            REVENUE_CENTS = lookup.findVarHandle(ItemSales.class, "revenueCents", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static class ItemSales {
+        private final StockItem item;
+        private volatile long units;
+        private volatile long revenueCents;
+
+        ItemSales(StockItem item) {
+            this.item = item;
+        }
+
+        public StockItem getItem() {
+            return item;
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public long getRevenueCents() {
+            return revenueCents;
+        }
+
+        public double getRevenue() {
+            return revenueCents / 100.0;
+        }
+    }
+
+    static class Report {
+        private final Map<StockItem, ItemSales> byItem = new HashMap<>();
+        private long units;
+        private long revenueCents;
+
+        public Collection<ItemSales> getItems() {
+            return byItem.values();
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public long getRevenueCents() {
+            return revenueCents;
+        }
+
+        public double getRevenue() {
+            return revenueCents / 100.0;
+        }
+
+        // Selects with a heap of count entries rather than sorting every item
+        public List<ItemSales> top(int count) {
+            Comparator<ItemSales> byUnits = Comparator.comparingLong(ItemSales::getUnits);
+            PriorityQueue<ItemSales> best = new PriorityQueue<>(byUnits);
+            for (ItemSales sales : byItem.values()) {
+                if (best.size() < count) {
+                    best.add(sales);
+                } else if (count > 0 && sales.units > best.peek().units) {
+                    best.poll();
+                    best.add(sales);
+                }
+            }
+            List<ItemSales> top = new ArrayList<>(best);
+            top.sort(byUnits.reversed());
+            return top;
+        }
+
+        void add(StockItem item, long units, long revenueCents) {
+            ItemSales sales = byItem.get(item);
+            if (sales == null) {
+                sales = new ItemSales(item);
+                byItem.put(item, sales);
+            }
+            sales.units += units;
+            sales.revenueCents += revenueCents;
+            this.units += units;
+            this.revenueCents += revenueCents;
+        }
+    }
+
+    private final TimeZone timeZone;
+    private final long hourRetention;
+    private final NavigableMap<Long, Map<StockItem, ItemSales>> days = new ConcurrentSkipListMap<>();
+    private final NavigableMap<Long, Map<StockItem, ItemSales>> hours = new ConcurrentSkipListMap<>();
+    private final List<StockItem> items = new ArrayList<>();
+
+    // Hour buckets older than hourRetentionDays are dropped; partial hours in
+    // that range fall back to binary search over every item's history.
+    public SalesRollupIndex(TimeZone timeZone, int hourRetentionDays) {
+        this.timeZone = timeZone;
+        this.hourRetention = hourRetentionDays * DAY;
+    }
+
+    public synchronized void rebuild(Collection<StockItem> stockItems) {
+        days.clear();
+        hours.clear();
+        items.clear();
+        for (StockItem item : stockItems) {
+            items.add(item);
+            SalesHistory history = item.getSales();
+            for (int i = 0; i < history.size(); i++) {
+                add(item, history.timeAt(i), history.quantityAt(i),
+                        history.quantityAt(i) * history.priceCentsAt(i));
+            }
+        }
+        pruneHours();
+    }
+
+    // Totals for sales in [fromMillis, toMillis)
+    public synchronized Report query(long fromMillis, long toMillis) {
+        Report report = new Report();
+        long from = toLocal(fromMillis);
+        long to = toLocal(toMillis);
+        if (from >= to) {
+            return report;
+        }
+        long firstDay = Math.floorDiv(from + DAY - 1, DAY);
+        long lastDay = Math.floorDiv(to, DAY);
+        if (firstDay < lastDay) {
+            sumBuckets(days, firstDay, lastDay, report);
+            sumHours(from, firstDay * DAY, report);
+            sumHours(lastDay * DAY, to, report);
+        } else {
+            sumHours(from, to, report);
+        }
+        return report;
+    }
+
+    @Override
+    public synchronized void itemAdded(StockItem item) {
+        items.add(item);
+    }
+
+    // Past sales of a removed item stay in the day and hour buckets
+    @Override
+    public synchronized void itemRemoved(StockItem item) {
+        items.remove(item);
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        add(item, time, amount, amount * priceCents);
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+    }
+
+    private void add(StockItem item, long time, long units, long revenueCents) {
+        long local = toLocal(time);
+        Long day = Math.floorDiv(local, DAY);
+        Long hour = Math.floorDiv(local, HOUR);
+        Map<StockItem, ItemSales> dayBucket = days.get(day);
+        if (dayBucket == null) {
+            dayBucket = days.computeIfAbsent(day, key -> new ConcurrentHashMap<>());
+            pruneHours();
+        }
+        Map<StockItem, ItemSales> hourBucket = hours.get(hour);
+        if (hourBucket == null) {
+            hourBucket = hours.computeIfAbsent(hour, key -> new ConcurrentHashMap<>());
+        }
+        addTo(dayBucket, item, units, revenueCents);
+        addTo(hourBucket, item, units, revenueCents);
+    }
+
+    private static void addTo(Map<StockItem, ItemSales> bucket, StockItem item, long units, long revenueCents) {
+        ItemSales sales = bucket.get(item);
+        if (sales == null) {
+            sales = bucket.computeIfAbsent(item, ItemSales::new);
+        }
+        UNITS.getAndAdd(sales, units);
+        REVENUE_CENTS.getAndAdd(sales, revenueCents);
+    }
+
+    private void pruneHours() {
+        if (days.isEmpty()) {
+            return;
+        }
+        long oldestHour = Math.floorDiv(days.lastKey() * DAY - hourRetention, HOUR);
+        hours.headMap(oldestHour).clear();
+    }
+
+    private static void sumBuckets(NavigableMap<Long, Map<StockItem, ItemSales>> buckets,
+            long first, long last, Report report) {
+        for (Map<StockItem, ItemSales> bucket : buckets.subMap(first, last).values()) {
+            for (ItemSales sales : bucket.values()) {
+                report.add(sales.item, sales.units, sales.revenueCents);
+            }
+        }
+    }
+
+    // Sums local range [from, to) that lies within a single day
+    private void sumHours(long from, long to, Report report) {
+        if (from >= to) {
+            return;
+        }
+        long firstHour = Math.floorDiv(from + HOUR - 1, HOUR);
+        long lastHour = Math.floorDiv(to, HOUR);
+        Map.Entry<Long, Map<StockItem, ItemSales>> oldest = hours.firstEntry();
+        if (firstHour < lastHour && (oldest == null || firstHour >= oldest.getKey())) {
+            sumBuckets(hours, firstHour, lastHour, report);
+            sumRaw(from, firstHour * HOUR, report);
+            sumRaw(lastHour * HOUR, to, report);
+        } else {
+            sumRaw(from, to, report);
+        }
+    }
+
+    // Scans raw history for local range [from, to), restricted to the items
+    // present in the hour bucket when that hour is still retained
+    private void sumRaw(long from, long to, Report report) {
+        if (from >= to) {
+            return;
+        }
+        long hour = Math.floorDiv(from, HOUR);
+        Collection<StockItem> candidates = items;
+        Map.Entry<Long, Map<StockItem, ItemSales>> oldest = hours.firstEntry();
+        if (hour == Math.floorDiv(to - 1, HOUR) && oldest != null && hour >= oldest.getKey()) {
+            Map<StockItem, ItemSales> bucket = hours.get(hour);
+            if (bucket == null) {
+                return;
+            }
+            candidates = bucket.keySet();
+        }
+        long fromUtc = toUtc(from);
+        long toUtc = toUtc(to);
+        for (StockItem item : candidates) {
+            SalesHistory history = item.getSales();
+            long units = 0;
+            long revenue = 0;
+            for (int i = history.lowerBound(fromUtc); i < history.size() && history.timeAt(i) < toUtc; i++) {
+                units += history.quantityAt(i);
+                revenue += history.quantityAt(i) * history.priceCentsAt(i);
+            }
+            if (units > 0) {
+                report.add(item, units, revenue);
+            }
+        }
+    }
+
+    private long toLocal(long utc) {
+        return utc + timeZone.getOffset(utc);
+    }
+
+    private long toUtc(long local) {
+        return local - timeZone.getOffset(local - timeZone.getOffset(local));
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+// Case-insensitive substring search over item names. Every name is split into
+// overlapping three-character grams, and each gram keeps a sorted posting list
+// of document ids, which are the items' registry ids. A query intersects the
+// postings of its own grams, starting with the rarest, and confirms the few
+// remaining candidates with contains().
+// Queries shorter than three characters scan the lowercased names instead.
+class SearchIndex implements StockItemListener {
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        // Appends, or inserts in place for an id indexed out of order; ignores repeats
+        void add(int id) {
+            int position = size;
+            if (size > 0 && ids[size - 1] >= id) {
+                position = Arrays.binarySearch(ids, 0, size, id);
+                if (position >= 0) {
+                    return;
+                }
+                position = -position - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+    }
+
+    // Registry ids follow insertion order, so postings nearly always grow by
+    // appending; removed documents leave a null slot in postings and names
+    private StockItem[] items = new StockItem[1024];
+    private String[] names = new String[1024];
+    // One past the highest id indexed
+    private int limit;
+    private int documents;
+    // Open-addressed gram table, avoiding a boxed key per lookup while indexing
+    private long[] gramKeys = new long[1 << 12];
+    private Postings[] gramPostings = new Postings[1 << 12];
+    private int gramCount;
+
+    public synchronized void rebuild(Collection<StockItem> stockItems) {
+        items = new StockItem[Math.max(1024, stockItems.size())];
+        names = new String[items.length];
+        limit = 0;
+        documents = 0;
+        gramKeys = new long[1 << 12];
+        gramPostings = new Postings[1 << 12];
+        gramCount = 0;
+        for (StockItem item : stockItems) {
+            add(item);
+        }
+    }
+
+    public synchronized void add(StockItem item) {
+        int id = item.getId();
+        if (item.getName() == null || id < 0 || (id < limit && items[id] != null)) {
+            return;
+        }
+        if (id >= items.length) {
+            int length = Math.max(id + 1, items.length * 2);
+            items = Arrays.copyOf(items, length);
+            names = Arrays.copyOf(names, length);
+        }
+        String name = item.getName().toLowerCase(Locale.ROOT);
+        items[id] = item;
+        names[id] = name;
+        limit = Math.max(limit, id + 1);
+        documents++;
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            long gram = gram(name, i);
+            int slot = slot(gram);
+            Postings postings = gramPostings[slot];
+            if (postings == null) {
+                postings = new Postings();
+                gramKeys[slot] = gram;
+                gramPostings[slot] = postings;
+                if (++gramCount * 2 > gramKeys.length) {
+                    growGrams();
+                }
+            }
+            postings.add(id);
+        }
+    }
+
+    public synchronized void remove(StockItem item) {
+        int id = item.getId();
+        if (id >= 0 && id < limit && items[id] == item) {
+            items[id] = null;
+            names[id] = null;
+            documents--;
+        }
+    }
+
+    public synchronized int size() {
+        return documents;
+    }
+
+    // Items whose name contains the query, ignoring case, in insertion order
+    public synchronized List<StockItem> search(String query) {
+        BitSet matches = matching(query);
+        List<StockItem> result = new ArrayList<>(matches.cardinality());
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            result.add(items[id]);
+        }
+        return result;
+    }
+
+    // Document ids of the items whose name contains the query, ignoring case
+    public synchronized BitSet matching(String query) {
+        String term = query.toLowerCase(Locale.ROOT).trim();
+        BitSet result = new BitSet(limit);
+        if (term.length() < 3) {
+            for (int id = 0; id < limit; id++) {
+                if (names[id] != null && names[id].contains(term)) {
+                    result.set(id);
+                }
+            }
+            return result;
+        }
+
+        int[][] lists = new int[term.length() - 2][];
+        int[] sizes = new int[lists.length];
+        Integer[] order = new Integer[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            Postings postings = gramPostings[slot(gram(term, i))];
+            if (postings == null) {
+                return result;
+            }
+            lists[i] = postings.ids;
+            sizes[i] = postings.size;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(sizes[a], sizes[b]));
+
+        int[] candidates = Arrays.copyOf(lists[order[0]], sizes[order[0]]);
+        int count = candidates.length;
+        for (int k = 1; k < order.length && count > 0; k++) {
+            count = intersect(candidates, count, lists[order[k]], sizes[order[k]]);
+        }
+        for (int i = 0; i < count; i++) {
+            int id = candidates[i];
+            if (names[id] != null && names[id].contains(term)) {
+                result.set(id);
+            }
+        }
+        return result;
+    }
+
+    // Whether the item is indexed under its current registry id
+    public synchronized boolean contains(StockItem item) {
+        int id = item.getId();
+        return id >= 0 && id < limit && items[id] == item;
+    }
+
+    // Keeps the candidates that also appear in the sorted list; returns the new count
+    private static int intersect(int[] candidates, int count, int[] list, int size) {
+        int kept = 0;
+        if (size < count * 16L) {
+            // Similar sizes: a linear merge beats repeated binary searches
+            int j = 0;
+            for (int i = 0; i < count && j < size; i++) {
+                while (j < size && list[j] < candidates[i]) {
+                    j++;
+                }
+                if (j < size && list[j] == candidates[i]) {
+                    candidates[kept++] = candidates[i];
+                }
+            }
+            return kept;
+        }
+        int from = 0;
+        for (int i = 0; i < count && from < size; i++) {
+            int position = Arrays.binarySearch(list, from, size, candidates[i]);
+            if (position >= 0) {
+                candidates[kept++] = candidates[i];
+                from = position + 1;
+            } else {
+                from = -position - 1;
+            }
+        }
+        return kept;
+    }
+
+    private int slot(long gram) {
+        int mask = gramKeys.length - 1;
+        int slot = Long.hashCode(gram * 0x9E3779B97F4A7C15L) & mask;
+        while (gramPostings[slot] != null && gramKeys[slot] != gram) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void growGrams() {
+        long[] oldKeys = gramKeys;
+        Postings[] oldPostings = gramPostings;
+        gramKeys = new long[oldKeys.length * 2];
+        gramPostings = new Postings[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPostings[i] != null) {
+                int slot = slot(oldKeys[i]);
+                gramKeys[slot] = oldKeys[i];
+                gramPostings[slot] = oldPostings[i];
+            }
+        }
+    }
+
+    private static long gram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+        add(item);
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+        remove(item);
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+    }
+}
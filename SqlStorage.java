@@ -0,0 +1,484 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+// Keeps items and sales in an embedded file database through JDBC: H2 by
+// default, or SQLite or anything else whose driver is on the class path, chosen
+// with -Dstock.jdbcUrl. Events are only queued in memory. A background writer
+// flushes them every interval in one transaction, inserting sales with batched
+// prepared statements and writing each changed item row once however often it
+// changed, so up to one interval of changes can be lost in a crash. Each thread
+// queues its sales on its own, so tills do not wait on each other. Sales are
+// indexed on (item, sale_time) for item histories and on sale_time for date
+// range reports, which the database sums itself.
+class SqlStorage implements StockStorage {
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS items (name VARCHAR(1000) PRIMARY KEY, category VARCHAR(1000) NOT NULL,"
+                    + " quantity INT NOT NULL, sold INT NOT NULL, price_cents BIGINT NOT NULL,"
+                    + " minimum_stock INT NOT NULL, last_updated BIGINT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS sales (item VARCHAR(1000) NOT NULL, sale_time BIGINT NOT NULL,"
+                    + " quantity INT NOT NULL, price_cents BIGINT NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS sales_item_time ON sales (item, sale_time)",
+            "CREATE INDEX IF NOT EXISTS sales_time ON sales (sale_time)",
+    };
+
+    // Sales waiting for the writer, in arrival order
+    private static class PendingSales {
+        StockItem[] items = new StockItem[256];
+        long[] times = new long[256];
+        int[] quantities = new int[256];
+        long[] prices = new long[256];
+        int size;
+
+        void add(StockItem item, long time, int quantity, long priceCents) {
+            if (size == items.length) {
+                int capacity = size * 2;
+                items = Arrays.copyOf(items, capacity);
+                times = Arrays.copyOf(times, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+            }
+            items[size] = item;
+            times[size] = time;
+            quantities[size] = quantity;
+            prices[size] = priceCents;
+            size++;
+        }
+
+        void addAll(PendingSales other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.items[i], other.times[i], other.quantities[i], other.prices[i]);
+            }
+        }
+
+        // Drops the queued sales of a removed item
+        void removeItem(String item) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!items[i].getName().equals(item)) {
+                    items[kept] = items[i];
+                    times[kept] = times[i];
+                    quantities[kept] = quantities[i];
+                    prices[kept] = prices[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(items, kept, size, null);
+            size = kept;
+        }
+
+        void clear() {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private final Connection connection;
+    private final long flushIntervalMillis;
+
+    // Queued changes, guarded by this. changedItems maps each changed item name
+    // to the item, or to null once it is removed.
+    private Map<String, StockItem> changedItems = new LinkedHashMap<>();
+    private Set<String> removedItems = new HashSet<>();
+    private PendingSales pendingSales = new PendingSales();
+    // Sales queued by each thread, moved to pendingSales when the writer flushes
+    private final ThreadBuffers<PendingSales> saleQueues = new ThreadBuffers<>(PendingSales::new);
+
+    // The connection and the stored sale count per item are only used under writeLock
+    private final Object writeLock = new Object();
+    private final Map<String, Integer> storedSales = new HashMap<>();
+
+    private volatile boolean closed;
+    private Thread writer;
+
+    public SqlStorage(String url, long flushIntervalMillis) throws IOException {
+        this.flushIntervalMillis = flushIntervalMillis;
+        try {
+            connection = DriverManager.getConnection(url);
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new IOException("Could not open database " + url, e);
+        }
+    }
+
+    @Override
+    public Map<String, StockItem> load() throws IOException {
+        long start = System.nanoTime();
+        Map<String, StockItem> items = new HashMap<>();
+        long sales = 0;
+        synchronized (writeLock) {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+                connection.commit();
+
+                try (ResultSet rows = statement.executeQuery("SELECT name, category, quantity, sold, price_cents,"
+                        + " minimum_stock, last_updated FROM items")) {
+                    while (rows.next()) {
+                        String name = rows.getString(1);
+                        int quantity = rows.getInt(3);
+                        StockItem item = new StockItem(name, quantity, rows.getLong(5),
+                                rows.getInt(6), rows.getString(2));
+                        item.restoreState(quantity, rows.getInt(4), rows.getLong(7));
+                        items.put(name, item);
+                        storedSales.put(name, 0);
+                    }
+                }
+                try (ResultSet rows = statement.executeQuery("SELECT item, sale_time, quantity, price_cents"
+                        + " FROM sales ORDER BY item, sale_time")) {
+                    StockItem item = null;
+                    while (rows.next()) {
+                        String name = rows.getString(1);
+                        if (item == null || !item.getName().equals(name)) {
+                            item = items.get(name);
+                            if (item == null) {
+                                continue;
+                            }
+                        }
+                        item.restoreSale(rows.getInt(3), rows.getLong(4), rows.getLong(2));
+                        storedSales.merge(name, 1, Integer::sum);
+                        sales++;
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                throw new IOException("Could not load stock from the database", e);
+            }
+        }
+        System.out.println(String.format("Loaded %d items and %d sales from the database in %d ms",
+                items.size(), sales, (System.nanoTime() - start) / 1_000_000));
+
+        writer = new Thread(this::runWriter, "sql-storage-writer");
+        writer.setDaemon(true);
+        writer.start();
+        return items;
+    }
+
+    @Override
+    public synchronized void itemAdded(StockItem item) {
+        changedItems.put(item.getName(), item);
+    }
+
+    @Override
+    public synchronized void itemRemoved(StockItem item) {
+        changedItems.put(item.getName(), null);
+        removedItems.add(item.getName());
+        pendingSales.removeItem(item.getName());
+        saleQueues.forEach(sales -> sales.removeItem(item.getName()));
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        PendingSales sales = saleQueues.get();
+        synchronized (sales) {
+            sales.add(item, time, amount, priceCents);
+        }
+    }
+
+    // Queued together, so the whole basket is written in one transaction
+    @Override
+    public void basketSold(StockItem[] items, int[] amounts, long[] prices, long[] times) {
+        PendingSales sales = saleQueues.get();
+        synchronized (sales) {
+            for (int i = 0; i < items.length; i++) {
+                sales.add(items[i], times[i], amounts[i], prices[i]);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stockAdded(StockItem item, int amount) {
+        changedItems.put(item.getName(), item);
+    }
+
+    @Override
+    public synchronized void itemUpdated(StockItem item, String previousCategory, long time) {
+        changedItems.put(item.getName(), item);
+    }
+
+    // Rows are kept current by the writer, so there is never a backlog to compact
+    @Override
+    public boolean needsCheckpoint() {
+        return false;
+    }
+
+    // Flushes the queue, then rewrites any item whose history no longer matches
+    // what is stored, as after a bulk import that bypassed the events. Rows are
+    // kept current as sales arrive, so that is the only work and only forced
+    // checkpoints do it; it runs while changes are held off, since a sale
+    // queued meanwhile would otherwise be stored twice.
+    @Override
+    public Checkpoint checkpoint(Collection<StockItem> items) throws IOException {
+        flush();
+        long start = System.nanoTime();
+        int rewritten = 0;
+        synchronized (writeLock) {
+            try (PreparedStatement deleteSales = connection.prepareStatement("DELETE FROM sales WHERE item = ?");
+                 PreparedStatement deleteItem = connection.prepareStatement("DELETE FROM items WHERE name = ?");
+                 PreparedStatement insertItem = prepareInsertItem();
+                 PreparedStatement insertSale = prepareInsertSale()) {
+                int pending = 0;
+                for (StockItem item : items) {
+                    SalesHistory history = item.getSales();
+                    if (storedSales.getOrDefault(item.getName(), -1) == history.size()) {
+                        continue;
+                    }
+                    deleteSales.setString(1, item.getName());
+                    deleteSales.executeUpdate();
+                    deleteItem.setString(1, item.getName());
+                    deleteItem.executeUpdate();
+                    bindItem(insertItem, item);
+                    insertItem.executeUpdate();
+                    int size = history.size();
+                    for (int i = 0; i < size; i++) {
+                        bindSale(insertSale, item.getName(), history.timeAt(i), history.quantityAt(i),
+                                history.priceCentsAt(i));
+                        insertSale.addBatch();
+                        if (++pending == BATCH_SIZE) {
+                            insertSale.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                    storedSales.put(item.getName(), size);
+                    rewritten++;
+                }
+                if (pending > 0) {
+                    insertSale.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                rollback();
+                throw new IOException("Could not write the checkpoint to the database", e);
+            }
+        }
+        if (rewritten > 0) {
+            System.out.println(String.format("Rewrote %d items in the database in %d ms",
+                    rewritten, (System.nanoTime() - start) / 1_000_000));
+        }
+        return () -> { };
+    }
+
+    // Units and revenue per item from a GROUP BY over the sale_time index
+    @Override
+    public SalesRollupIndex.Report salesReport(long fromMillis, long toMillis,
+                                               Function<String, StockItem> items) throws IOException {
+        flush();
+        SalesRollupIndex.Report report = new SalesRollupIndex.Report();
+        synchronized (writeLock) {
+            try (PreparedStatement query = connection.prepareStatement("SELECT item, SUM(quantity),"
+                    + " SUM(quantity * price_cents) FROM sales WHERE sale_time >= ? AND sale_time < ?"
+                    + " GROUP BY item")) {
+                query.setLong(1, fromMillis);
+                query.setLong(2, toMillis);
+                try (ResultSet rows = query.executeQuery()) {
+                    while (rows.next()) {
+                        StockItem item = items.apply(rows.getString(1));
+                        if (item != null) {
+                            report.add(item, rows.getLong(2), rows.getLong(3));
+                        }
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                rollback();
+                throw new IOException("Could not run the sales report in the database", e);
+            }
+        }
+        return report;
+    }
+
+    // Writes out everything queued so far in one transaction. If that fails the
+    // changes go back on the queue, behind nothing newer, for the next attempt.
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            Map<String, StockItem> items;
+            Set<String> removed;
+            PendingSales sales;
+            synchronized (this) {
+                drainSales();
+                if (changedItems.isEmpty() && pendingSales.size == 0) {
+                    return;
+                }
+                items = changedItems;
+                removed = removedItems;
+                sales = pendingSales;
+                changedItems = new LinkedHashMap<>();
+                removedItems = new HashSet<>();
+                pendingSales = new PendingSales();
+            }
+            try {
+                write(items, removed, sales);
+                connection.commit();
+            } catch (SQLException e) {
+                rollback();
+                requeue(items, removed, sales);
+                throw new IOException("Could not write changes to the database", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (writer != null) {
+            writer.interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            synchronized (writeLock) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    throw new IOException("Could not close the database", e);
+                }
+            }
+        }
+    }
+
+    // Moves every thread's queued sales to pendingSales, marking their items changed
+    private synchronized void drainSales() {
+        saleQueues.forEach(sales -> {
+            for (int i = 0; i < sales.size; i++) {
+                changedItems.putIfAbsent(sales.items[i].getName(), sales.items[i]);
+            }
+            pendingSales.addAll(sales);
+            sales.clear();
+        });
+    }
+
+    private void write(Map<String, StockItem> items, Set<String> removed, PendingSales sales) throws SQLException {
+        // Stored counts are only updated once everything has been written
+        Map<String, Integer> counts = new HashMap<>();
+        try (PreparedStatement deleteSales = connection.prepareStatement("DELETE FROM sales WHERE item = ?")) {
+            for (String name : removed) {
+                deleteSales.setString(1, name);
+                deleteSales.addBatch();
+                counts.put(name, 0);
+            }
+            deleteSales.executeBatch();
+        }
+        // Delete and insert rather than update, so new and changed items take the same path
+        try (PreparedStatement deleteItem = connection.prepareStatement("DELETE FROM items WHERE name = ?");
+             PreparedStatement insertItem = prepareInsertItem()) {
+            for (String name : items.keySet()) {
+                deleteItem.setString(1, name);
+                deleteItem.addBatch();
+            }
+            deleteItem.executeBatch();
+            for (StockItem item : items.values()) {
+                if (item != null) {
+                    bindItem(insertItem, item);
+                    insertItem.addBatch();
+                }
+            }
+            insertItem.executeBatch();
+        }
+        try (PreparedStatement insertSale = prepareInsertSale()) {
+            for (int i = 0; i < sales.size; i++) {
+                bindSale(insertSale, sales.items[i].getName(), sales.times[i], sales.quantities[i], sales.prices[i]);
+                insertSale.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    insertSale.executeBatch();
+                }
+                counts.merge(sales.items[i].getName(), 1, Integer::sum);
+            }
+            insertSale.executeBatch();
+        }
+
+        for (Map.Entry<String, StockItem> entry : items.entrySet()) {
+            if (entry.getValue() == null) {
+                storedSales.remove(entry.getKey());
+            } else {
+                storedSales.putIfAbsent(entry.getKey(), 0);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (removed.contains(entry.getKey())) {
+                // Sales of the item added again after its removal
+                storedSales.computeIfPresent(entry.getKey(), (name, count) -> entry.getValue());
+            } else {
+                storedSales.computeIfPresent(entry.getKey(), (name, count) -> count + entry.getValue());
+            }
+        }
+    }
+
+    private synchronized void requeue(Map<String, StockItem> items, Set<String> removed, PendingSales sales) {
+        // Whatever was queued since is newer, so it wins
+        items.putAll(changedItems);
+        changedItems = items;
+        removed.addAll(removedItems);
+        removedItems = removed;
+        for (String name : removedItems) {
+            if (changedItems.get(name) == null) {
+                sales.removeItem(name);
+            }
+        }
+        sales.addAll(pendingSales);
+        pendingSales = sales;
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private PreparedStatement prepareInsertItem() throws SQLException {
+        return connection.prepareStatement("INSERT INTO items (name, category, quantity, sold, price_cents,"
+                + " minimum_stock, last_updated) VALUES (?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    private PreparedStatement prepareInsertSale() throws SQLException {
+        return connection.prepareStatement("INSERT INTO sales (item, sale_time, quantity, price_cents)"
+                + " VALUES (?, ?, ?, ?)");
+    }
+
+    private static void bindItem(PreparedStatement insert, StockItem item) throws SQLException {
+        insert.setString(1, item.getName());
+        insert.setString(2, item.getCategory());
+        insert.setInt(3, item.getQuantity());
+        insert.setInt(4, item.getSold());
+        insert.setLong(5, item.getPriceCents());
+        insert.setInt(6, item.getMinimumStock());
+        insert.setLong(7, item.getLastUpdated());
+    }
+
+    private static void bindSale(PreparedStatement insert, String item, long time, int quantity, long priceCents)
+            throws SQLException {
+        insert.setString(1, item);
+        insert.setLong(2, time);
+        insert.setInt(3, quantity);
+        insert.setLong(4, priceCents);
+    }
+
+    private void runWriter() {
+        while (!closed) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+                flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+// Round trip through a real database for SqlStorage: items are added, sold,
+// restocked, repriced and removed, history is bulk imported, then the inventory
+// is checkpointed, closed and reopened, and the items, their histories and the
+// date range reports the database sums must match what was there before. That
+// is done twice, so the second round starts from stored rows.
+//   java -cp .:h2.jar SqlStorageCheck [h2|sqlite|jdbcUrl]
+// H2 is the default; the driver has to be on the class path. The database
+// lives in a temporary directory unless a URL is given. Exits with status 1 if
+// the driver is missing or any check fails.
+class SqlStorageCheck {
+    private static final int ITEMS = 50;
+    private static final int SALES = 2_000;
+    private static final long DAY = 86_400_000L;
+
+    public static void main(String[] args) throws Exception {
+        String database = args.length > 0 ? args[0] : "h2";
+        Path dataDir = Files.createTempDirectory("stock-sql-check");
+        String url;
+        switch (database) {
+            case "h2":
+                url = "jdbc:h2:file:" + dataDir.resolve("stock");
+                break;
+            case "sqlite":
+                url = "jdbc:sqlite:" + dataDir.resolve("stock.db");
+                break;
+            default:
+                url = database;
+        }
+        try (Connection connection = DriverManager.getConnection(url)) {
+            System.out.println("Checking " + connection.getMetaData().getDatabaseProductName() + " "
+                    + connection.getMetaData().getDatabaseProductVersion() + " at " + url);
+        } catch (SQLException e) {
+            System.out.println("Could not open " + url + "; is its JDBC driver on the class path? " + e.getMessage());
+            System.exit(1);
+        }
+
+        List<String> problems = new ArrayList<>();
+        try {
+            for (int round = 1; round <= 2; round++) {
+                checkRoundTrip(url, round, problems);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        if (problems.isEmpty()) {
+            System.out.println("All checks passed");
+        } else {
+            problems.forEach(System.out::println);
+            System.exit(1);
+        }
+    }
+
+    private static void checkRoundTrip(String url, int round, List<String> problems) throws IOException {
+        Inventory inventory = Inventory.open(new SqlStorage(url, 50));
+        if (round > 1 && inventory.getItems().isEmpty()) {
+            problems.add("Round " + round + ": nothing was loaded back from the database");
+        }
+        SplittableRandom random = new SplittableRandom(round);
+        String[] categories = { "Electronics", "Clothing", "Food", "Other" };
+        for (int i = 0; i < ITEMS; i++) {
+            inventory.addItem("Round " + round + " item " + i, 10_000, (100 + random.nextInt(10_000)) / 100.0,
+                    random.nextInt(20), categories[i % categories.length]);
+        }
+        List<StockItem> items = new ArrayList<>(inventory.getItems());
+
+        for (int i = 0; i < SALES; i++) {
+            StockItem item = items.get(random.nextInt(items.size()));
+            inventory.trySell(item.getName(), 1 + random.nextInt(3));
+        }
+        inventory.sellBasket(new Basket().add(items.get(0).getName(), 2).add(items.get(1).getName(), 1));
+        inventory.restock(items.get(2).getName(), 500);
+        inventory.setQuantity(items.get(3).getName(), 7);
+        StockItem repriced = inventory.getItem(items.get(4).getName());
+        repriced.setPriceCents(repriced.getPriceCents() + 100);
+        inventory.sell(repriced.getName(), 1);
+        // Removed with its sales, so neither may come back
+        String removed = "Round " + round + " item " + (ITEMS - 1);
+        inventory.sell(removed, 5);
+        inventory.removeItem(removed);
+
+        // Merged history bypasses the sale events, so only the checkpoint stores it
+        long now = StockClock.millis();
+        StockItem imported = inventory.getItem("Round " + round + " item 5");
+        long[] times = new long[100];
+        int[] quantities = new int[100];
+        long[] prices = new long[100];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = now - 20 * DAY + i * 3_600_000L;
+            quantities[i] = 1 + random.nextInt(5);
+            prices[i] = imported.getPriceCents();
+        }
+        inventory.importSales(imported, times, quantities, prices, times.length);
+        inventory.salesImported();
+        inventory.checkpoint(true);
+
+        Map<String, String> before = describe(inventory.getItems());
+        long[][] windows = { { now - 30 * DAY, now + DAY }, { now - 21 * DAY, now - 10 * DAY },
+                { now - DAY, now + DAY } };
+        List<String> reportsBefore = new ArrayList<>();
+        for (long[] window : windows) {
+            String expected = summarize(inventory.getItems(), window[0], window[1]);
+            String report = describe(inventory.salesReport(window[0], window[1]));
+            if (!expected.equals(report)) {
+                problems.add(String.format("Round %d: report for [%d, %d) before reopening was %s, expected %s",
+                        round, window[0], window[1], report, expected));
+            }
+            reportsBefore.add(expected);
+        }
+        inventory.close();
+
+        Inventory reopened = Inventory.open(new SqlStorage(url, 50));
+        try {
+            Map<String, String> after = describe(reopened.getItems());
+            if (!before.equals(after)) {
+                for (String name : before.keySet()) {
+                    if (!before.get(name).equals(after.get(name))) {
+                        problems.add(String.format("Round %d: %s was %s, reopened as %s", round, name,
+                                before.get(name), after.get(name)));
+                    }
+                }
+                for (String name : after.keySet()) {
+                    if (!before.containsKey(name)) {
+                        problems.add("Round " + round + ": " + name + " came back after its removal");
+                    }
+                }
+            }
+            for (int i = 0; i < windows.length; i++) {
+                String report = describe(reopened.salesReport(windows[i][0], windows[i][1]));
+                if (!reportsBefore.get(i).equals(report)) {
+                    problems.add(String.format("Round %d: report for [%d, %d) after reopening was %s, expected %s",
+                            round, windows[i][0], windows[i][1], report, reportsBefore.get(i)));
+                }
+            }
+            System.out.printf("Round %d: %d items and %d sales stored and loaded back%n", round, after.size(),
+                    reopened.getItems().stream().mapToInt(item -> item.getSales().size()).sum());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // Every stored field of each item, and its history in time order
+    private static Map<String, String> describe(Iterable<StockItem> items) {
+        Map<String, String> described = new HashMap<>();
+        for (StockItem item : items) {
+            SalesHistory history = item.getSales();
+            long[][] sales = new long[history.size()][];
+            for (int i = 0; i < sales.length; i++) {
+                sales[i] = new long[] { history.timeAt(i), history.quantityAt(i), history.priceCentsAt(i) };
+            }
+            Arrays.sort(sales, Comparator.<long[]>comparingLong(sale -> sale[0])
+                    .thenComparingLong(sale -> sale[1]).thenComparingLong(sale -> sale[2]));
+            StringBuilder line = new StringBuilder(String.format("%s quantity %d sold %d price %d minimum %d",
+                    item.getCategory(), item.getQuantity(), item.getTotalSold(), item.getPriceCents(),
+                    item.getMinimumStock()));
+            for (long[] sale : sales) {
+                line.append(' ').append(sale[0]).append('x').append(sale[1]).append('@').append(sale[2]);
+            }
+            described.put(item.getName(), line.toString());
+        }
+        return described;
+    }
+
+    // Units and revenue per item in [from, to), summed from the histories in memory
+    private static String summarize(Iterable<StockItem> items, long from, long to) {
+        Map<String, long[]> totals = new HashMap<>();
+        for (StockItem item : items) {
+            SalesHistory history = item.getSales();
+            for (int i = 0; i < history.size(); i++) {
+                long time = history.timeAt(i);
+                if (time >= from && time < to) {
+                    long[] total = totals.computeIfAbsent(item.getName(), name -> new long[2]);
+                    total[0] += history.quantityAt(i);
+                    total[1] += history.quantityAt(i) * history.priceCentsAt(i);
+                }
+            }
+        }
+        StringBuilder summary = new StringBuilder();
+        totals.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> summary
+                .append(entry.getKey()).append('=').append(entry.getValue()[0]).append('/')
+                .append(entry.getValue()[1]).append(' '));
+        return summary.toString().trim();
+    }
+
+    private static String describe(SalesRollupIndex.Report report) {
+        StringBuilder summary = new StringBuilder();
+        report.getItems().stream()
+                .sorted(Comparator.comparing(sales -> sales.getItem().getName()))
+                .forEach(sales -> summary.append(sales.getItem().getName()).append('=').append(sales.getUnits())
+                        .append('/').append(sales.getRevenueCents()).append(' '));
+        return summary.toString().trim();
+    }
+}
@@ -0,0 +1,479 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+// Microbenchmarks for the inventory hot paths, run the way JMH runs them. JMH
+// itself cannot generate benchmarks against these classes, which all live in
+// the default package, so this follows its method: every size and storage is
+// run in --forks fresh JVMs (with this JVM's options) so one run's profile and
+// heap do not leak into the next, each benchmark is warmed up and then timed
+// over fixed-length iterations, and results go into a Blackhole. It reports
+// time per operation with its error over the iterations of every fork, bytes
+// allocated per operation (as -prof gc would) and the collections it caused.
+//   java StockBenchmarks [--items 1000,100000] [--sales 1000000] [--only name,...]
+//                        [--storage memory,journal,sql] [--forks 2] [--warmup 3]
+//                        [--iterations 5] [--time ms] [--save results.csv]
+//                        [--compare baseline.csv]
+// Sizes and storages are comma separated and every combination is run. Storages
+// other than memory live in a temporary directory; their setup includes the
+// checkpoint after the import, and the time to load them back is reported.
+// --forks 0 runs in this JVM. --save writes the results so a later run can
+// --compare against them.
+class StockBenchmarks {
+    private static final String[] CATEGORIES = { "Electronics", "Clothing", "Food", "Home", "Garden",
+            "Toys", "Books", "Other" };
+    private static final long DAY = 86_400_000L;
+    private static final long HISTORY_DAYS = 90;
+
+    private interface Operation {
+        void run(Blackhole blackhole) throws Exception;
+    }
+
+    // Takes benchmark results so the JIT cannot drop the work that made them,
+    // as JMH's Blackhole does: it cannot prove the comparisons never hold, and
+    // now and then an object escapes into a field
+    static final class Blackhole {
+        private volatile long l1 = 1;
+        private volatile long l2 = 2;
+        private int random = (int) System.nanoTime();
+        private int mask = 1;
+        private Object escaped;
+
+        void consume(long value) {
+            if (value == l1 & value == l2) {
+                throw new IllegalStateException("Blackhole matched both values");
+            }
+        }
+
+        void consume(Object value) {
+            random = random * 1664525 + 1013904223;
+            if ((random & mask) == 0) {
+                escaped = new WeakReference<>(value);
+                mask = (mask << 1) + 1;
+            }
+        }
+    }
+
+    private static class Result {
+        String name;
+        int items;
+        long sales;
+        // ns/op of every measured iteration, across forks
+        double[] samples = new double[0];
+        double nanosPerOp;
+        double error;
+        double bytesPerOp;
+        long collections;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private int forks = 2;
+    private int warmup = 3;
+    private int iterations = 5;
+    private long iterationMillis = 1000;
+    // Set in a forked JVM: results are appended here for the parent instead of printed
+    private Path samplesFile;
+    private final Blackhole blackhole = new Blackhole();
+
+    public static void main(String[] args) throws Exception {
+        StockBenchmarks benchmarks = new StockBenchmarks();
+        int[] itemCounts = { 1_000, 100_000 };
+        long[] saleCounts = { 1_000_000 };
+        List<String> only = null;
+        String[] storages = { "memory" };
+        Path save = null;
+        Path compare = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--items":
+                    itemCounts = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--sales":
+                    saleCounts = Arrays.stream(value.split(",")).mapToLong(Long::parseLong).toArray();
+                    break;
+                case "--only":
+                    only = Arrays.asList(value.split(","));
+                    break;
+                case "--storage":
+                    storages = value.split(",");
+                    break;
+                case "--forks":
+                    benchmarks.forks = Integer.parseInt(value);
+                    break;
+                case "--samples":
+                    benchmarks.samplesFile = Paths.get(value);
+                    break;
+                case "--warmup":
+                    benchmarks.warmup = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    benchmarks.iterations = Integer.parseInt(value);
+                    break;
+                case "--time":
+                    benchmarks.iterationMillis = Long.parseLong(value);
+                    break;
+                case "--save":
+                    save = Paths.get(value);
+                    break;
+                case "--compare":
+                    compare = Paths.get(value);
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        if (benchmarks.samplesFile != null) {
+            benchmarks.runAll(storages[0], itemCounts[0], saleCounts[0], only, null);
+            return;
+        }
+        Map<String, Result> baseline = compare == null ? new HashMap<>() : load(compare);
+        List<Result> results = new ArrayList<>();
+        System.out.println(String.format("%-20s %10s %11s %14s %12s %12s %5s %9s",
+                "Benchmark", "items", "sales", "ns/op", "error", "B/op", "gcs", "vs base"));
+        for (String storage : storages) {
+            for (int items : itemCounts) {
+                for (long sales : saleCounts) {
+                    results.addAll(benchmarks.forks == 0
+                            ? benchmarks.runAll(storage, items, sales, only, baseline)
+                            : benchmarks.fork(storage, items, sales, only, baseline));
+                }
+            }
+        }
+        if (save != null) {
+            save(results, save);
+            System.out.println("Saved " + results.size() + " results to " + save);
+        }
+    }
+
+    // Runs one size and storage in each of forks fresh JVMs and merges the
+    // iterations they measured
+    private List<Result> fork(String storage, int itemCount, long saleCount, List<String> only,
+                              Map<String, Result> baseline) throws Exception {
+        Map<String, Result> merged = new LinkedHashMap<>();
+        for (int fork = 1; fork <= forks; fork++) {
+            Path samples = Files.createTempFile("stock-benchmark", ".samples");
+            try {
+                List<String> command = new ArrayList<>();
+                command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+                command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                        StockBenchmarks.class.getName(),
+                        "--storage", storage, "--items", Integer.toString(itemCount),
+                        "--sales", Long.toString(saleCount), "--warmup", Integer.toString(warmup),
+                        "--iterations", Integer.toString(iterations), "--time", Long.toString(iterationMillis),
+                        "--samples", samples.toString()));
+                if (only != null) {
+                    command.add("--only");
+                    command.add(String.join(",", only));
+                }
+                System.out.println("# Fork " + fork + " of " + forks);
+                int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+                if (exit != 0) {
+                    throw new IOException("Benchmark fork exited with " + exit);
+                }
+                for (String line : Files.readAllLines(samples)) {
+                    Result sampled = parseSamples(line);
+                    Result result = merged.putIfAbsent(key(sampled), sampled);
+                    if (result != null) {
+                        int measured = result.samples.length;
+                        result.samples = Arrays.copyOf(result.samples, measured + sampled.samples.length);
+                        System.arraycopy(sampled.samples, 0, result.samples, measured, sampled.samples.length);
+                        result.bytesPerOp += sampled.bytesPerOp;
+                        result.collections += sampled.collections;
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(samples);
+            }
+        }
+        List<Result> results = new ArrayList<>(merged.values());
+        for (Result result : results) {
+            result.bytesPerOp /= forks;
+            summarize(result);
+            print(result, baseline.get(key(result)));
+        }
+        return results;
+    }
+
+    private List<Result> runAll(String storage, int itemCount, long saleCount, List<String> only,
+                                Map<String, Result> baseline) throws Exception {
+        boolean inMemory = "memory".equals(storage);
+        Path dataDir = inMemory ? null : Files.createTempDirectory("stock-benchmark");
+        Inventory inventory = inMemory ? new Inventory() : Inventory.open(StockStorage.open(storage, dataDir));
+        long setupStart = System.nanoTime();
+        populate(inventory, itemCount, saleCount);
+        System.out.println(String.format("# %s: %d items, %d sales set up in %d ms", storage, itemCount, saleCount,
+                (System.nanoTime() - setupStart) / 1_000_000));
+
+        List<StockItem> items = new ArrayList<>(inventory.getItems());
+        Path exportFile = Files.createTempFile("stock-benchmark", ".csv");
+        long now = System.currentTimeMillis();
+        StockQueryEngine.Query query = new StockQueryEngine.Query()
+                .text("item 1")
+                .category("Food")
+                .priceRange(Money.toCents(5), Money.toCents(500));
+        SplittableRandom random = new SplittableRandom(42);
+
+        // Ordered so the benchmarks that add sales run after the read-only ones
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("totals", blackhole -> {
+            // getTotalSales and getTotalSold of every item, as the old report loops did
+            for (StockItem item : items) {
+                blackhole.consume(Double.doubleToRawLongBits(item.getTotalSales()));
+                blackhole.consume(item.getTotalSold());
+            }
+        });
+        operations.put("salesReport", blackhole -> {
+            // Dashboard sales report for the last 30 days
+            SalesRollupIndex.Report report = inventory.salesReport(now - 30 * DAY, now);
+            blackhole.consume(report.top(10));
+        });
+        // Full history through the report engine, on the common pool and on one thread
+        ReportEngine sequential = new ReportEngine(inventory.getRegistry(), null);
+        operations.put("reportByItem", blackhole -> {
+            ReportEngine.Report report = inventory.report(ReportEngine.GroupBy.ITEM, now - HISTORY_DAYS * DAY, now);
+            blackhole.consume(report.top(10));
+        });
+        operations.put("reportSequential", blackhole -> {
+            ReportEngine.Report report = sequential.report(ReportEngine.GroupBy.ITEM, now - HISTORY_DAYS * DAY, now,
+                    StockClock.getZone());
+            blackhole.consume(report.top(10));
+        });
+        operations.put("reportByHour", blackhole -> blackhole.consume(
+                inventory.report(ReportEngine.GroupBy.HOUR, now - HISTORY_DAYS * DAY, now)));
+        operations.put("query", blackhole -> blackhole.consume(inventory.query(query)));
+        operations.put("queryAll", blackhole -> blackhole.consume(inventory.query(new StockQueryEngine.Query())));
+        operations.put("lookup", blackhole -> blackhole.consume(
+                inventory.getItem(items.get(random.nextInt(items.size())).getName())));
+        operations.put("lowStockScan", blackhole -> blackhole.consume(inventory.getRegistry().lowStock()));
+        operations.put("bestSellers", blackhole -> blackhole.consume(inventory.bestSellers(3)));
+        operations.put("export", blackhole -> blackhole.consume(CsvExporter.exportStock(items, exportFile, null)));
+        operations.put("sell", blackhole -> {
+            // Through the inventory, so the aggregate, rollup and filter listeners and
+            // the storage are included
+            blackhole.consume(inventory.sell(items.get(random.nextInt(items.size())).getName(), 1));
+        });
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+                if (only != null && !only.contains(entry.getKey())) {
+                    continue;
+                }
+                Result result = measure(inMemory ? entry.getKey() : entry.getKey() + "@" + storage,
+                        entry.getValue());
+                result.items = itemCount;
+                result.sales = saleCount;
+                if (samplesFile != null) {
+                    Files.write(samplesFile, List.of(formatSamples(result)), StandardOpenOption.APPEND);
+                } else {
+                    print(result, baseline.get(key(result)));
+                }
+                results.add(result);
+            }
+        } finally {
+            Files.deleteIfExists(exportFile);
+            inventory.close();
+        }
+        if (dataDir != null) {
+            long loadStart = System.nanoTime();
+            Inventory.open(StockStorage.open(storage, dataDir)).close();
+            System.out.println(String.format("# %s: loaded back in %d ms", storage,
+                    (System.nanoTime() - loadStart) / 1_000_000));
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        return results;
+    }
+
+    // Spreads saleCount sales over the last HISTORY_DAYS days, more of them on
+    // the low-numbered items, and gives every item enough stock to keep selling
+    private static void populate(Inventory inventory, int itemCount, long saleCount) {
+        SplittableRandom random = new SplittableRandom(7);
+        StockItem[] items = new StockItem[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            double price = (100 + random.nextInt(99_900)) / 100.0;
+            StockItem item = new StockItem("Item " + i, 1_000_000_000, price, random.nextInt(20),
+                    CATEGORIES[i % CATEGORIES.length]);
+            inventory.addItem(item);
+            items[i] = item;
+        }
+
+        long start = System.currentTimeMillis() - HISTORY_DAYS * DAY;
+        long remaining = saleCount;
+        for (int i = 0; i < itemCount && remaining > 0; i++) {
+            // Harmonic share: item i gets about 1/(i+1) of what item 0 gets
+            long share = i == itemCount - 1 ? remaining
+                    : Math.min(remaining, Math.max(1, Math.round(saleCount / (harmonic(itemCount) * (i + 1)))));
+            remaining -= share;
+            importSales(inventory, items[i], share, start, random);
+        }
+        inventory.salesImported();
+    }
+
+    private static double harmonic(int n) {
+        return Math.log(n) + 0.5772156649 + 1.0 / (2 * n);
+    }
+
+    // Through Inventory.importSales, as the bulk importer merges history
+    private static void importSales(Inventory inventory, StockItem item, long count, long start,
+                                    SplittableRandom random) {
+        long priceCents = item.getPriceCents();
+        int chunk = (int) Math.min(count, 1 << 20);
+        long[] times = new long[chunk];
+        int[] quantities = new int[chunk];
+        long[] prices = new long[chunk];
+        Arrays.fill(prices, priceCents);
+        long step = Math.max(1, HISTORY_DAYS * DAY / count);
+        long time = start;
+        for (long done = 0; done < count; ) {
+            int n = (int) Math.min(chunk, count - done);
+            for (int s = 0; s < n; s++) {
+                time += step;
+                times[s] = time;
+                quantities[s] = 1 + random.nextInt(5);
+            }
+            inventory.importSales(item, times, quantities, prices, n);
+            done += n;
+        }
+    }
+
+    private Result measure(String name, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            iteration(operation);
+        }
+        long collectionsBefore = collections();
+        double[] nanos = new double[iterations];
+        long ops = 0;
+        long bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+            long[] timing = iteration(operation);
+            bytes += THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+            nanos[i] = (double) timing[1] / timing[0];
+            ops += timing[0];
+        }
+
+        Result result = new Result();
+        result.name = name;
+        result.samples = nanos;
+        result.bytesPerOp = (double) bytes / ops;
+        result.collections = collections() - collectionsBefore;
+        summarize(result);
+        return result;
+    }
+
+    private static void summarize(Result result) {
+        double[] samples = result.samples;
+        result.nanosPerOp = Arrays.stream(samples).average().orElse(0);
+        double variance = 0;
+        for (double n : samples) {
+            variance += (n - result.nanosPerOp) * (n - result.nanosPerOp);
+        }
+        // Half-width of a ~99.9% interval, as JMH reports it
+        result.error = samples.length > 1
+                ? 3.29 * Math.sqrt(variance / (samples.length - 1)) / Math.sqrt(samples.length) : 0;
+    }
+
+    // Runs the operation for one iteration; returns { operations, elapsed nanos }
+    private long[] iteration(Operation operation) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+        long start = System.nanoTime();
+        long ops = 0;
+        long now;
+        do {
+            operation.run(blackhole);
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new long[] { ops, now - start };
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static void print(Result result, Result base) {
+        String change = base == null ? ""
+                : String.format(Locale.ROOT, "%+.1f%%", 100 * (result.nanosPerOp - base.nanosPerOp) / base.nanosPerOp);
+        System.out.println(String.format(Locale.ROOT, "%-20s %10d %11d %14.1f %12.1f %12.1f %5d %9s",
+                result.name, result.items, result.sales, result.nanosPerOp, result.error, result.bytesPerOp,
+                result.collections, change));
+    }
+
+    private static String key(Result result) {
+        return result.name + "," + result.items + "," + result.sales;
+    }
+
+    // One result of a forked JVM: key, B/op, gcs, then the ns/op of each iteration
+    private static String formatSamples(Result result) {
+        StringBuilder line = new StringBuilder(key(result));
+        line.append(String.format(Locale.ROOT, ",%.2f,%d", result.bytesPerOp, result.collections));
+        for (double sample : result.samples) {
+            line.append(String.format(Locale.ROOT, ",%.3f", sample));
+        }
+        return line.toString();
+    }
+
+    private static Result parseSamples(String line) {
+        String[] fields = line.split(",");
+        Result result = new Result();
+        result.name = fields[0];
+        result.items = Integer.parseInt(fields[1]);
+        result.sales = Long.parseLong(fields[2]);
+        result.bytesPerOp = Double.parseDouble(fields[3]);
+        result.collections = Long.parseLong(fields[4]);
+        result.samples = Arrays.stream(fields, 5, fields.length).mapToDouble(Double::parseDouble).toArray();
+        return result;
+    }
+
+    private static void save(List<Result> results, Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,items,sales,ns_per_op,error,bytes_per_op,gcs");
+        for (Result result : results) {
+            lines.add(String.format(Locale.ROOT, "%s,%.2f,%.2f,%.2f,%d", key(result), result.nanosPerOp,
+                    result.error, result.bytesPerOp, result.collections));
+        }
+        Files.write(file, lines);
+    }
+
+    private static Map<String, Result> load(Path file) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        List<String> lines = Files.readAllLines(file);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            Result result = new Result();
+            result.name = fields[0];
+            result.items = Integer.parseInt(fields[1]);
+            result.sales = Long.parseLong(fields[2]);
+            result.nanosPerOp = Double.parseDouble(fields[3]);
+            results.put(key(result), result);
+        }
+        return results;
+    }
+}
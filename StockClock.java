@@ -0,0 +1,76 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.TimeZone;
+
+// The time source for stock changes and sales, and the one place their
+// timestamps are formatted. Items and records keep plain epoch millis; text is
+// only made when a timestamp is shown or exported. Install a fixed or offset
+// java.time.Clock with setClock to make runs deterministic.
+final class StockClock {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // The last second formatted, as most rows on screen share a few seconds
+    private static final class Formatted {
+        final long second;
+        final ZoneId zone;
+        final String text;
+
+        Formatted(long second, ZoneId zone, String text) {
+            this.second = second;
+            this.zone = zone;
+            this.text = text;
+        }
+    }
+
+    private static volatile Clock clock = Clock.systemDefaultZone();
+    private static volatile Formatted last = new Formatted(Long.MIN_VALUE, null, null);
+
+    private StockClock() {
+    }
+
+    static long millis() {
+        return clock.millis();
+    }
+
+    static Clock getClock() {
+        return clock;
+    }
+
+    static void setClock(Clock clock) {
+        StockClock.clock = clock;
+    }
+
+    static ZoneId getZone() {
+        return clock.getZone();
+    }
+
+    // The clock's zone for code that works with offsets
+    static TimeZone getTimeZone() {
+        return TimeZone.getTimeZone(clock.getZone());
+    }
+
+    // yyyy-MM-dd HH:mm:ss in the clock's zone
+    static String format(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        ZoneId zone = clock.getZone();
+        Formatted cached = last;
+        if (cached.second != second || !zone.equals(cached.zone)) {
+            cached = new Formatted(second, zone, FORMAT.format(Instant.ofEpochSecond(second).atZone(zone)));
+            last = cached;
+        }
+        return cached.text;
+    }
+
+    // Reads back a timestamp written by format; returns fallback if it is not one
+    static long parse(String text, long fallback) {
+        try {
+            return LocalDateTime.parse(text, FORMAT).atZone(clock.getZone()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NullPointerException e) {
+            return fallback;
+        }
+    }
+}
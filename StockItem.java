@@ -0,0 +1,318 @@
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+
+// Safe to sell from several threads: quantity is reserved with a CAS loop, so
+// stock can never go negative, and the running totals are updated with atomic
+// adds. Neither path takes a lock, and neither does the sales history append.
+// Inventory's listeners keep per-thread or striped state on the sale path, so
+// sales made through an Inventory rarely queue behind one another there either.
+class StockItem implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final VarHandle QUANTITY;
+    private static final VarHandle SOLD;
+    private static final VarHandle SALE_COUNT;
+    private static final VarHandle REVENUE_CENTS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            QUANTITY = lookup.findVarHandle(StockItem.class, "quantity", int.class);
+            SOLD = lookup.findVarHandle(StockItem.class, "sold", int.class);
+            SALE_COUNT = lookup.findVarHandle(StockItem.class, "saleCount", int.class);
+            REVENUE_CENTS = lookup.findVarHandle(StockItem.class, "revenueCents", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String name;
+    private volatile int quantity;
+    private volatile int sold;
+    private volatile int saleCount;
+    private volatile long revenueCents;
+    private volatile long priceCents;
+    private volatile int minimumStock;
+    private volatile String category;
+    // Epoch millis of the last change to price, minimum stock or category
+    private volatile long lastUpdated;
+    private volatile SalesHistory salesHistory;
+    private transient StockItemListener listener;
+    // Dense id handed out by the ItemRegistry, -1 until registered
+    private volatile int id = -1;
+
+    // Price in dollars, as the service API and the dashboard take it
+    public StockItem(String name, int quantity, double price, int minimumStock, String category) {
+        this(name, quantity, Money.toCents(price), minimumStock, category);
+    }
+
+    // Price in cents. An int price binds here rather than to the dollar
+    // constructor, so dollars must be passed as a double.
+    public StockItem(String name, int quantity, long priceCents, int minimumStock, String category) {
+        this.name = name;
+        this.quantity = Math.max(quantity, 0);
+        this.sold = 0;
+        this.priceCents = priceCents;
+        this.minimumStock = minimumStock;
+        this.category = category;
+        this.lastUpdated = StockClock.millis();
+        this.salesHistory = new SalesHistory(name);
+    }
+
+    void setListener(StockItemListener listener) {
+        this.listener = listener;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getSold() {
+        return sold;
+    }
+
+    public double getPrice() {
+        return Money.toDouble(priceCents);
+    }
+
+    public long getPriceCents() {
+        return priceCents;
+    }
+
+    public int getMinimumStock() {
+        return minimumStock;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public boolean isLowStock() {
+        return quantity <= minimumStock;
+    }
+
+    // Sells amount units and returns the sale, or throws without changing anything
+    public SaleRecord sell(int amount) {
+        if (amount <= 0) {
+            throw new InvalidInputException("Quantity must be greater than zero");
+        }
+        if (!reserve(amount)) {
+            throw new InsufficientStockException(name, amount, quantity);
+        }
+        long salePrice = priceCents;
+        return new SaleRecord(name, amount, salePrice, sellReserved(amount, salePrice));
+    }
+
+    // Sells if enough stock is on hand; returns false, changing nothing, otherwise.
+    // Builds no SaleRecord, so a sale allocates nothing unless a history chunk fills.
+    public boolean trySell(int amount) {
+        if (amount <= 0 || !reserve(amount)) {
+            return false;
+        }
+        sellReserved(amount, priceCents);
+        return true;
+    }
+
+    // Records a sale of units just reserved, raises the event and returns its time
+    private long sellReserved(int amount, long salePrice) {
+        long time = recordSale(amount, salePrice);
+        if (listener != null) {
+            listener.itemSold(this, amount, salePrice, time);
+        }
+        return time;
+    }
+
+    // Takes amount units off the shelf unless that would go below zero.
+    // Baskets reserve every line first, then complete or release each one.
+    boolean reserve(int amount) {
+        int current;
+        do {
+            current = quantity;
+            if (amount > current) {
+                return false;
+            }
+        } while (!QUANTITY.compareAndSet(this, current, current - amount));
+        return true;
+    }
+
+    // Puts back units reserved for a basket that could not be completed
+    void release(int amount) {
+        QUANTITY.getAndAdd(this, amount);
+    }
+
+    // Records a sale of units already reserved; the caller raises the event
+    long completeSale(int amount, long salePrice) {
+        return recordSale(amount, salePrice);
+    }
+
+    public void addStock(int amount) {
+        if (amount <= 0) {
+            throw new InvalidInputException("Invalid quantity. Must be greater than zero.");
+        }
+        QUANTITY.getAndAdd(this, amount);
+        if (listener != null) {
+            listener.stockAdded(this, amount);
+        }
+    }
+
+    // Sets the quantity on hand after a stock count; listeners see the
+    // difference as a restock, negative when stock was written off
+    public void setQuantity(int quantity) {
+        if (quantity < 0) {
+            throw new InvalidInputException("Quantity cannot be negative");
+        }
+        int previous = (int) QUANTITY.getAndSet(this, quantity);
+        if (listener != null && previous != quantity) {
+            listener.stockAdded(this, quantity - previous);
+        }
+    }
+
+    public void setPrice(double price) {
+        setPriceCents(Money.toCents(price));
+    }
+
+    public void setPriceCents(long priceCents) {
+        this.priceCents = priceCents;
+        touch(category);
+    }
+
+    public void setMinimumStock(int minimumStock) {
+        this.minimumStock = minimumStock;
+        touch(category);
+    }
+
+    public void setCategory(String category) {
+        String previousCategory = this.category;
+        this.category = category;
+        touch(previousCategory);
+    }
+
+    private void touch(String previousCategory) {
+        long time = StockClock.millis();
+        this.lastUpdated = time;
+        if (listener != null) {
+            listener.itemUpdated(this, previousCategory, time);
+        }
+    }
+
+    // Returns the time the history stamped the sale with when it took its slot
+    private long recordSale(int amount, long priceCents) {
+        addTotals(amount, priceCents);
+        return salesHistory.appendNow(amount, priceCents);
+    }
+
+    private void addTotals(int amount, long priceCents) {
+        SOLD.getAndAdd(this, amount);
+        SALE_COUNT.getAndAdd(this, 1);
+        REVENUE_CENTS.getAndAdd(this, amount * priceCents);
+    }
+
+    // Replay and restore paths used by the journal; they never notify the listener
+    void replaySale(int amount, long priceCents, long time) {
+        addTotals(amount, priceCents);
+        salesHistory.append(time, amount, priceCents);
+        QUANTITY.getAndAdd(this, -amount);
+    }
+
+    void replayRestock(int amount) {
+        QUANTITY.getAndAdd(this, amount);
+    }
+
+    void replayUpdate(long priceCents, int minimumStock, String category, long time) {
+        this.priceCents = priceCents;
+        this.minimumStock = minimumStock;
+        this.category = category;
+        this.lastUpdated = time;
+    }
+
+    void restoreState(int quantity, int sold, long lastUpdated) {
+        this.quantity = quantity;
+        this.sold = sold;
+        this.lastUpdated = lastUpdated;
+    }
+
+    // Takes the running totals and history of an item read from a mapped snapshot
+    void restoreSales(int saleCount, long revenueCents, SalesHistory history) {
+        this.saleCount = saleCount;
+        this.revenueCents = revenueCents;
+        this.salesHistory = history;
+    }
+
+    // Adds historical sales, sorted by time, without changing the quantity on hand.
+    // Used by bulk import, which checkpoints the journal afterwards. Merging
+    // replaces the history, so sales must be held off meanwhile, as
+    // Inventory.importSales does.
+    void importSales(long[] times, int[] quantities, long[] prices, int count) {
+        int units = 0;
+        long revenue = 0;
+        for (int i = 0; i < count; i++) {
+            units += quantities[i];
+            revenue += quantities[i] * prices[i];
+        }
+        SOLD.getAndAdd(this, units);
+        SALE_COUNT.getAndAdd(this, count);
+        REVENUE_CENTS.getAndAdd(this, revenue);
+        int size = salesHistory.size();
+        if (size == 0 || count == 0 || times[0] >= salesHistory.timeAt(size - 1)) {
+            for (int i = 0; i < count; i++) {
+                salesHistory.append(times[i], quantities[i], prices[i]);
+            }
+        } else {
+            salesHistory = salesHistory.mergedWith(times, quantities, prices, count);
+        }
+    }
+
+    void restoreSale(int amount, long priceCents, long time) {
+        SALE_COUNT.getAndAdd(this, 1);
+        REVENUE_CENTS.getAndAdd(this, amount * priceCents);
+        salesHistory.append(time, amount, priceCents);
+    }
+
+    public List<SaleRecord> getSalesHistory() {
+        return salesHistory.asList();
+    }
+
+    public SalesHistory getSales() {
+        return salesHistory;
+    }
+
+    // Running totals maintained by sell(); SalesAggregates.verify recomputes them from history
+    public double getTotalSales() {
+        return Money.toDouble(revenueCents);
+    }
+
+    public long getTotalSalesCents() {
+        return revenueCents;
+    }
+
+    public int getTotalSold() {
+        return sold;
+    }
+
+    public int getSaleCount() {
+        return saleCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s - Quantity: %d, Sold: %d, Price: %s, Category: %s, Last Updated: %s",
+                name, quantity, sold, Money.format(priceCents), category, StockClock.format(lastUpdated));
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Item events, raised after the change is made. They may arrive on any thread.
+// Sale prices are in cents.
+interface StockItemListener {
+    void itemAdded(StockItem item);
+
+    void itemRemoved(StockItem item);
+
+    void itemSold(StockItem item, int amount, long priceCents, long time);
+
+    // A basket sold as a unit, line by line in parallel arrays. Listeners that
+    // gain nothing from seeing the basket whole can keep this default.
+    default void basketSold(StockItem[] items, int[] amounts, long[] prices, long[] times) {
+        for (int i = 0; i < items.length; i++) {
+            itemSold(items[i], amounts[i], prices[i], times[i]);
+        }
+    }
+
+    void stockAdded(StockItem item, int amount);
+
+    void itemUpdated(StockItem item, String previousCategory, long time);
+}
+
+// Fans item events out to every registered listener
+class StockListeners implements StockItemListener {
+    private final List<StockItemListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void add(StockItemListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    public void remove(StockItemListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+        for (StockItemListener listener : listeners) {
+            listener.itemAdded(item);
+        }
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+        for (StockItemListener listener : listeners) {
+            listener.itemRemoved(item);
+        }
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        for (StockItemListener listener : listeners) {
+            listener.itemSold(item, amount, priceCents, time);
+        }
+    }
+
+    @Override
+    public void basketSold(StockItem[] items, int[] amounts, long[] prices, long[] times) {
+        for (StockItemListener listener : listeners) {
+            listener.basketSold(items, amounts, prices, times);
+        }
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+        for (StockItemListener listener : listeners) {
+            listener.stockAdded(item, amount);
+        }
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+        for (StockItemListener listener : listeners) {
+            listener.itemUpdated(item, previousCategory, time);
+        }
+    }
+}
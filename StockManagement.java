@@ -1,53 +1,33 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 
-class StockItem {
-    String name;
-    int quantity;
-    int sold;
-
-    public StockItem(String name, int quantity) {
-        this.name = name;
-        this.quantity = quantity;
-        this.sold = 0;
-    }
-
-    public void sell(int amount) {
-        sold += amount;
-    }
-
-    public void updateQuantity(int newQuantity) {
-        this.quantity = newQuantity;
-    }
-
-    public String toString() {
-        return name + " - Quantity: " + quantity + ", Sold: " + sold;
-    }
-}
-
-class User {
-    String username, password, role;
-
-    public User(String username, String password, String role) {
-        this.username = username;
-        this.password = password;
-        this.role = role;
-    }
-}
-
 public class StockManagement {
     static Scanner scanner = new Scanner(System.in);
-    static Map<String, StockItem> stock = new HashMap<>();
-    static List<User> users = new ArrayList<>();
+    static Inventory inventory;
     static User loggedInUser = null;
 
     public static void main(String[] args) {
-        setupDefaultUsers();
-        login();
-    }
+        inventory = Inventory.open(Paths.get(System.getProperty("stock.dataDir", "stock-data")));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                inventory.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        inventory.addLowStockListener(new LowStockListener() {
+            @Override
+            public void lowStock(StockItem item) {
+                System.out.println("Reorder alert: " + item.getName() + " is down to " + item.getQuantity()
+                        + " (minimum " + item.getMinimumStock() + ")");
+            }
 
-    static void setupDefaultUsers() {
-        users.add(new User("manager", "manager123", "Manager"));
-        users.add(new User("worker", "worker123", "Worker"));
+            @Override
+            public void alertCleared(StockItem item) {
+            }
+        });
+        login();
     }
 
     static void login() {
@@ -56,16 +36,15 @@ public class StockManagement {
         System.out.print("Password: ");
         String password = scanner.nextLine();
 
-        for (User user : users) {
-            if (user.username.equals(username) && user.password.equals(password)) {
-                loggedInUser = user;
-                System.out.println("Login successful! Role: " + user.role);
-                showMenu();
-                return;
-            }
+        try {
+            loggedInUser = inventory.authenticate(username, password);
+        } catch (AuthenticationException e) {
+            System.out.println("Invalid login. Try again.");
+            login();
+            return;
         }
-        System.out.println("Invalid login. Try again.");
-        login();
+        System.out.println("Login successful! Role: " + loggedInUser.getRole());
+        showMenu();
     }
 
     static void showMenu() {
@@ -75,7 +54,7 @@ public class StockManagement {
             List<String> options = new ArrayList<>();
             List<Runnable> actions = new ArrayList<>();
 
-            if (loggedInUser.role.equals("Manager")) {
+            if (loggedInUser.getRole().equals("Manager")) {
                 options.add("Add Item");
                 actions.add(() -> addItem());
                 options.add("Remove Item");
@@ -90,6 +69,8 @@ public class StockManagement {
             actions.add(() -> recordSale());
             options.add("Best Sellers Report");
             actions.add(() -> bestSellersReport());
+            options.add("Reorder Suggestions");
+            actions.add(() -> reorderReport());
             options.add("Logout");
             actions.add(() -> {
                 System.out.println("Logging out...");
@@ -117,16 +98,28 @@ public class StockManagement {
         String name = scanner.nextLine();
         System.out.print("Enter quantity: ");
         int quantity = scanner.nextInt();
-        stock.put(name, new StockItem(name, quantity));
-        System.out.println("Item added.");
+        System.out.print("Enter price: ");
+        double price = scanner.nextDouble();
+        System.out.print("Enter minimum stock: ");
+        int minimumStock = scanner.nextInt();
+        scanner.nextLine();
+        System.out.print("Enter category (Electronics, Clothing, Food, Other): ");
+        String category = scanner.nextLine();
+        try {
+            inventory.addItem(name, quantity, price, minimumStock, category);
+            System.out.println("Item added.");
+        } catch (InventoryException e) {
+            System.out.println(e.getMessage());
+        }
     }
 
     static void removeItem() {
         System.out.print("Enter item name to remove: ");
         String name = scanner.nextLine();
-        if (stock.remove(name) != null) {
+        try {
+            inventory.removeItem(name);
             System.out.println("Item removed.");
-        } else {
+        } catch (ItemNotFoundException e) {
             System.out.println("Item not found.");
         }
     }
@@ -134,35 +127,39 @@ public class StockManagement {
     static void editStock() {
         System.out.print("Enter item name to edit: ");
         String name = scanner.nextLine();
-        if (!stock.containsKey(name)) {
+        try {
+            inventory.getItem(name);
+            System.out.print("Enter new quantity: ");
+            int newQuantity = scanner.nextInt();
+            scanner.nextLine();
+            inventory.setQuantity(name, newQuantity);
+            System.out.println("Stock updated.");
+        } catch (ItemNotFoundException e) {
             System.out.println("Item not found.");
-            return;
+        } catch (InventoryException e) {
+            System.out.println(e.getMessage());
         }
-        System.out.print("Enter new quantity: ");
-        int newQuantity = scanner.nextInt();
-        stock.get(name).updateQuantity(newQuantity);
-        System.out.println("Stock updated.");
     }
 
     static void viewStock() {
-        if (stock.isEmpty()) {
+        if (inventory.getItems().isEmpty()) {
             System.out.println("Stock is empty.");
             return;
         }
-        stock.values().forEach(System.out::println);
+        inventory.getItems().forEach(System.out::println);
     }
 
     static void recordSale() {
-        if (stock.isEmpty()) {
+        if (inventory.getItems().isEmpty()) {
             System.out.println("No items available for sale.");
             return;
         }
 
         System.out.println("Available items:");
         int index = 1;
-        List<String> itemNames = new ArrayList<>(stock.keySet());
-        for (String item : itemNames) {
-            System.out.println(index + ". " + stock.get(item));
+        List<StockItem> items = new ArrayList<>(inventory.getItems());
+        for (StockItem item : items) {
+            System.out.println(index + ". " + item);
             index++;
         }
 
@@ -170,23 +167,53 @@ public class StockManagement {
         int choice = scanner.nextInt();
         scanner.nextLine();
 
-        if (choice < 1 || choice > itemNames.size()) {
+        if (choice < 1 || choice > items.size()) {
             System.out.println("Invalid choice.");
             return;
         }
 
-        String selectedItem = itemNames.get(choice - 1);
+        String selectedItem = items.get(choice - 1).getName();
         System.out.print("Enter quantity sold: ");
         int amount = scanner.nextInt();
-        stock.get(selectedItem).sell(amount);
-        System.out.println("Sale recorded for " + selectedItem + ".");
+        scanner.nextLine();
+        try {
+            inventory.sell(selectedItem, amount);
+            System.out.println("Sale recorded for " + selectedItem + ".");
+        } catch (InventoryException e) {
+            System.out.println(e.getMessage());
+        }
     }
 
     static void bestSellersReport() {
         System.out.println("\nBest Selling Items:");
-        stock.values().stream()
-                .sorted((a, b) -> Integer.compare(b.sold, a.sold))
-                .limit(3)
-                .forEach(System.out::println);
+        inventory.bestSellers(3).forEach(System.out::println);
+        System.out.println("\nTrending in the last 24 hours:");
+        for (HeavyHitters.Estimate estimate : inventory.trending(HeavyHitters.Window.DAY, 3)) {
+            System.out.println(estimate.getItem().getName() + " - about " + estimate.getUnits() + " units");
+        }
+        long now = StockClock.millis();
+        ReportEngine.Report categories = inventory.report(ReportEngine.GroupBy.CATEGORY, now - 30 * 86_400_000L, now);
+        System.out.println("\nTop categories in the last 30 days:");
+        for (ReportEngine.Row row : categories.top(3)) {
+            System.out.println(row.getLabel() + " - " + row.getUnits() + " units, " + Money.format(row.getRevenueCents()));
+        }
+    }
+
+    static void reorderReport() {
+        List<DemandForecaster.Forecast> suggestions = inventory.reorderSuggestions();
+        if (suggestions.isEmpty()) {
+            System.out.println("\nNothing needs reordering.");
+            return;
+        }
+        System.out.println("\nReorder Suggestions:");
+        for (DemandForecaster.Forecast forecast : suggestions) {
+            StockItem item = forecast.getItem();
+            String runsOut = Double.isInfinite(forecast.getDaysUntilStockout())
+                    ? "not selling"
+                    : String.format("runs out in %.1f days", forecast.getDaysUntilStockout());
+            System.out.println(String.format("%s - %d left, %s at %.1f a day; order %d",
+                    item.getName(), item.getQuantity(), runsOut, forecast.getDailyUnits(),
+                    forecast.getReorderQuantity()));
+        }
     }
 }
@@ -2,189 +2,32 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.List;
+import java.util.Locale;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.Date;
 import java.io.*;
-import java.text.SimpleDateFormat;
-import java.util.stream.Collectors;
-import java.util.Calendar;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableRowSorter;
 import javax.swing.table.TableModel;
 import javax.swing.RowSorter;
 
-class SaleRecord implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private final String itemName;
-    private final int quantity;
-    private final double price;
-    private final Date saleDate;
-
-    public SaleRecord(String itemName, int quantity, double price) {
-        this.itemName = itemName;
-        this.quantity = quantity;
-        this.price = price;
-        this.saleDate = new Date();
-    }
-
-    public String getItemName() {
-        return itemName;
-    }
-
-    public int getQuantity() {
-        return quantity;
-    }
-
-    public double getPrice() {
-        return price;
-    }
-
-    public Date getSaleDate() {
-        return saleDate;
-    }
-
-    public double getTotalAmount() {
-        return quantity * price;
-    }
-}
-
-class StockItem implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private final String name;
-    private int quantity;
-    private int sold;
-    private double price;
-    private int minimumStock;
-    private String category;
-    private String lastUpdated;
-    private final List<SaleRecord> salesHistory = new ArrayList<>();
-
-    public StockItem(String name, int quantity, double price, int minimumStock, String category) {
-        this.name = name;
-        this.quantity = Math.max(quantity, 0);
-        this.sold = 0;
-        this.price = price;
-        this.minimumStock = minimumStock;
-        this.category = category;
-        this.lastUpdated = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-    }
-
-    public String getName() {
-        return name;
-    }
-
-    public int getQuantity() {
-        return quantity;
-    }
-
-    public int getSold() {
-        return sold;
-    }
-
-    public double getPrice() {
-        return price;
-    }
-
-    public int getMinimumStock() {
-        return minimumStock;
-    }
-
-    public String getCategory() {
-        return category;
-    }
-
-    public String getLastUpdated() {
-        return lastUpdated;
-    }
-
-    public boolean isLowStock() {
-        return quantity <= minimumStock;
-    }
-
-    public void sell(int amount) {
-        if (amount > 0 && amount <= quantity) {
-            sold += amount;
-            quantity -= amount;
-            salesHistory.add(new SaleRecord(name, amount, price));
-        } else {
-            JOptionPane.showMessageDialog(null, "Not enough stock available.");
-        }
-    }
-
-    public void addStock(int amount) {
-        if (amount > 0) {
-            quantity += amount;
-        } else {
-            JOptionPane.showMessageDialog(null, "Invalid quantity. Must be greater than zero.");
-        }
-    }
-
-    public void setPrice(double price) {
-        this.price = price;
-        this.lastUpdated = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-    }
-
-    public void setMinimumStock(int minimumStock) {
-        this.minimumStock = minimumStock;
-        this.lastUpdated = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-    }
-
-    public void setCategory(String category) {
-        this.category = category;
-        this.lastUpdated = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-    }
-
-    public List<SaleRecord> getSalesHistory() {
-        return salesHistory;
-    }
-
-    public double getTotalSales() {
-        return salesHistory.stream()
-                .mapToDouble(SaleRecord::getTotalAmount)
-                .sum();
-    }
-
-    public int getTotalSold() {
-        return salesHistory.stream()
-                .mapToInt(SaleRecord::getQuantity)
-                .sum();
-    }
-
-    @Override
-    public String toString() {
-        return String.format("%s - Quantity: %d, Sold: %d, Price: $%.2f, Category: %s, Last Updated: %s",
-                name, quantity, sold, price, category, lastUpdated);
-    }
-}
-
-class User implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private final String username;
-    private final String password;
-    private final String role;
-
-    public User(String username, String password, String role) {
-        this.username = username;
-        this.password = password;
-        this.role = role;
-    }
-
-    public String getUsername() {
-        return username;
-    }
-
-    public boolean checkPassword(String inputPassword) {
-        return password.equals(inputPassword);
-    }
-
-    public String getRole() {
-        return role;
-    }
-}
-
 public class StockManagementGUI {
     private JFrame frame;
     private CardLayout cardLayout;
@@ -192,15 +35,26 @@ public class StockManagementGUI {
     private JTextField usernameField;
     private JPasswordField passwordField;
     private JTable stockTable;
-    private JButton addStockButton, sellStockButton, searchButton, filterButton, exportButton, salesReportButton;
+    private final StockTableModel tableModel = new StockTableModel();
+    private String displayedCategory = "All";
+    private JButton addStockButton, sellStockButton, searchButton, filterButton, exportButton, importButton, salesReportButton;
     private JTextField searchField;
     private JComboBox<String> categoryFilter;
-    private final Map<String, StockItem> stock = new HashMap<>();
-    private final List<User> users = new ArrayList<>();
+    private JCheckBox lowStockFilter;
+    private JButton lowStockBadge;
+    private JTextField minPriceField, maxPriceField;
+    private Inventory inventory;
+    private InventoryServer apiServer;
     private User loggedInUser = null;
+    private javax.swing.Timer searchTimer;
+    private JLabel totalsLabel;
+    private JProgressBar progressBar;
+    private JLabel progressLabel;
+    private JButton cancelTaskButton;
+    private String progressTask;
+    private final BackgroundTasks backgroundTasks = new BackgroundTasks(this::showTaskStatus);
 
     public StockManagementGUI() {
-        initializeUsers();
         initializeStockData();
         initializeGUI();
         setupLookAndFeel();
@@ -214,39 +68,34 @@ public class StockManagementGUI {
         }
     }
 
-    private void initializeUsers() {
-        users.clear();
-        users.add(new User("manager", "manager123", "Manager"));
-        users.add(new User("worker", "worker123", "Worker"));
-        System.out.println("Created default users");
-    }
-
     private void initializeStockData() {
-        // Create some sample stock items
-        stock.clear();
-        stock.put("Laptop", new StockItem("Laptop", 10, 999.99, 2, "Electronics"));
-        stock.put("Smartphone", new StockItem("Smartphone", 15, 699.99, 3, "Electronics"));
-        stock.put("T-Shirt", new StockItem("T-Shirt", 50, 19.99, 10, "Clothing"));
-        stock.put("Jeans", new StockItem("Jeans", 30, 49.99, 5, "Clothing"));
-        stock.put("Coffee", new StockItem("Coffee", 100, 9.99, 20, "Food"));
-        stock.put("Bread", new StockItem("Bread", 40, 3.99, 15, "Food"));
-        System.out.println("Created sample stock data with " + stock.size() + " items");
-    }
-
-    private void validateStockData() {
-        List<String> invalidItems = new ArrayList<>();
-        for (Map.Entry<String, StockItem> entry : stock.entrySet()) {
-            StockItem item = entry.getValue();
-            if (item == null || item.getName() == null || item.getName().trim().isEmpty()) {
-                invalidItems.add(entry.getKey());
+        inventory = Inventory.open(Paths.get(System.getProperty("stock.dataDir", "stock-data")));
+        // New items and imports reject blank names, so only stored data can
+        // hold one; checking once here keeps the walk off the sale path
+        inventory.removeInvalidItems();
+        inventory.addSampleItems();
+
+        // Tills can sell against this inventory over HTTP while the dashboard is open
+        String apiPort = System.getProperty("stock.httpPort");
+        if (apiPort != null) {
+            try {
+                apiServer = new InventoryServer(inventory, new InetSocketAddress(
+                        System.getProperty("stock.httpHost", "127.0.0.1"), Integer.parseInt(apiPort)));
+                apiServer.start();
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
             }
         }
+    }
 
-        if (!invalidItems.isEmpty()) {
-            System.out.println("Found " + invalidItems.size() + " invalid items in stock data");
-            for (String itemName : invalidItems) {
-                stock.remove(itemName);
-            }
+    private void closeInventory() {
+        if (apiServer != null) {
+            apiServer.stop();
+        }
+        try {
+            inventory.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -262,6 +111,16 @@ public class StockManagementGUI {
         setupDashboardPanel();
 
         frame.add(mainPanel);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeInventory();
+            }
+        });
+
+        // Compacts the journal off the EDT, as a snapshot write can take a while
+        inventory.scheduleCheckpoints(60_000);
+
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
     }
@@ -321,6 +180,10 @@ public class StockManagementGUI {
         categoryFilter = new JComboBox<>(new String[] { "All", "Electronics", "Clothing", "Food", "Other" });
         filterButton = new JButton("Filter");
 
+        // Search as you type, once typing pauses
+        searchTimer = new javax.swing.Timer(150, e -> searchStock());
+        searchTimer.setRepeats(false);
+
         // Add input validation for search field
         searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
             public void changedUpdate(javax.swing.event.DocumentEvent e) {
@@ -328,10 +191,12 @@ public class StockManagementGUI {
             }
 
             public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
                 validateSearch();
             }
 
             public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
                 validateSearch();
             }
 
@@ -350,29 +215,79 @@ public class StockManagementGUI {
         topPanel.add(categoryFilter);
         topPanel.add(filterButton);
 
-        // Stock display with table
-        String[] columns = { "Name", "Quantity", "Price", "Category", "Last Updated" };
-        Object[][] data = {};
-        stockTable = new JTable(new StockTableModel(data, columns));
-        stockTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Second row: price range and low stock, combined with search and category
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        minPriceField = new JTextField(6);
+        maxPriceField = new JTextField(6);
+        lowStockFilter = new JCheckBox("Low stock only");
+        filterPanel.add(new JLabel("Price from:"));
+        filterPanel.add(minPriceField);
+        filterPanel.add(new JLabel("to:"));
+        filterPanel.add(maxPriceField);
+        filterPanel.add(lowStockFilter);
+        minPriceField.addActionListener(e -> filterStock());
+        maxPriceField.addActionListener(e -> filterStock());
+        lowStockFilter.addActionListener(e -> filterStock());
+
+        // Reorder badge, kept current by alert events; clicking it shows the low items
+        lowStockBadge = new JButton();
+        lowStockBadge.setFocusPainted(false);
+        lowStockBadge.setToolTipText("Show only items at or below their minimum stock");
+        lowStockBadge.addActionListener(e -> {
+            lowStockFilter.setSelected(true);
+            filterStock();
+        });
+        filterPanel.add(lowStockBadge);
+        updateLowStockBadge();
+        inventory.addLowStockListener(new LowStockListener() {
+            @Override
+            public void lowStock(StockItem item) {
+                SwingUtilities.invokeLater(StockManagementGUI.this::updateLowStockBadge);
+            }
+
+            @Override
+            public void alertCleared(StockItem item) {
+                SwingUtilities.invokeLater(StockManagementGUI.this::updateLowStockBadge);
+            }
+        });
+
+        JPanel filtersPanel = new JPanel(new GridLayout(2, 1));
+        filtersPanel.add(topPanel);
+        filtersPanel.add(filterPanel);
+
+        // Stock display with table; the model follows item changes directly
+        inventory.addListener(tableModel);
+        stockTable = new JTable(tableModel);
+        stockTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         stockTable.getTableHeader().setReorderingAllowed(false);
         stockTable.setSelectionBackground(new Color(230, 240, 255));
         stockTable.setSelectionForeground(Color.BLACK);
 
-        // Enable sorting
-        TableRowSorter<TableModel> sorter = new TableRowSorter<>(stockTable.getModel());
+        // Enable sorting; rows are re-sorted in place when an item changes
+        TableRowSorter<TableModel> sorter = new TableRowSorter<>(tableModel);
+        sorter.setSortsOnUpdates(true);
         stockTable.setRowSorter(sorter);
         sorter.toggleSortOrder(0); // Toggle to ascending order
 
-        // Add error handling for table operations
-        stockTable.getModel().addTableModelListener(e -> {
-            try {
-                validateStockData();
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame,
-                        "Error validating stock data: " + ex.getMessage(),
-                        "Error",
-                        JOptionPane.ERROR_MESSAGE);
+        stockTable.getColumnModel().getColumn(2).setCellRenderer(new DefaultTableCellRenderer() {
+            @Override
+            public Component getTableCellRendererComponent(JTable table, Object value,
+                    boolean isSelected, boolean hasFocus, int row, int column) {
+                if (value instanceof Long) {
+                    value = Money.format((Long) value);
+                }
+                return super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            }
+        });
+        // Timestamps are kept as millis and only formatted here, as rows are painted
+        stockTable.getColumnModel().getColumn(4).setCellRenderer(new DefaultTableCellRenderer() {
+            @Override
+            public Component getTableCellRendererComponent(JTable table, Object value,
+                    boolean isSelected, boolean hasFocus, int row, int column) {
+                if (value instanceof Long) {
+                    value = StockClock.format((Long) value);
+                }
+                return super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
             }
         });
 
@@ -384,6 +299,7 @@ public class StockManagementGUI {
         addStockButton = new JButton("Add Stock");
         sellStockButton = new JButton("Sell Stock");
         exportButton = new JButton("Export Data");
+        importButton = new JButton("Import Data");
         salesReportButton = new JButton("Sales Report");
         JButton logoutButton = new JButton("Logout");
 
@@ -391,11 +307,13 @@ public class StockManagementGUI {
         addStockButton.setEnabled(false);
         sellStockButton.setEnabled(false);
         exportButton.setEnabled(false);
+        importButton.setEnabled(false);
         salesReportButton.setEnabled(false);
 
         buttonPanel.add(addStockButton);
         buttonPanel.add(sellStockButton);
         buttonPanel.add(exportButton);
+        buttonPanel.add(importButton);
         buttonPanel.add(salesReportButton);
         buttonPanel.add(logoutButton);
 
@@ -408,10 +326,36 @@ public class StockManagementGUI {
             }
         });
 
+        // Store-wide or per-category sales totals
+        totalsLabel = new JLabel();
+
+        // Progress of background tasks (export, reports)
+        JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        progressLabel = new JLabel();
+        progressBar = new JProgressBar(0, 100);
+        cancelTaskButton = new JButton("Cancel");
+        cancelTaskButton.addActionListener(e -> {
+            if (progressTask != null) {
+                backgroundTasks.cancel(progressTask);
+            }
+        });
+        progressPanel.add(progressLabel);
+        progressPanel.add(progressBar);
+        progressPanel.add(cancelTaskButton);
+        showTaskStatus(null, 0, null, false);
+
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(totalsLabel, BorderLayout.WEST);
+        statusPanel.add(progressPanel, BorderLayout.EAST);
+
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(statusPanel, BorderLayout.NORTH);
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
+
         // Add components to dashboard
-        dashboardPanel.add(topPanel, BorderLayout.NORTH);
+        dashboardPanel.add(filtersPanel, BorderLayout.NORTH);
         dashboardPanel.add(scrollPane, BorderLayout.CENTER);
-        dashboardPanel.add(buttonPanel, BorderLayout.SOUTH);
+        dashboardPanel.add(southPanel, BorderLayout.SOUTH);
 
         mainPanel.add(dashboardPanel, "Dashboard");
 
@@ -419,6 +363,7 @@ public class StockManagementGUI {
         addStockButton.addActionListener(e -> handleStockAddition());
         sellStockButton.addActionListener(e -> handleStockSale());
         exportButton.addActionListener(e -> exportStockData());
+        importButton.addActionListener(e -> importData());
         searchButton.addActionListener(e -> searchStock());
         filterButton.addActionListener(e -> filterStock());
         salesReportButton.addActionListener(e -> showSalesReport());
@@ -428,69 +373,98 @@ public class StockManagementGUI {
         refreshStockDisplay();
     }
 
+    // Search and filter both apply every filter control together
     private void searchStock() {
-        String searchTerm = searchField.getText().toLowerCase().trim();
-        refreshStockDisplay(searchTerm);
+        filterStock();
     }
 
     private void filterStock() {
-        String category = (String) categoryFilter.getSelectedItem();
-        if (category != null && !"All".equals(category)) {
-            refreshStockDisplay("", category);
-        } else {
-            refreshStockDisplay();
+        StockQueryEngine.Query query;
+        try {
+            query = new StockQueryEngine.Query()
+                    .text(searchField.getText().toLowerCase(Locale.ROOT))
+                    .category((String) categoryFilter.getSelectedItem())
+                    .lowStockOnly(lowStockFilter.isSelected())
+                    .priceRange(parsePriceBound(minPriceField, Long.MIN_VALUE),
+                            parsePriceBound(maxPriceField, Long.MAX_VALUE));
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(frame, "Invalid price: " + e.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        refreshStockDisplay(query);
+    }
+
+    private static long parsePriceBound(JTextField field, long unbounded) {
+        String text = field.getText().trim();
+        if (text.isEmpty()) {
+            return unbounded;
+        }
+        long price = Money.parse(text);
+        if (price < 0) {
+            throw new NumberFormatException("Price cannot be negative");
         }
+        return price;
     }
 
     private void refreshStockDisplay() {
-        refreshStockDisplay("", "All");
+        refreshStockDisplay(new StockQueryEngine.Query());
     }
 
-    private void refreshStockDisplay(String searchTerm) {
-        refreshStockDisplay(searchTerm, "All");
+    private void refreshStockDisplay(StockQueryEngine.Query query) {
+        // Evaluate against the indexes in the background; a newer refresh supersedes this one
+        tableModel.beginRefresh();
+        backgroundTasks.submit("refresh", progress -> inventory.query(query),
+                items -> showStockData(items, query::matches, query.getCategory()), null);
     }
 
-    private void refreshStockDisplay(String searchTerm, String category) {
-        List<StockItem> filteredItems = new ArrayList<>();
-        for (StockItem item : stock.values()) {
-            if ((searchTerm.isEmpty() || item.getName().toLowerCase().contains(searchTerm)) &&
-                    (category == null || "All".equals(category) || item.getCategory().equals(category))) {
-                filteredItems.add(item);
-            }
-        }
+    private void showStockData(List<StockItem> items, Predicate<StockItem> filter, String category) {
+        // Keep the selected item selected if it is still shown
+        int selectedRow = stockTable.getSelectedRow();
+        StockItem selected = selectedRow == -1 ? null
+                : tableModel.getItemAt(stockTable.convertRowIndexToModel(selectedRow));
+
+        tableModel.setRows(items, filter);
+        displayedCategory = category;
 
-        Object[][] data = new Object[filteredItems.size()][5];
-        for (int i = 0; i < filteredItems.size(); i++) {
-            StockItem item = filteredItems.get(i);
-            data[i] = new Object[] {
-                    item.getName(),
-                    item.getQuantity(),
-                    item.getPrice(),
-                    item.getCategory(),
-                    item.getLastUpdated()
-            };
+        int row = selected == null ? -1 : tableModel.indexOf(selected);
+        if (row != -1) {
+            int viewRow = stockTable.convertRowIndexToView(row);
+            stockTable.setRowSelectionInterval(viewRow, viewRow);
+            stockTable.scrollRectToVisible(stockTable.getCellRect(viewRow, 0, true));
         }
+        updateTotals(category);
+    }
 
-        // Create new model and set it
-        StockTableModel model = new StockTableModel(data,
-                new String[] { "Name", "Quantity", "Price", "Category", "Last Updated" });
-        stockTable.setModel(model);
+    private void updateLowStockBadge() {
+        int count = inventory.getLowStockCount();
+        lowStockBadge.setText(count == 1 ? "1 item low on stock" : count + " items low on stock");
+        lowStockBadge.setForeground(count > 0 ? new Color(180, 0, 0) : Color.DARK_GRAY);
+    }
 
-        // Re-enable sorting
-        TableRowSorter<TableModel> sorter = new TableRowSorter<>(model);
-        stockTable.setRowSorter(sorter);
+    private void updateTotals(String category) {
+        boolean allCategories = category == null || "All".equals(category);
+        SalesAggregates.Totals totals = inventory.getTotals(category);
+        totalsLabel.setText(String.format("%s: %d items, %d units sold, Revenue: %s",
+                allCategories ? "All categories" : category,
+                totals.getItems(), totals.getUnitsSold(), Money.format(totals.getRevenueCents())));
+    }
 
-        // Set column renderers
-        stockTable.getColumnModel().getColumn(2).setCellRenderer(new DefaultTableCellRenderer() {
-            @Override
-            public Component getTableCellRendererComponent(JTable table, Object value,
-                    boolean isSelected, boolean hasFocus, int row, int column) {
-                if (value instanceof Number) {
-                    value = String.format("$%.2f", (Number) value);
-                }
-                return super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
-            }
-        });
+    private void showTaskStatus(String key, int percent, String message, boolean running) {
+        if (running && message != null) {
+            progressTask = key;
+            progressLabel.setText(message);
+            progressBar.setValue(percent);
+        } else if (!running && key != null && !key.equals(progressTask)) {
+            return;
+        }
+        boolean visible = running && message != null;
+        if (!visible) {
+            progressTask = null;
+        }
+        progressLabel.setVisible(visible);
+        progressBar.setVisible(visible);
+        cancelTaskButton.setVisible(visible);
     }
 
     private void exportStockData() {
@@ -499,18 +473,86 @@ public class StockManagementGUI {
             return;
         }
 
-        try (PrintWriter writer = new PrintWriter(new FileWriter("stock_report.csv"))) {
-            writer.println("Name,Quantity,Price,Category,Last Updated,Total Sold,Total Sales");
-            for (StockItem item : stock.values()) {
-                writer.printf("%s,%d,%.2f,%s,%s,%d,%.2f%n",
-                        item.getName(), item.getQuantity(), item.getPrice(),
-                        item.getCategory(), item.getLastUpdated(),
-                        item.getTotalSold(), item.getTotalSales());
+        String[] options = { "Stock Only", "Stock + Sales History", "Stock + Sales History (gzip)", "Cancel" };
+        int choice = JOptionPane.showOptionDialog(frame, "What would you like to export?", "Export Data",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+        if (choice < 0 || choice == 3) {
+            return;
+        }
+        boolean includeHistory = choice > 0;
+        boolean gzip = choice == 2;
+
+        List<StockItem> items = new ArrayList<>(inventory.getItems());
+        backgroundTasks.submit("export", progress -> {
+            StringBuilder message = new StringBuilder();
+            long rows = CsvExporter.exportStock(items, Paths.get("stock_report.csv"), progress);
+            message.append("Exported ").append(rows).append(" items to stock_report.csv");
+            if (includeHistory) {
+                String historyFile = gzip ? "sales_history.csv.gz" : "sales_history.csv";
+                rows = CsvExporter.exportSalesHistory(items, Paths.get(historyFile), gzip, progress);
+                message.append("\nExported ").append(rows).append(" sales to ").append(historyFile);
             }
-            JOptionPane.showMessageDialog(frame, "Stock data exported to stock_report.csv");
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(frame, "Error exporting data: " + e.getMessage());
+            return message.toString();
+        }, message -> JOptionPane.showMessageDialog(frame, message),
+                e -> JOptionPane.showMessageDialog(frame, "Error exporting data: " + e.getMessage()));
+    }
+
+    private void importData() {
+        if (!"Manager".equals(loggedInUser.getRole())) {
+            JOptionPane.showMessageDialog(frame, "Only managers can import data.");
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser(new File("."));
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        String[] options = { "Stock Items", "Sales History", "Cancel" };
+        int choice = JOptionPane.showOptionDialog(frame, "What does " + chooser.getSelectedFile().getName()
+                + " contain?", "Import Data", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE,
+                null, options, options[0]);
+        if (choice < 0 || choice == 2) {
+            return;
         }
+        BulkImporter.Kind kind = choice == 0 ? BulkImporter.Kind.STOCK : BulkImporter.Kind.SALES;
+
+        // Parsing and applying both run in the background. The inventory is safe
+        // to change from any thread, and the table model collects the events
+        // into one coalesced update on the EDT, so the import never waits on it.
+        BulkImporter.Target target = new BulkImporter.Target() {
+            @Override
+            public void inBatch(Runnable batch) {
+                batch.run();
+            }
+
+            @Override
+            public StockItem get(String name) {
+                return inventory.findItem(name);
+            }
+
+            @Override
+            public void add(StockItem item) {
+                inventory.addItem(item);
+            }
+
+            @Override
+            public void importSales(StockItem item, long[] times, int[] quantities, long[] prices, int count) {
+                inventory.importSales(item, times, quantities, prices, count);
+            }
+        };
+        backgroundTasks.submit("import", progress -> {
+            BulkImporter.Result result = new BulkImporter()
+                    .importFile(chooser.getSelectedFile().toPath(), kind, target, progress);
+            if (kind == BulkImporter.Kind.SALES) {
+                // Index rebuild and snapshot, kept off the EDT
+                progress.update(100, "Rebuilding indexes");
+                inventory.salesImported();
+            }
+            return result;
+        }, result -> {
+            updateTotals(displayedCategory);
+            JOptionPane.showMessageDialog(frame, result.summary());
+        }, e -> JOptionPane.showMessageDialog(frame, "Error importing data: " + e.getMessage()));
     }
 
     private void showSalesReport() {
@@ -521,29 +563,26 @@ public class StockManagementGUI {
 
         JDialog dialog = new JDialog(frame, "Sales Report", true);
         dialog.setLayout(new BorderLayout(10, 10));
-        dialog.setSize(600, 400);
+        dialog.setSize(720, 400);
 
         // Date range panel
         JPanel datePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JTextField startDateField = new JTextField(10);
         JTextField endDateField = new JTextField(10);
+        JComboBox<String> groupByBox = new JComboBox<>(new String[] { "Item", "Category", "Day", "Hour" });
         JButton generateButton = new JButton("Generate Report");
 
-        // Set default dates (last 30 days)
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.DAY_OF_MONTH, 1); // Tomorrow
-        String defaultEndDate = dateFormat.format(calendar.getTime());
-        calendar.add(Calendar.DAY_OF_MONTH, -30); // 30 days before tomorrow
-        String defaultStartDate = dateFormat.format(calendar.getTime());
-
-        startDateField.setText(defaultStartDate);
-        endDateField.setText(defaultEndDate);
+        // Set default dates (last 30 days, through tomorrow)
+        LocalDate tomorrow = LocalDate.now(StockClock.getClock()).plusDays(1);
+        startDateField.setText(tomorrow.minusDays(30).toString());
+        endDateField.setText(tomorrow.toString());
 
         datePanel.add(new JLabel("Start Date (yyyy-MM-dd):"));
         datePanel.add(startDateField);
         datePanel.add(new JLabel("End Date (yyyy-MM-dd):"));
         datePanel.add(endDateField);
+        datePanel.add(new JLabel("Group by:"));
+        datePanel.add(groupByBox);
         datePanel.add(generateButton);
 
         // Report display area
@@ -556,69 +595,81 @@ public class StockManagementGUI {
         dialog.add(scrollPane, BorderLayout.CENTER);
 
         generateButton.addActionListener(e -> {
+            LocalDate startDate;
+            LocalDate endDate;
             try {
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                Date startDate = sdf.parse(startDateField.getText());
-
-                // Create end date with time set to end of day
-                Calendar endCal = Calendar.getInstance();
-                endCal.setTime(sdf.parse(endDateField.getText()));
-                endCal.set(Calendar.HOUR_OF_DAY, 23);
-                endCal.set(Calendar.MINUTE, 59);
-                endCal.set(Calendar.SECOND, 59);
-                final Date endDate = endCal.getTime();
-
-                // Collect all sales records within the date range
-                List<SaleRecord> periodSales = new ArrayList<>();
-                for (StockItem item : stock.values()) {
-                    periodSales.addAll(item.getSalesHistory().stream()
-                            .filter(sale -> !sale.getSaleDate().before(startDate) &&
-                                    !sale.getSaleDate().after(endDate))
-                            .collect(Collectors.toList()));
-                }
+                startDate = LocalDate.parse(startDateField.getText().trim());
+                endDate = LocalDate.parse(endDateField.getText().trim());
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(dialog,
+                        "Please enter valid dates in the format yyyy-MM-dd");
+                return;
+            }
 
-                // Group sales by item and calculate totals
-                Map<String, Integer> quantityByItem = new HashMap<>();
-                Map<String, Double> revenueByItem = new HashMap<>();
+            // Report covers the whole end date, up to the start of the next day
+            ZoneId zone = StockClock.getZone();
+            final long startMillis = startDate.atStartOfDay(zone).toInstant().toEpochMilli();
+            final long endMillis = endDate.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
 
-                for (SaleRecord sale : periodSales) {
-                    quantityByItem.merge(sale.getItemName(), sale.getQuantity(), Integer::sum);
-                    revenueByItem.merge(sale.getItemName(), sale.getTotalAmount(), Double::sum);
-                }
+            ReportEngine.GroupBy groupBy = ReportEngine.GroupBy.values()[groupByBox.getSelectedIndex()];
 
+            reportArea.setText("Generating report...");
+            backgroundTasks.submit("report", progress -> {
                 // Generate report
                 StringBuilder report = new StringBuilder();
                 report.append("Sales Report for Period: ")
-                        .append(sdf.format(startDate))
+                        .append(startDate)
                         .append(" to ")
-                        .append(sdf.format(endDate))
+                        .append(endDate)
                         .append("\n\n");
 
-                report.append("Most Sold Items:\n");
-                report.append("----------------------------------------\n");
-                quantityByItem.entrySet().stream()
-                        .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue()))
-                        .limit(5)
-                        .forEach(entry -> {
-                            report.append(String.format("%s: %d units, Revenue: $%.2f\n",
-                                    entry.getKey(),
-                                    entry.getValue(),
-                                    revenueByItem.get(entry.getKey())));
-                        });
+                long units;
+                long revenueCents;
+                if (groupBy == ReportEngine.GroupBy.ITEM) {
+                    // Sum pre-aggregated day/hour buckets for the date range
+                    SalesRollupIndex.Report periodSales = inventory.salesReport(startMillis, endMillis);
+                    report.append("Most Sold Items:\n");
+                    report.append("----------------------------------------\n");
+                    for (SalesRollupIndex.ItemSales sales : periodSales.top(5)) {
+                        report.append(sales.getItem().getName())
+                                .append(": ").append(sales.getUnits()).append(" units, Revenue: ");
+                        Money.append(report, sales.getRevenueCents()).append('\n');
+                    }
+                    units = periodSales.getUnits();
+                    revenueCents = periodSales.getRevenueCents();
+                } else {
+                    // The rollup only keeps items, so other groupings scan the history across all cores
+                    ReportEngine.Report periodSales = inventory.report(groupBy, startMillis, endMillis);
+                    // Categories are ranked; days and hours listed in order
+                    boolean ranked = groupBy == ReportEngine.GroupBy.CATEGORY;
+                    report.append(ranked ? "Most Sold Categories:\n"
+                            : groupBy == ReportEngine.GroupBy.DAY ? "Sales by Day:\n" : "Sales by Hour:\n");
+                    report.append("----------------------------------------\n");
+                    for (ReportEngine.Row row : ranked ? periodSales.top(5) : periodSales.getRows()) {
+                        report.append(row.getLabel())
+                                .append(": ").append(row.getUnits()).append(" units, Revenue: ");
+                        Money.append(report, row.getRevenueCents()).append('\n');
+                    }
+                    units = periodSales.getUnits();
+                    revenueCents = periodSales.getRevenueCents();
+                }
 
                 report.append("\nTotal Sales Summary:\n");
                 report.append("----------------------------------------\n");
-                report.append(String.format("Total Items Sold: %d\n",
-                        quantityByItem.values().stream().mapToInt(Integer::intValue).sum()));
-                report.append(String.format("Total Revenue: $%.2f\n",
-                        revenueByItem.values().stream().mapToDouble(Double::doubleValue).sum()));
+                report.append(String.format("Total Items Sold: %d\n", units));
+                report.append("Total Revenue: ");
+                Money.append(report, revenueCents).append('\n');
+                return report.toString();
+            }, reportArea::setText, ex -> reportArea.setText("Error generating report: " + ex.getMessage()));
+        });
 
-                reportArea.setText(report.toString());
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(dialog,
-                        "Please enter valid dates in the format yyyy-MM-dd");
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                backgroundTasks.cancel("report");
             }
         });
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
 
         dialog.setLocationRelativeTo(frame);
         dialog.setVisible(true);
@@ -628,10 +679,11 @@ public class StockManagementGUI {
         String username = usernameField.getText().trim();
         String password = new String(passwordField.getPassword());
 
-        loggedInUser = users.stream()
-                .filter(user -> user.getUsername().equals(username) && user.checkPassword(password))
-                .findFirst()
-                .orElse(null);
+        try {
+            loggedInUser = inventory.authenticate(username, password);
+        } catch (AuthenticationException e) {
+            loggedInUser = null;
+        }
 
         if (loggedInUser != null) {
             JOptionPane.showMessageDialog(frame, "Login successful! Role: " + loggedInUser.getRole());
@@ -640,6 +692,7 @@ public class StockManagementGUI {
             addStockButton.setEnabled("Manager".equals(loggedInUser.getRole()));
             sellStockButton.setEnabled(false); // Initially disabled until item is selected
             exportButton.setEnabled("Manager".equals(loggedInUser.getRole()));
+            importButton.setEnabled("Manager".equals(loggedInUser.getRole()));
             salesReportButton.setEnabled("Manager".equals(loggedInUser.getRole()));
 
             cardLayout.show(mainPanel, "Dashboard");
@@ -680,27 +733,18 @@ public class StockManagementGUI {
             try {
                 String name = nameField.getText().trim();
                 int quantity = Integer.parseInt(quantityField.getText());
-                double price = Double.parseDouble(priceField.getText());
+                double price = Money.toDouble(Money.parse(priceField.getText()));
                 int minStock = Integer.parseInt(minStockField.getText());
                 String category = (String) categoryCombo.getSelectedItem();
 
-                if (name.isEmpty()) {
-                    throw new IllegalArgumentException("Name cannot be empty");
-                }
-
-                if (stock.containsKey(name)) {
-                    throw new IllegalArgumentException("An item with this name already exists");
-                }
-
-                StockItem item = new StockItem(name, quantity, price, minStock, category);
-                stock.put(name, item);
-                refreshStockDisplay();
+                inventory.addItem(name, quantity, price, minStock, category);
+                updateTotals(displayedCategory);
                 dialog.dispose();
                 JOptionPane.showMessageDialog(frame, "Stock added successfully!");
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(dialog,
                         "Please enter valid numbers for quantity, price, and minimum stock.");
-            } catch (IllegalArgumentException ex) {
+            } catch (InventoryException ex) {
                 JOptionPane.showMessageDialog(dialog, ex.getMessage());
             }
         });
@@ -722,9 +766,13 @@ public class StockManagementGUI {
             JOptionPane.showMessageDialog(frame, "Please select an item to sell.");
             return;
         }
+        if (stockTable.getSelectedRowCount() > 1) {
+            handleBasketSale();
+            return;
+        }
 
-        String itemName = (String) stockTable.getValueAt(selectedRow, 0);
-        StockItem item = stock.get(itemName);
+        StockItem item = tableModel.getItemAt(stockTable.convertRowIndexToModel(selectedRow));
+        String itemName = item.getName();
 
         JDialog dialog = new JDialog(frame, "Sell Stock", true);
         dialog.setLayout(new BorderLayout(10, 10));
@@ -745,7 +793,7 @@ public class StockManagementGUI {
         detailsPanel.add(new JLabel("Available Quantity:"));
         detailsPanel.add(new JLabel(String.valueOf(item.getQuantity())));
         detailsPanel.add(new JLabel("Price per Unit:"));
-        detailsPanel.add(new JLabel(String.format("$%.2f", item.getPrice())));
+        detailsPanel.add(new JLabel(Money.format(item.getPriceCents())));
 
         // Sale input panel
         JPanel inputPanel = new JPanel(new GridLayout(2, 2, 5, 5));
@@ -777,8 +825,8 @@ public class StockManagementGUI {
                 try {
                     int quantity = Integer.parseInt(quantityField.getText());
                     if (quantity > 0) {
-                        double total = quantity * item.getPrice();
-                        totalLabel.setText(String.format("Total: $%.2f", total));
+                        long total = Money.times(item.getPriceCents(), quantity);
+                        totalLabel.setText("Total: " + Money.format(total));
                     } else {
                         totalLabel.setText("Total: $0.00");
                     }
@@ -814,20 +862,16 @@ public class StockManagementGUI {
                 if (quantity <= 0) {
                     throw new NumberFormatException("Quantity must be greater than zero");
                 }
-                if (quantity > item.getQuantity()) {
-                    throw new IllegalArgumentException("Not enough stock available");
-                }
-
-                item.sell(quantity);
-                validateStockData();
-                refreshStockDisplay();
+                // Fails cleanly if another till sold the stock since the dialog opened
+                SaleRecord sale = inventory.sell(itemName, quantity);
+                updateTotals(displayedCategory);
                 dialog.dispose();
                 JOptionPane.showMessageDialog(frame,
-                        String.format("Successfully sold %d units of %s for $%.2f",
-                                quantity, itemName, quantity * item.getPrice()));
+                        String.format("Successfully sold %d units of %s for %s",
+                                quantity, itemName, Money.format(sale.getTotalCents())));
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(dialog, "Please enter a valid quantity.");
-            } catch (IllegalArgumentException ex) {
+            } catch (InventoryException ex) {
                 JOptionPane.showMessageDialog(dialog, ex.getMessage());
             }
         });
@@ -838,6 +882,106 @@ public class StockManagementGUI {
         dialog.setVisible(true);
     }
 
+    // Several rows selected: sell them together as one basket, all or nothing
+    private void handleBasketSale() {
+        int[] selectedRows = stockTable.getSelectedRows();
+        List<StockItem> items = new ArrayList<>();
+        for (int row : selectedRows) {
+            items.add(tableModel.getItemAt(stockTable.convertRowIndexToModel(row)));
+        }
+
+        JDialog dialog = new JDialog(frame, "Sell Basket", true);
+        dialog.setLayout(new BorderLayout(10, 10));
+
+        JPanel linesPanel = new JPanel(new GridLayout(items.size() + 1, 4, 5, 5));
+        linesPanel.setBorder(BorderFactory.createTitledBorder("Basket"));
+        linesPanel.add(new JLabel("Item"));
+        linesPanel.add(new JLabel("Available"));
+        linesPanel.add(new JLabel("Price"));
+        linesPanel.add(new JLabel("Quantity"));
+
+        List<JTextField> quantityFields = new ArrayList<>();
+        JLabel totalLabel = new JLabel();
+        Runnable updateTotal = () -> {
+            long total = 0;
+            for (int i = 0; i < items.size(); i++) {
+                try {
+                    int quantity = Integer.parseInt(quantityFields.get(i).getText().trim());
+                    if (quantity > 0) {
+                        total += Money.times(items.get(i).getPriceCents(), quantity);
+                    }
+                } catch (NumberFormatException ex) {
+                    // Lines without a valid quantity add nothing
+                }
+            }
+            totalLabel.setText("Total: " + Money.format(total));
+        };
+        javax.swing.event.DocumentListener totalUpdater = new javax.swing.event.DocumentListener() {
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                updateTotal.run();
+            }
+
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                updateTotal.run();
+            }
+
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                updateTotal.run();
+            }
+        };
+        for (StockItem item : items) {
+            JTextField quantityField = new JTextField("1");
+            quantityField.getDocument().addDocumentListener(totalUpdater);
+            quantityFields.add(quantityField);
+            linesPanel.add(new JLabel(item.getName()));
+            linesPanel.add(new JLabel(String.valueOf(item.getQuantity())));
+            linesPanel.add(new JLabel(Money.format(item.getPriceCents())));
+            linesPanel.add(quantityField);
+        }
+        updateTotal.run();
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        JButton submitButton = new JButton("Complete Sale");
+        JButton cancelButton = new JButton("Cancel");
+        buttonPanel.add(totalLabel);
+        buttonPanel.add(submitButton);
+        buttonPanel.add(cancelButton);
+
+        dialog.add(new JScrollPane(linesPanel), BorderLayout.CENTER);
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+
+        submitButton.addActionListener(e -> {
+            Basket basket = new Basket();
+            try {
+                for (int i = 0; i < items.size(); i++) {
+                    basket.add(items.get(i).getName(), Integer.parseInt(quantityFields.get(i).getText().trim()));
+                }
+                List<SaleRecord> sales = inventory.sellBasket(basket);
+                updateTotals(displayedCategory);
+                dialog.dispose();
+                long total = 0;
+                int units = 0;
+                for (SaleRecord sale : sales) {
+                    total += sale.getTotalCents();
+                    units += sale.getQuantity();
+                }
+                JOptionPane.showMessageDialog(frame,
+                        String.format("Successfully sold %d units of %d items for %s",
+                                units, sales.size(), Money.format(total)));
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(dialog, "Please enter a valid quantity for every item.");
+            } catch (InventoryException ex) {
+                JOptionPane.showMessageDialog(dialog, "Nothing was sold. " + ex.getMessage());
+            }
+        });
+        cancelButton.addActionListener(e -> dialog.dispose());
+
+        dialog.pack();
+        dialog.setSize(Math.max(dialog.getWidth(), 450), Math.min(dialog.getHeight(), 500));
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
     private void logout() {
         loggedInUser = null;
         usernameField.setText("");
@@ -847,6 +991,7 @@ public class StockManagementGUI {
         addStockButton.setEnabled(false);
         sellStockButton.setEnabled(false);
         exportButton.setEnabled(false);
+        importButton.setEnabled(false);
         salesReportButton.setEnabled(false);
 
         cardLayout.show(mainPanel, "Login");
@@ -857,33 +1002,71 @@ public class StockManagementGUI {
     }
 }
 
-class StockTableModel extends javax.swing.table.AbstractTableModel {
-    private final String[] columns;
-    private final Object[][] data;
-
-    public StockTableModel(Object[][] data, String[] columns) {
-        this.data = data;
-        this.columns = columns;
+// Table rows are the StockItems themselves; cells are read live from the item,
+// so a change to one item repaints one row instead of rebuilding the table.
+// Rows are kept in sync through item events. The filter decides which items
+// are shown; replacing the row set is done with setRows() after a search.
+// All row changes happen on the EDT; events from other threads are handed over.
+class StockTableModel extends javax.swing.table.AbstractTableModel implements StockItemListener {
+    private static final String[] COLUMNS = { "Name", "Quantity", "Price", "Category", "Last Updated" };
+    // Beyond this many runs of changed rows in a batch, one event spans them all
+    private static final int MAX_UPDATE_EVENTS = 32;
+
+    private final List<StockItem> rows = new ArrayList<>();
+    private final Map<StockItem, Integer> rowIndex = new IdentityHashMap<>();
+    private Predicate<StockItem> filter = item -> true;
+    // Items added while a background refresh is filtering an older snapshot
+    private List<StockItem> addedDuringRefresh;
+    private boolean inBatch;
+    // Rows changed in the current batch, reported as runs at its end
+    private final BitSet batchUpdated = new BitSet();
+    private boolean batchRemoved;
+
+    // Events from other threads are collected and applied on the EDT in one
+    // batch, so a burst of sales costs one invokeLater and one table event
+    // rather than one per sale. Events on the EDT are queued too while a flush
+    // is waiting, to keep them behind the ones before them. Changes, which is
+    // what sales raise, go into a concurrent set without taking the lock.
+    private static class Pending {
+        final Set<StockItem> added = new LinkedHashSet<>();
+        final Set<StockItem> removed = new LinkedHashSet<>();
     }
 
+    private final Object pendingLock = new Object();
+    private Pending pending = new Pending();
+    private final Set<StockItem> changed = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushPosted = new AtomicBoolean();
+
     @Override
     public int getColumnCount() {
-        return columns.length;
+        return COLUMNS.length;
     }
 
     @Override
     public int getRowCount() {
-        return data.length;
+        return rows.size();
     }
 
     @Override
     public String getColumnName(int col) {
-        return columns[col];
+        return COLUMNS[col];
     }
 
     @Override
     public Object getValueAt(int row, int col) {
-        return data[row][col];
+        StockItem item = rows.get(row);
+        switch (col) {
+            case 0:
+                return item.getName();
+            case 1:
+                return item.getQuantity();
+            case 2:
+                return item.getPriceCents();
+            case 3:
+                return item.getCategory();
+            default:
+                return item.getLastUpdated();
+        }
     }
 
     @Override
@@ -891,10 +1074,242 @@ class StockTableModel extends javax.swing.table.AbstractTableModel {
         switch (col) {
             case 1: // Quantity
                 return Integer.class;
-            case 2: // Price
-                return Double.class;
+            case 2: // Price, in cents
+                return Long.class;
+            case 4: // Last updated, in epoch millis
+                return Long.class;
             default:
                 return String.class;
         }
     }
+
+    public StockItem getItemAt(int row) {
+        return rows.get(row);
+    }
+
+    // Model row of the item, or -1 when it is filtered out
+    public int indexOf(StockItem item) {
+        Integer row = rowIndex.get(item);
+        return row == null ? -1 : row;
+    }
+
+    // Call when taking the snapshot a background refresh will filter
+    public void beginRefresh() {
+        addedDuringRefresh = new ArrayList<>();
+    }
+
+    // Replaces the shown rows with a filtered snapshot
+    public void setRows(List<StockItem> items, Predicate<StockItem> filter) {
+        this.filter = filter;
+        rows.clear();
+        rowIndex.clear();
+        for (StockItem item : items) {
+            rowIndex.put(item, rows.size());
+            rows.add(item);
+        }
+        if (addedDuringRefresh != null) {
+            for (StockItem item : addedDuringRefresh) {
+                if (!rowIndex.containsKey(item) && filter.test(item)) {
+                    rowIndex.put(item, rows.size());
+                    rows.add(item);
+                }
+            }
+            addedDuringRefresh = null;
+        }
+        fireTableDataChanged();
+    }
+
+    // Runs a bulk change with table events only for the rows it touched: one
+    // per run of changed rows, or a single span once there are many runs
+    public void batch(Runnable changes) {
+        int firstNew = rows.size();
+        inBatch = true;
+        batchUpdated.clear();
+        batchRemoved = false;
+        try {
+            changes.run();
+        } finally {
+            inBatch = false;
+        }
+        if (batchRemoved) {
+            fireTableDataChanged();
+            return;
+        }
+        BitSet updated = batchUpdated.get(0, firstNew);
+        int runs = 0;
+        for (int first = updated.nextSetBit(0); first >= 0; first = updated.nextSetBit(updated.nextClearBit(first))) {
+            runs++;
+        }
+        if (runs > MAX_UPDATE_EVENTS) {
+            fireTableRowsUpdated(updated.nextSetBit(0), updated.length() - 1);
+        } else {
+            for (int first = updated.nextSetBit(0); first >= 0; ) {
+                int end = updated.nextClearBit(first);
+                fireTableRowsUpdated(first, end - 1);
+                first = updated.nextSetBit(end);
+            }
+        }
+        if (rows.size() > firstNew) {
+            fireTableRowsInserted(firstNew, rows.size() - 1);
+        }
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+        if (!queued(item, pending -> pending.added)) {
+            applyAdded(item);
+        }
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+        if (!queued(item, pending -> pending.removed)) {
+            applyRemoved(item);
+        }
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+        itemChanged(item);
+    }
+
+    // One table event for the whole basket
+    @Override
+    public void basketSold(StockItem[] items, int[] amounts, long[] prices, long[] times) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            for (StockItem item : items) {
+                itemChanged(item);
+            }
+            return;
+        }
+        batch(() -> {
+            for (StockItem item : items) {
+                itemChanged(item);
+            }
+        });
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+        itemChanged(item);
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+        itemChanged(item);
+    }
+
+    private void itemChanged(StockItem item) {
+        if (!flushPosted.get() && SwingUtilities.isEventDispatchThread()) {
+            applyChanged(item);
+            return;
+        }
+        changed.add(item);
+        postFlush();
+    }
+
+    // Adds the event to the pending flush, posting one if needed; false if it
+    // should be applied right away instead
+    private boolean queued(StockItem item, Function<Pending, Set<StockItem>> events) {
+        synchronized (pendingLock) {
+            if (!flushPosted.get() && SwingUtilities.isEventDispatchThread()) {
+                return false;
+            }
+            events.apply(pending).add(item);
+        }
+        postFlush();
+        return true;
+    }
+
+    private void postFlush() {
+        if (!flushPosted.get() && flushPosted.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    // Items are never added back once removed, so a removal wins over
+    // everything queued before it. The flag is cleared first, so an event
+    // queued after it is read posts a flush of its own.
+    private void flush() {
+        flushPosted.set(false);
+        Pending events;
+        synchronized (pendingLock) {
+            events = pending;
+            pending = new Pending();
+        }
+        batch(() -> {
+            for (StockItem item : events.added) {
+                if (!events.removed.contains(item)) {
+                    applyAdded(item);
+                }
+            }
+            for (Iterator<StockItem> items = changed.iterator(); items.hasNext(); ) {
+                StockItem item = items.next();
+                items.remove();
+                if (!events.removed.contains(item)) {
+                    applyChanged(item);
+                }
+            }
+            for (StockItem item : events.removed) {
+                applyRemoved(item);
+            }
+        });
+    }
+
+    private void applyAdded(StockItem item) {
+        if (addedDuringRefresh != null) {
+            addedDuringRefresh.add(item);
+        }
+        if (!rowIndex.containsKey(item) && filter.test(item)) {
+            rowIndex.put(item, rows.size());
+            rows.add(item);
+            if (!inBatch) {
+                fireTableRowsInserted(rows.size() - 1, rows.size() - 1);
+            }
+        }
+    }
+
+    private void applyRemoved(StockItem item) {
+        Integer row = rowIndex.get(item);
+        if (row != null) {
+            removeRow(row);
+        }
+    }
+
+    private void applyChanged(StockItem item) {
+        Integer row = rowIndex.get(item);
+        boolean visible = filter.test(item);
+        if (row == null) {
+            if (visible) {
+                applyAdded(item);
+            }
+        } else if (!visible) {
+            removeRow(row);
+        } else if (inBatch) {
+            batchUpdated.set(row);
+        } else {
+            fireTableRowsUpdated(row, row);
+        }
+    }
+
+    // The table is always shown through its sorter, so model order does not
+    // matter: the last row moves into the gap and only its index changes
+    private void removeRow(int row) {
+        int last = rows.size() - 1;
+        rowIndex.remove(rows.get(row));
+        StockItem moved = rows.remove(last);
+        if (row != last) {
+            rows.set(row, moved);
+            rowIndex.put(moved, row);
+        }
+        if (inBatch) {
+            // Rows moved, so the whole table is reported at the end
+            batchRemoved = true;
+        } else {
+            fireTableRowsDeleted(last, last);
+            if (row != last) {
+                fireTableRowsUpdated(row, row);
+            }
+        }
+    }
 }
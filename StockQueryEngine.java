@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+// Secondary indexes for the dashboard filters, all keyed by registry id: a
+// bitset per category and a price-sorted map of id lists. A query builds one
+// bitset per active filter and intersects them with BitSet.and, so the cost
+// follows the size of the answer rather than the size of the stock table. Low
+// stock is tested per result on the registry's columns; the inventory answers
+// low-stock-only queries from LowStockAlerts instead.
+class StockQueryEngine implements StockItemListener {
+
+    // Conjunction of the dashboard filters; unset fields match everything
+    static class Query {
+        String text = "";
+        String category;
+        boolean lowStockOnly;
+        long minPriceCents = Long.MIN_VALUE;
+        long maxPriceCents = Long.MAX_VALUE;
+
+        public Query text(String text) {
+            this.text = text == null ? "" : text.trim();
+            return this;
+        }
+
+        public Query category(String category) {
+            this.category = category == null || "All".equals(category) ? null : category;
+            return this;
+        }
+
+        public Query lowStockOnly(boolean lowStockOnly) {
+            this.lowStockOnly = lowStockOnly;
+            return this;
+        }
+
+        public Query priceRange(long minCents, long maxCents) {
+            this.minPriceCents = minCents;
+            this.maxPriceCents = maxCents;
+            return this;
+        }
+
+        public String getCategory() {
+            return category == null ? "All" : category;
+        }
+
+        // Same test as the indexes, for a single item that just changed
+        public boolean matches(StockItem item) {
+            long cents = item.getPriceCents();
+            return (text.isEmpty()
+                    || item.getName().toLowerCase(Locale.ROOT).contains(text.toLowerCase(Locale.ROOT)))
+                    && (category == null || category.equals(item.getCategory()))
+                    && (!lowStockOnly || item.isLowStock())
+                    && cents >= minPriceCents && cents <= maxPriceCents;
+        }
+
+        public boolean isLowStockOnly() {
+            return lowStockOnly;
+        }
+
+        private boolean hasPriceRange() {
+            return minPriceCents != Long.MIN_VALUE || maxPriceCents != Long.MAX_VALUE;
+        }
+    }
+
+    private static class IdList {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private final ItemRegistry registry;
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final BitSet live = new BitSet();
+    private final Map<String, BitSet> categories = new HashMap<>();
+    private final NavigableMap<Long, IdList> prices = new TreeMap<>();
+    // Indexed price and category per id, to find the old entries on an update
+    private long[] priceCents = new long[1024];
+    private String[] categoryOf = new String[1024];
+
+    public StockQueryEngine(ItemRegistry registry) {
+        this.registry = registry;
+    }
+
+    public synchronized void rebuild(Collection<StockItem> items) {
+        searchIndex.rebuild(items);
+        live.clear();
+        categories.clear();
+        prices.clear();
+        priceCents = new long[Math.max(1024, registry.limit())];
+        categoryOf = new String[priceCents.length];
+        for (StockItem item : items) {
+            index(item);
+        }
+    }
+
+    public synchronized void remove(StockItem item) {
+        if (!searchIndex.contains(item)) {
+            return;
+        }
+        int id = item.getId();
+        searchIndex.remove(item);
+        live.clear(id);
+        BitSet category = categories.get(categoryOf[id]);
+        if (category != null) {
+            category.clear(id);
+        }
+        IdList atPrice = prices.get(priceCents[id]);
+        if (atPrice != null) {
+            atPrice.remove(id);
+        }
+    }
+
+    public synchronized int size() {
+        return live.cardinality();
+    }
+
+    // Matching items in insertion order
+    public List<StockItem> run(Query query) {
+        List<StockItem> result = new ArrayList<>();
+        run(query, result::add);
+        return result;
+    }
+
+    // Feeds each matching item to the consumer, in insertion order
+    public synchronized void run(Query query, Consumer<StockItem> consumer) {
+        BitSet result;
+        if (query.category != null) {
+            BitSet category = categories.get(query.category);
+            if (category == null) {
+                return;
+            }
+            result = (BitSet) category.clone();
+        } else {
+            result = (BitSet) live.clone();
+        }
+        if (query.hasPriceRange() && !result.isEmpty()) {
+            result.and(priceRange(query.minPriceCents, query.maxPriceCents));
+        }
+        if (!query.text.isEmpty() && !result.isEmpty()) {
+            result.and(searchIndex.matching(query.text));
+        }
+        for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+            StockItem item = registry.itemAt(id);
+            if (item != null && (!query.lowStockOnly || registry.isLowStock(id))) {
+                consumer.accept(item);
+            }
+        }
+    }
+
+    private BitSet priceRange(long minCents, long maxCents) {
+        BitSet result = new BitSet();
+        if (minCents > maxCents) {
+            return result;
+        }
+        for (IdList atPrice : prices.subMap(minCents, true, maxCents, true).values()) {
+            for (int i = 0; i < atPrice.size; i++) {
+                result.set(atPrice.ids[i]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void itemAdded(StockItem item) {
+        if (!searchIndex.contains(item)) {
+            index(item);
+        }
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+        remove(item);
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public synchronized void itemUpdated(StockItem item, String previousCategory, long time) {
+        if (!searchIndex.contains(item)) {
+            return;
+        }
+        int id = item.getId();
+        if (!item.getCategory().equals(categoryOf[id])) {
+            BitSet previous = categories.get(categoryOf[id]);
+            if (previous != null) {
+                previous.clear(id);
+            }
+            categoryOf[id] = item.getCategory();
+            category(item.getCategory()).set(id);
+        }
+        long cents = item.getPriceCents();
+        if (cents != priceCents[id]) {
+            IdList atPrice = prices.get(priceCents[id]);
+            if (atPrice != null) {
+                atPrice.remove(id);
+            }
+            priceCents[id] = cents;
+            prices.computeIfAbsent(cents, p -> new IdList()).add(id);
+        }
+    }
+
+    private void index(StockItem item) {
+        searchIndex.add(item);
+        if (!searchIndex.contains(item)) {
+            return;
+        }
+        int id = item.getId();
+        if (id >= priceCents.length) {
+            int length = Math.max(id + 1, priceCents.length * 2);
+            priceCents = Arrays.copyOf(priceCents, length);
+            categoryOf = Arrays.copyOf(categoryOf, length);
+        }
+        live.set(id);
+        categoryOf[id] = item.getCategory();
+        category(item.getCategory()).set(id);
+        priceCents[id] = item.getPriceCents();
+        prices.computeIfAbsent(priceCents[id], p -> new IdList()).add(id);
+    }
+
+    private BitSet category(String category) {
+        return categories.computeIfAbsent(category, c -> new BitSet());
+    }
+}
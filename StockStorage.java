@@ -0,0 +1,96 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+// Where an inventory keeps its items and sales between runs. A storage hears
+// every change as a StockItemListener and hands the items back from load().
+// Pick one with -Dstock.storage=memory|journal|sql; journal is the default.
+interface StockStorage extends StockItemListener, Closeable {
+
+    // Reads back the stored items; called once, before any events arrive
+    Map<String, StockItem> load() throws IOException;
+
+    // Whether enough has changed since the last checkpoint for another to pay off
+    boolean needsCheckpoint();
+
+    // Starts a checkpoint that writes out the full state of the items so later
+    // loads start from it. This takes a consistent cut of the items, and callers
+    // must not mutate them until it returns; Inventory holds its changes off for
+    // that long only. The returned checkpoint writes the cut out and may run
+    // while changes go on.
+    Checkpoint checkpoint(Collection<StockItem> items) throws IOException;
+
+    // The part of a checkpoint that runs after changes are let go again
+    interface Checkpoint {
+        void write() throws IOException;
+    }
+
+    // Sales in [fromMillis, toMillis) computed by the storage itself, or null
+    // when it keeps no copy it can query; items resolves stored names
+    default SalesRollupIndex.Report salesReport(long fromMillis, long toMillis,
+                                                Function<String, StockItem> items) throws IOException {
+        return null;
+    }
+
+    static StockStorage open(String kind, Path dataDir) throws IOException {
+        switch (kind) {
+            case "memory":
+                return new MemoryStorage();
+            case "journal":
+                return new SaleJournal(dataDir, 20);
+            case "sql":
+                String url = System.getProperty("stock.jdbcUrl",
+                        "jdbc:h2:file:" + dataDir.toAbsolutePath().resolve("stock"));
+                return new SqlStorage(url, 200);
+            default:
+                throw new IOException("Unknown storage " + kind + "; use memory, journal or sql");
+        }
+    }
+}
+
+// Keeps nothing; the inventory starts empty every run
+class MemoryStorage implements StockStorage {
+
+    @Override
+    public Map<String, StockItem> load() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean needsCheckpoint() {
+        return false;
+    }
+
+    @Override
+    public Checkpoint checkpoint(Collection<StockItem> items) {
+        return () -> { };
+    }
+
+    @Override
+    public void itemAdded(StockItem item) {
+    }
+
+    @Override
+    public void itemRemoved(StockItem item) {
+    }
+
+    @Override
+    public void itemSold(StockItem item, int amount, long priceCents, long time) {
+    }
+
+    @Override
+    public void stockAdded(StockItem item, int amount) {
+    }
+
+    @Override
+    public void itemUpdated(StockItem item, String previousCategory, long time) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stress check for concurrent selling. Runs many tills against shared items and
+// then checks that nothing was oversold or lost:
+//   java StockStressCheck [maxThreads] [salesPerThread]
+// The last pass sells through an Inventory backed by a journal, so every
+// listener on the sale path is checked for lost updates against the items,
+// and the journal is reopened to check that recovery sees every sale. Exits
+// with status 1 if any check fails. Sales throughput is printed for each
+// thread count so scaling can be compared across machines.
+class StockStressCheck {
+    private static final int ITEMS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int salesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+        List<String> problems = new ArrayList<>();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            checkOversell(threads, problems);
+            checkMixedLoad(threads, salesPerThread, problems);
+            checkInventory(threads, salesPerThread, problems);
+        }
+        if (problems.isEmpty()) {
+            System.out.println("All checks passed");
+        } else {
+            problems.forEach(System.out::println);
+            System.exit(1);
+        }
+    }
+
+    // Every thread races for the last units of one item; exactly the stock on hand may be sold
+    private static void checkOversell(int threads, List<String> problems) throws InterruptedException {
+        int stock = 100_000;
+        StockItem item = new StockItem("Contended", stock, 1.25, 0, "Other");
+        AtomicInteger sold = new AtomicInteger();
+        run(threads, thread -> {
+            while (item.trySell(1)) {
+                sold.incrementAndGet();
+            }
+        });
+        if (sold.get() != stock || item.getQuantity() != 0 || item.getTotalSold() != stock
+                || item.getSales().size() != stock) {
+            problems.add(String.format("Oversell with %d threads: %d sold of %d, quantity left %d, history %d",
+                    threads, sold.get(), stock, item.getQuantity(), item.getSales().size()));
+        }
+        checkHistory(item, problems);
+    }
+
+    // Sales spread over many items with one hot item, restocks running alongside,
+    // and the aggregates listener attached
+    private static void checkMixedLoad(int threads, int salesPerThread, List<String> problems)
+            throws InterruptedException {
+        List<StockItem> items = new ArrayList<>();
+        SalesAggregates aggregates = new SalesAggregates();
+        StockListeners listeners = new StockListeners();
+        listeners.add(aggregates);
+        String[] categories = { "Electronics", "Clothing", "Food", "Other" };
+        for (int i = 0; i < ITEMS; i++) {
+            StockItem item = new StockItem("Item " + i, 1_000, 0.5 + i % 100, 10, categories[i % 4]);
+            item.setListener(listeners);
+            items.add(item);
+            aggregates.itemAdded(item);
+        }
+        AtomicLong restocked = new AtomicLong();
+        AtomicLong unitsSold = new AtomicLong();
+
+        long start = System.nanoTime();
+        run(threads, thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long units = 0;
+            for (int i = 0; i < salesPerThread; i++) {
+                // A quarter of the traffic goes to item 0
+                StockItem item = items.get(random.nextInt(4) == 0 ? 0 : random.nextInt(ITEMS));
+                int amount = 1 + random.nextInt(3);
+                if (item.trySell(amount)) {
+                    units += amount;
+                } else {
+                    item.addStock(500);
+                    restocked.addAndGet(500);
+                }
+            }
+            unitsSold.addAndGet(units);
+        });
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%2d threads: %,d sale attempts in %d ms, %,.0f per second%n", threads,
+                (long) threads * salesPerThread, elapsed / 1_000_000,
+                threads * (double) salesPerThread * 1e9 / elapsed);
+
+        long quantity = 0;
+        long sold = 0;
+        for (StockItem item : items) {
+            quantity += item.getQuantity();
+            sold += item.getTotalSold();
+            if (item.getQuantity() < 0) {
+                problems.add(item.getName() + " went negative: " + item.getQuantity());
+            }
+            checkHistory(item, problems);
+        }
+        if (sold != unitsSold.get() || quantity != ITEMS * 1_000L + restocked.get() - sold) {
+            problems.add(String.format("Lost updates with %d threads: sold %d (tills counted %d), on hand %d,"
+                    + " expected %d", threads, sold, unitsSold.get(), quantity,
+                    ITEMS * 1_000L + restocked.get() - sold));
+        }
+        for (String problem : aggregates.verify(items)) {
+            problems.add("Aggregates with " + threads + " threads: " + problem);
+        }
+    }
+
+    // Tills sell and restock through an Inventory, so the sale goes through every
+    // listener, then each listener's state is checked against the items
+    private static void checkInventory(int threads, int salesPerThread, List<String> problems)
+            throws InterruptedException, IOException {
+        Path dataDir = Files.createTempDirectory("stock-stress");
+        SaleJournal journal = new SaleJournal(dataDir, 20);
+        Inventory inventory = Inventory.open(journal);
+        String[] categories = { "Electronics", "Clothing", "Food", "Other" };
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            names.add("Item " + i);
+            inventory.addItem(names.get(i), 1_000, 0.5 + i % 100, 10, categories[i % 4]);
+        }
+        AtomicLong unitsSold = new AtomicLong();
+        AtomicLong salesMade = new AtomicLong();
+
+        long start = System.nanoTime();
+        run(threads, thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long units = 0;
+            long sales = 0;
+            for (int i = 0; i < salesPerThread; i++) {
+                String name = names.get(random.nextInt(4) == 0 ? 0 : random.nextInt(ITEMS));
+                int amount = 1 + random.nextInt(3);
+                try {
+                    if (random.nextInt(16) == 0) {
+                        Basket basket = new Basket();
+                        basket.add(name, amount);
+                        basket.add(names.get(random.nextInt(ITEMS)), 1);
+                        for (SaleRecord sale : inventory.sellBasket(basket)) {
+                            units += sale.getQuantity();
+                            sales++;
+                        }
+                    } else {
+                        units += inventory.sell(name, amount).getQuantity();
+                        sales++;
+                    }
+                } catch (InsufficientStockException e) {
+                    inventory.restock(name, 500);
+                }
+            }
+            unitsSold.addAndGet(units);
+            salesMade.addAndGet(sales);
+        });
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%2d threads through Inventory: %,d sale attempts in %d ms, %,.0f per second%n",
+                threads, (long) threads * salesPerThread, elapsed / 1_000_000,
+                threads * (double) salesPerThread * 1e9 / elapsed);
+
+        String label = "Inventory with " + threads + " threads: ";
+        List<StockItem> items = new ArrayList<>(inventory.getItems());
+        long sold = 0;
+        long saleCount = 0;
+        long revenue = 0;
+        for (StockItem item : items) {
+            sold += item.getTotalSold();
+            saleCount += item.getSaleCount();
+            revenue += item.getTotalSalesCents();
+            checkHistory(item, problems);
+        }
+        check(problems, sold == unitsSold.get() && saleCount == salesMade.get(),
+                "%sitems sold %d units in %d sales, tills counted %d in %d", label, sold, saleCount,
+                unitsSold.get(), salesMade.get());
+
+        SalesAggregates.Totals totals = inventory.getTotals("All");
+        check(problems, totals.getUnitsSold() == sold && totals.getSaleCount() == saleCount
+                        && totals.getRevenueCents() == revenue,
+                "%saggregates hold %d units/%d sales/%d cents, items %d/%d/%d", label, totals.getUnitsSold(),
+                totals.getSaleCount(), totals.getRevenueCents(), sold, saleCount, revenue);
+
+        long now = StockClock.millis();
+        SalesRollupIndex.Report report = inventory.salesReport(now - 86_400_000L, now + 86_400_000L);
+        check(problems, report.getUnits() == sold && report.getRevenueCents() == revenue,
+                "%srollup holds %d units/%d cents, items %d/%d", label, report.getUnits(),
+                report.getRevenueCents(), sold, revenue);
+
+        List<StockItem> expectedBest = items.stream()
+                .sorted(Comparator.comparingLong(StockItem::getTotalSold).reversed()
+                        .thenComparing(StockItem::getName))
+                .limit(10)
+                .collect(Collectors.toList());
+        List<StockItem> best = inventory.bestSellers(10);
+        check(problems, best.equals(expectedBest), "%sbest sellers %s, expected %s", label,
+                namesOf(best), namesOf(expectedBest));
+
+        for (HeavyHitters.Estimate estimate : inventory.trending(HeavyHitters.Window.WEEK, 10)) {
+            long actual = estimate.getItem().getTotalSold();
+            check(problems, estimate.getUnits() - estimate.getError() <= actual && actual <= estimate.getUnits(),
+                    "%strending puts %s at %d units (error %d), it sold %d", label, estimate.getItem().getName(),
+                    estimate.getUnits(), estimate.getError(), actual);
+        }
+
+        Set<StockItem> low = new HashSet<>(inventory.getLowStockItems());
+        Set<StockItem> expectedLow = items.stream().filter(StockItem::isLowStock).collect(Collectors.toSet());
+        check(problems, low.equals(expectedLow), "%s%d low stock alerts, %d items are low", label, low.size(),
+                expectedLow.size());
+
+        // Only the journal is closed, as a crash after its last flush would leave
+        // it, so recovery has to replay every sale rather than read a checkpoint
+        journal.close();
+        Inventory recovered = Inventory.open(new SaleJournal(dataDir, 20));
+        for (StockItem item : items) {
+            StockItem copy = recovered.findItem(item.getName());
+            check(problems, copy != null && copy.getQuantity() == item.getQuantity()
+                            && copy.getTotalSold() == item.getTotalSold() && copy.getSaleCount() == item.getSaleCount()
+                            && copy.getTotalSalesCents() == item.getTotalSalesCents(),
+                    "%s%s recovered from the journal as %s", label, item.getName(),
+                    copy == null ? "missing" : copy.getQuantity() + " on hand/" + copy.getSaleCount() + " sales");
+        }
+        recovered.close();
+    }
+
+    private static void check(List<String> problems, boolean passed, String format, Object... args) {
+        if (!passed) {
+            problems.add(String.format(format, args));
+        }
+    }
+
+    private static List<String> namesOf(List<StockItem> items) {
+        return items.stream().map(StockItem::getName).collect(Collectors.toList());
+    }
+
+    // History must match the running totals and be in time order
+    private static void checkHistory(StockItem item, List<String> problems) {
+        SalesHistory history = item.getSales();
+        long units = 0;
+        long revenue = 0;
+        for (int i = 0; i < history.size(); i++) {
+            units += history.quantityAt(i);
+            revenue += history.quantityAt(i) * history.priceCentsAt(i);
+            if (i > 0 && history.timeAt(i) < history.timeAt(i - 1)) {
+                problems.add(item.getName() + ": history out of order at " + i);
+                return;
+            }
+        }
+        if (units != item.getTotalSold() || revenue != item.getTotalSalesCents()
+                || history.size() != item.getSaleCount()) {
+            problems.add(String.format("%s: totals %d units/%d cents/%d sales, history %d/%d/%d",
+                    item.getName(), item.getTotalSold(), item.getTotalSalesCents(), item.getSaleCount(),
+                    units, revenue, history.size()));
+        }
+    }
+
+    private interface Till {
+        void run(int thread);
+    }
+
+    // Starts all tills together and waits for them to finish
+    private static void run(int threads, Till till) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    ready.await();
+                    till.run(thread);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "till-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
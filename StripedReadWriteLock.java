@@ -0,0 +1,37 @@
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// A read-write lock whose read side is striped by thread, so readers on
+// different stripes share no lock state and never contend. The write side takes
+// every stripe's write lock in order, which makes it costlier, so it suits rare
+// writers such as a checkpoint taking its cut.
+class StripedReadWriteLock {
+    private static final int MAX_STRIPES = 64;
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    StripedReadWriteLock() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        stripes = new ReentrantReadWriteLock[Math.min(MAX_STRIPES, Integer.highestOneBit(processors * 2 - 1) * 2)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // The calling thread's stripe; lock and unlock it on the same thread
+    Lock readLock() {
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)].readLock();
+    }
+
+    void lockWrite() {
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+    }
+
+    void unlockWrite() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+}
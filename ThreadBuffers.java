@@ -0,0 +1,35 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// One buffer per thread for events on the sale path. A thread appends to its
+// own buffer while holding that buffer's monitor, which only a drain ever
+// contends, so concurrent tills never wait on each other. Buffers of threads
+// that have ended stay registered and are drained like the rest.
+class ThreadBuffers<T> {
+    private final List<T> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<T> local;
+
+    ThreadBuffers(Supplier<T> factory) {
+        local = ThreadLocal.withInitial(() -> {
+            T buffer = factory.get();
+            buffers.add(buffer);
+            return buffer;
+        });
+    }
+
+    // The calling thread's buffer; synchronize on it while appending
+    T get() {
+        return local.get();
+    }
+
+    // Hands every buffer to the consumer while holding its monitor
+    void forEach(Consumer<T> consumer) {
+        for (T buffer : buffers) {
+            synchronized (buffer) {
+                consumer.accept(buffer);
+            }
+        }
+    }
+}
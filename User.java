@@ -0,0 +1,26 @@
+import java.io.Serializable;
+
+class User implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String username;
+    private final String password;
+    private final String role;
+
+    public User(String username, String password, String role) {
+        this.username = username;
+        this.password = password;
+        this.role = role;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean checkPassword(String inputPassword) {
+        return password.equals(inputPassword);
+    }
+
+    public String getRole() {
+        return role;
+    }
+}